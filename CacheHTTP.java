@@ -0,0 +1,365 @@
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Caché en disco de los ficheros JSON de los datasets, indexada por URL. Guarda el contenido de cada fichero junto con
+ * su ETag y su Last-Modified para que {@link ClienteHTTP} pueda revalidarlo con una petición condicional: si el
+ * servidor responde 304 el contenido se lee del disco.
+ * <br>
+ * Cada entrada ocupa dos ficheros en el directorio de la caché: <code>clave.json</code> con el contenido ya
+ * descomprimido y <code>clave.meta</code> con sus metadatos, donde la clave es el SHA-256 de la URL. La fecha de
+ * modificación del fichero de metadatos indica el último uso de la entrada; cuando el tamaño total supera el máximo se
+ * eliminan las entradas usadas hace más tiempo.
+ *
+ * @author Adolfo Trocolí Naranjo, 09218364X, a.trocoli@alumnos.upm.es
+ *
+ */
+public class CacheHTTP {
+
+	public static final long TAMAÑO_MAXIMO = 256L * 1024 * 1024;
+
+	private static final String EXTENSION_CONTENIDO = ".json";
+	private static final String EXTENSION_META = ".meta";
+	private static final String EXTENSION_TEMPORAL = ".tmp";
+
+	/**
+	 * Fichero cacheado y los validadores con los que se obtuvo.
+	 */
+	public static class Entrada {
+		private final String clave, url, etag, lastModified;
+		private final long tamaño;
+
+		private Entrada(String clave, String url, String etag, String lastModified, long tamaño) {
+			this.clave = clave;
+			this.url = url;
+			this.etag = etag;
+			this.lastModified = lastModified;
+			this.tamaño = tamaño;
+		}
+
+		/**
+		 * @return ETag de la respuesta, o null si el servidor no lo envió.
+		 */
+		public String getEtag() {
+			return etag;
+		}
+
+		/**
+		 * @return Last-Modified de la respuesta, o null si el servidor no lo envió.
+		 */
+		public String getLastModified() {
+			return lastModified;
+		}
+	}
+
+	private final File directorio;
+	private final long tamañoMaximo;
+	// Clave -> entrada, de la usada hace más tiempo a la más reciente
+	private final LinkedHashMap<String, Entrada> entradas = new LinkedHashMap<String, Entrada>(16, 0.75f, true);
+	private long tamañoTotal;
+
+	private final AtomicLong aciertos = new AtomicLong(), fallos = new AtomicLong(), bytesAhorrados = new AtomicLong();
+
+	/**
+	 * Abre la caché del directorio indicado, creándolo si no existe, y carga el índice de las entradas guardadas en
+	 * ejecuciones anteriores.
+	 *
+	 * @param directorio   Directorio de la caché.
+	 * @param tamañoMaximo Tamaño máximo, en bytes, del contenido de todas las entradas.
+	 * @throws IOException Si no se puede crear o leer el directorio.
+	 */
+	public CacheHTTP(File directorio, long tamañoMaximo) throws IOException {
+		this.directorio = directorio;
+		this.tamañoMaximo = tamañoMaximo;
+		Files.createDirectories(directorio.toPath());
+		cargarIndice();
+	}
+
+	private void cargarIndice() throws IOException {
+		File[] temporales = directorio.listFiles((dir, nombre) -> nombre.endsWith(EXTENSION_TEMPORAL));
+		if (temporales != null) for (File temporal : temporales)
+			temporal.delete(); // Restos de una ejecución interrumpida
+		File[] ficheros = directorio.listFiles((dir, nombre) -> nombre.endsWith(EXTENSION_META));
+		if (ficheros == null) throw new IOException("No se puede leer el directorio " + directorio);
+		List<File> metas = new ArrayList<File>(List.of(ficheros));
+		metas.sort(Comparator.comparingLong(File::lastModified));
+		for (File meta : metas) {
+			final String clave = meta.getName().substring(0, meta.getName().length() - EXTENSION_META.length());
+			final File contenido = getFicheroContenido(clave);
+			Properties propiedades = new Properties();
+			final long tamaño;
+			try (InputStream entrada = new FileInputStream(meta)) {
+				propiedades.load(entrada);
+				tamaño = Long.parseLong(propiedades.getProperty("tamaño", "-1"));
+			} catch (IOException | IllegalArgumentException e) {
+				// Entrada a medio escribir o dañada. load() lanza IllegalArgumentException si algún escape Unicode
+				// está mal formado, y parseLong() NumberFormatException, que también lo es, si el tamaño no es válido
+				borrar(clave);
+				continue;
+			}
+			if (!contenido.isFile() || contenido.length() != tamaño) {
+				borrar(clave);
+				continue;
+			}
+			entradas.put(clave, new Entrada(clave, propiedades.getProperty("url"), propiedades.getProperty("etag"),
+					propiedades.getProperty("lastModified"), contenido.length()));
+			tamañoTotal += contenido.length();
+		}
+		reducir(); // El máximo puede ser menor que en la ejecución anterior
+	}
+
+	/**
+	 * @param url URL del fichero.
+	 * @return Entrada de la URL, o null si no está en la caché.
+	 */
+	public synchronized Entrada buscar(String url) {
+		return entradas.get(getClave(url));
+	}
+
+	/**
+	 * Abre el contenido de una entrada revalidada por el servidor (respuesta 304) y la marca como usada.
+	 *
+	 * @param entrada Entrada obtenida con {@link #buscar(String)}.
+	 * @return Flujo con el contenido cacheado.
+	 * @throws FileNotFoundException Si el contenido se ha eliminado, por ejemplo para hacer sitio a otro después de
+	 *                               buscar la entrada. La entrada se descarta si sigue en la caché.
+	 * @throws IOException           Si el contenido no se puede leer.
+	 */
+	public InputStream abrir(Entrada entrada) throws IOException {
+		final InputStream contenido;
+		try {
+			contenido = new FileInputStream(getFicheroContenido(entrada.clave));
+		} catch (FileNotFoundException e) {
+			descartar(entrada);
+			throw e;
+		}
+		synchronized (this) {
+			entradas.get(entrada.clave); // Actualiza el orden de uso
+		}
+		try {
+			Files.setLastModifiedTime(getFicheroMeta(entrada.clave).toPath(),
+					FileTime.fromMillis(System.currentTimeMillis()));
+		} catch (IOException e) {
+			// Solo afecta al orden de eliminación en la siguiente ejecución
+		}
+		aciertos.incrementAndGet();
+		bytesAhorrados.addAndGet(entrada.tamaño);
+		return contenido;
+	}
+
+	/**
+	 * Devuelve un flujo que copia en la caché lo que se lee del contenido descargado. La entrada se guarda al cerrar el
+	 * flujo; si no se ha leído entero, antes se descarga el resto para que la entrada esté completa.
+	 *
+	 * @param url          URL del fichero.
+	 * @param etag         ETag de la respuesta, o null.
+	 * @param lastModified Last-Modified de la respuesta, o null.
+	 * @param contenido    Contenido descargado, ya descomprimido.
+	 * @return Flujo a usar en lugar del contenido.
+	 * @throws IOException Si no se puede crear el fichero temporal.
+	 */
+	public InputStream guardar(String url, String etag, String lastModified, InputStream contenido) throws IOException {
+		fallos.incrementAndGet();
+		if (etag == null && lastModified == null) return contenido; // No se podría revalidar
+		return new FlujoCopia(contenido, url, etag, lastModified);
+	}
+
+	/**
+	 * Registra una entrada cuyo contenido ya está escrito en el fichero temporal, y elimina las entradas usadas hace
+	 * más tiempo hasta volver al tamaño máximo.
+	 */
+	private void confirmar(File temporal, String url, String etag, String lastModified) throws IOException {
+		final String clave = getClave(url);
+		final long tamaño = temporal.length();
+		if (tamaño > tamañoMaximo) {
+			temporal.delete();
+			return;
+		}
+		Properties propiedades = new Properties();
+		propiedades.setProperty("url", url);
+		propiedades.setProperty("tamaño", Long.toString(tamaño));
+		if (etag != null) propiedades.setProperty("etag", etag);
+		if (lastModified != null) propiedades.setProperty("lastModified", lastModified);
+		File metaTemporal = File.createTempFile(clave, EXTENSION_TEMPORAL, directorio);
+		try (OutputStream salida = new FileOutputStream(metaTemporal)) {
+			propiedades.store(salida, null);
+		}
+		synchronized (this) {
+			Entrada anterior = entradas.remove(clave);
+			if (anterior != null) tamañoTotal -= anterior.tamaño;
+			Files.move(temporal.toPath(), getFicheroContenido(clave).toPath(), StandardCopyOption.REPLACE_EXISTING,
+					StandardCopyOption.ATOMIC_MOVE);
+			Files.move(metaTemporal.toPath(), getFicheroMeta(clave).toPath(), StandardCopyOption.REPLACE_EXISTING,
+					StandardCopyOption.ATOMIC_MOVE);
+			entradas.put(clave, new Entrada(clave, url, etag, lastModified, tamaño));
+			tamañoTotal += tamaño;
+			reducir();
+		}
+	}
+
+	/**
+	 * Elimina las entradas usadas hace más tiempo hasta que el tamaño total no supere el máximo.
+	 */
+	private synchronized void reducir() {
+		Iterator<Entrada> antiguas = entradas.values().iterator();
+		while (tamañoTotal > tamañoMaximo) {
+			Entrada antigua = antiguas.next();
+			antiguas.remove();
+			tamañoTotal -= antigua.tamaño;
+			borrar(antigua.clave);
+		}
+	}
+
+	/**
+	 * Elimina la entrada si sigue en la caché, y no otra más reciente de la misma URL.
+	 */
+	private synchronized void descartar(Entrada entrada) {
+		if (!entradas.remove(entrada.clave, entrada)) return;
+		tamañoTotal -= entrada.tamaño;
+		borrar(entrada.clave);
+	}
+
+	private void borrar(String clave) {
+		getFicheroMeta(clave).delete();
+		getFicheroContenido(clave).delete();
+	}
+
+	public long getAciertos() {
+		return aciertos.get();
+	}
+
+	public long getFallos() {
+		return fallos.get();
+	}
+
+	/**
+	 * @return Bytes de contenido (descomprimido) leídos de la caché en lugar de descargarse.
+	 */
+	public long getBytesAhorrados() {
+		return bytesAhorrados.get();
+	}
+
+	public synchronized long getTamañoTotal() {
+		return tamañoTotal;
+	}
+
+	/**
+	 * Imprime los contadores de uso de la caché.
+	 */
+	public void imprimir(PrintStream salida) {
+		salida.println("Caché HTTP (" + directorio + "):");
+		salida.printf("\t%-25s %10d%n", "aciertos (304)", getAciertos());
+		salida.printf("\t%-25s %10d%n", "fallos", getFallos());
+		salida.printf("\t%-25s %10.2f%n", "MB ahorrados", getBytesAhorrados() / 1048576.0);
+		salida.printf("\t%-25s %10.2f%n", "MB en caché", getTamañoTotal() / 1048576.0);
+	}
+
+	private File getFicheroContenido(String clave) {
+		return new File(directorio, clave + EXTENSION_CONTENIDO);
+	}
+
+	private File getFicheroMeta(String clave) {
+		return new File(directorio, clave + EXTENSION_META);
+	}
+
+	private static String getClave(String url) {
+		try {
+			final byte[] resumen = MessageDigest.getInstance("SHA-256").digest(url.getBytes(StandardCharsets.UTF_8));
+			StringBuilder clave = new StringBuilder();
+			for (byte b : resumen)
+				clave.append(String.format("%02x", b));
+			return clave.toString();
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException(e); // Todas las JVM incluyen SHA-256
+		}
+	}
+
+	/**
+	 * Flujo que escribe en un fichero temporal todo lo que lee, y lo guarda en la caché al cerrarse.
+	 */
+	private class FlujoCopia extends FilterInputStream {
+
+		private final String url, etag, lastModified;
+		private final File temporal;
+		private final OutputStream copia;
+		private boolean completo, fallido, cerrado;
+
+		private FlujoCopia(InputStream contenido, String url, String etag, String lastModified) throws IOException {
+			super(contenido);
+			this.url = url;
+			this.etag = etag;
+			this.lastModified = lastModified;
+			temporal = File.createTempFile(getClave(url), EXTENSION_TEMPORAL, directorio);
+			copia = new FileOutputStream(temporal);
+		}
+
+		@Override
+		public int read() throws IOException {
+			final byte[] b = new byte[1];
+			final int leidos = read(b, 0, 1);
+			return leidos < 0 ? -1 : b[0] & 0xff;
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException {
+			final int leidos;
+			try {
+				leidos = super.read(b, off, len);
+				if (leidos < 0) completo = true;
+				else copia.write(b, off, leidos);
+			} catch (IOException e) {
+				fallido = true;
+				throw e;
+			}
+			return leidos;
+		}
+
+		@Override
+		public long skip(long n) throws IOException {
+			final byte[] buffer = new byte[(int) Math.min(n, 8192)];
+			final int leidos = read(buffer, 0, buffer.length);
+			return Math.max(leidos, 0);
+		}
+
+		@Override
+		public void close() throws IOException {
+			if (cerrado) return;
+			cerrado = true;
+			try {
+				if (!completo && !fallido && !Thread.currentThread().isInterrupted()) {
+					// Se descarga el resto para que la entrada quede completa, salvo si se ha agotado el plazo
+					final byte[] buffer = new byte[64 * 1024];
+					while (read(buffer, 0, buffer.length) >= 0)
+						;
+				}
+			} catch (IOException e) {
+				// La entrada se descarta
+			} finally {
+				copia.close();
+				super.close();
+				if (completo && !fallido) confirmar(temporal, url, etag, lastModified);
+				else temporal.delete();
+			}
+		}
+	}
+}
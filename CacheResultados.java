@@ -0,0 +1,284 @@
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Caché en memoria de los resultados de las consultas de {@link ServidorConsultas}: el resultado de resolver el código
+ * sobre el catálogo y los resources descargados de sus datasets. La clave debe identificar el contenido del catálogo,
+ * el código y las opciones que afectan a la extracción, de forma que una versión nueva del catálogo no reutiliza
+ * resultados de la anterior.
+ * <br>
+ * El tamaño se limita en bytes, estimando lo que ocupa cada resultado. Cuando no cabe un resultado nuevo se aplica la
+ * política de admisión de TinyLFU: un esbozo de conteo (count-min) estima cuántas veces se ha pedido recientemente cada
+ * clave, y el resultado solo entra si se ha pedido más veces que el menos usado de la caché, que es el que se desaloja.
+ * Así una consulta suelta no expulsa a las que se repiten continuamente.
+ * <br>
+ * Los resources caducan al cabo del tiempo indicado. Un resultado caducado se sigue devolviendo para no volver a
+ * resolver el código, pero sus resources deben descargarse de nuevo.
+ *
+ * @author Adolfo Trocolí Naranjo, 09218364X, a.trocoli@alumnos.upm.es
+ *
+ */
+public class CacheResultados {
+
+	public static final long TAMAÑO_MAXIMO = 64L * 1024 * 1024;
+	public static final long TTL_RESOURCES = 300; // Segundos
+
+	// Estimación de lo que ocupa cada objeto en una JVM de 64 bits con punteros comprimidos
+	private static final int BYTES_OBJETO = 16, BYTES_REFERENCIA = 4, BYTES_CADENA = 40, BYTES_ENTRADA_MAPA = 48;
+	// Lista de todos los resources e índices espacial y temporal de ResourcesIndexados, por resource
+	private static final int BYTES_INDICES = 104;
+
+	/**
+	 * Resultado guardado en la caché.
+	 */
+	public static class Entrada {
+		private final ResultadoBusqueda resultado;
+		private final ResourcesIndexados resources;
+		private final long caducidad; // Instante, según System.nanoTime(), en que caducan los resources
+		private final long bytes;
+
+		private Entrada(ResultadoBusqueda resultado, ResourcesIndexados resources, long caducidad) {
+			this.resultado = resultado;
+			this.resources = resources;
+			this.caducidad = caducidad;
+			this.bytes = estimarBytes(resultado, resources.getResources());
+		}
+
+		public ResultadoBusqueda getResultado() {
+			return resultado;
+		}
+
+		/**
+		 * @return Resources descargados, con los índices que ya hayan creado los filtros de consultas anteriores.
+		 */
+		public ResourcesIndexados getResources() {
+			return resources;
+		}
+
+		/**
+		 * @return true si los resources han caducado y deben descargarse de nuevo.
+		 */
+		public boolean isCaducada() {
+			return System.nanoTime() - caducidad >= 0;
+		}
+	}
+
+	private final long tamañoMaximo;
+	private final long ttlNanos;
+	private final LinkedHashMap<String, Entrada> entradas; // En orden de acceso: la primera es la menos usada
+	private final EsbozoFrecuencias frecuencias;
+	private long tamañoTotal;
+	private long aciertos, caducados, fallos, rechazados, desalojados;
+
+	/**
+	 * @param tamañoMaximo Tamaño máximo estimado de los resultados guardados, en bytes.
+	 * @param ttl          Segundos durante los que se reutilizan los resources descargados.
+	 */
+	public CacheResultados(long tamañoMaximo, long ttl) {
+		this.tamañoMaximo = tamañoMaximo;
+		this.ttlNanos = ttl * 1_000_000_000L;
+		entradas = new LinkedHashMap<String, Entrada>(16, 0.75f, true);
+		frecuencias = new EsbozoFrecuencias(1024);
+	}
+
+	/**
+	 * Busca un resultado y anota la consulta en el esbozo de frecuencias.
+	 *
+	 * @param clave Clave de la consulta.
+	 * @return Resultado guardado, que puede estar caducado, o null si no está.
+	 */
+	public synchronized Entrada buscar(String clave) {
+		frecuencias.incrementar(clave);
+		final Entrada entrada = entradas.get(clave);
+		if (entrada == null) fallos++;
+		else if (entrada.isCaducada()) caducados++;
+		else aciertos++;
+		return entrada;
+	}
+
+	/**
+	 * Guarda un resultado, sustituyendo al anterior de la misma clave. Si no cabe, se buscan los menos usados que haya
+	 * que desalojar para hacerle sitio, y se desalojan solo si todos se han pedido menos veces que el nuevo; si no, el
+	 * nuevo se descarta y la caché queda como estaba.
+	 *
+	 * @param clave     Clave de la consulta.
+	 * @param resultado Resultado de resolver el código.
+	 * @param resources Resources descargados de cada dataset del resultado.
+	 * @return true si el resultado se ha guardado.
+	 */
+	public boolean guardar(String clave, ResultadoBusqueda resultado, ResourcesIndexados resources) {
+		final Entrada nueva = new Entrada(resultado, resources, System.nanoTime() + ttlNanos); // Estimación sin bloqueo
+		synchronized (this) {
+			return admitir(clave, nueva);
+		}
+	}
+
+	private boolean admitir(String clave, Entrada nueva) {
+		// Un resultado que no cabe nunca no sustituye al anterior, que sigue siendo válido
+		if (nueva.bytes > tamañoMaximo) {
+			rechazados++;
+			return false;
+		}
+		final Entrada anterior = entradas.remove(clave);
+		if (anterior != null) tamañoTotal -= anterior.bytes;
+		// Se eligen todas las víctimas necesarias, y solo se desalojan si el nuevo se ha pedido más que cada una
+		final int frecuencia = frecuencias.estimar(clave);
+		final List<String> victimas = new ArrayList<String>();
+		long liberados = 0;
+		final Iterator<Map.Entry<String, Entrada>> candidatas = entradas.entrySet().iterator();
+		while (tamañoTotal - liberados + nueva.bytes > tamañoMaximo) {
+			final Map.Entry<String, Entrada> victima = candidatas.next();
+			if (anterior == null && frecuencias.estimar(victima.getKey()) >= frecuencia) {
+				rechazados++;
+				return false;
+			}
+			victimas.add(victima.getKey());
+			liberados += victima.getValue().bytes;
+		}
+		for (String victima : victimas)
+			entradas.remove(victima);
+		tamañoTotal -= liberados;
+		desalojados += victimas.size();
+		entradas.put(clave, nueva);
+		tamañoTotal += nueva.bytes;
+		return true;
+	}
+
+	/**
+	 * Descarta todos los resultados, por ejemplo al cargar una versión nueva del catálogo.
+	 */
+	public synchronized void vaciar() {
+		entradas.clear();
+		tamañoTotal = 0;
+	}
+
+	public synchronized long getAciertos() {
+		return aciertos;
+	}
+
+	public synchronized long getCaducados() {
+		return caducados;
+	}
+
+	public synchronized long getFallos() {
+		return fallos;
+	}
+
+	public synchronized long getRechazados() {
+		return rechazados;
+	}
+
+	public synchronized long getDesalojados() {
+		return desalojados;
+	}
+
+	public synchronized int getNumEntradas() {
+		return entradas.size();
+	}
+
+	public synchronized long getTamañoTotal() {
+		return tamañoTotal;
+	}
+
+	/**
+	 * @return Proporción de consultas servidas sin descargar nada, entre 0 y 1.
+	 */
+	public synchronized double getTasaAciertos() {
+		final long consultas = aciertos + caducados + fallos;
+		return consultas == 0 ? 0 : (double) aciertos / consultas;
+	}
+
+	/**
+	 * Estima la memoria que ocupa un resultado, contando los índices de los resources aunque no se hayan creado. Los
+	 * valores que los resources comparten a través del {@link DiccionarioValores} se cuentan en cada resource, por lo
+	 * que la estimación es por exceso.
+	 */
+	private static long estimarBytes(ResultadoBusqueda resultado, Map<String, List<Resource>> resources) {
+		long bytes = BYTES_OBJETO * 2 + bytesCadena(resultado.getLabel()) + bytesCadena(resultado.getCodigo());
+		for (String concept : resultado.getConcepts())
+			bytes += BYTES_REFERENCIA + bytesCadena(concept);
+		for (Map.Entry<String, HashMap<String, String>> dataset : resultado.getDatasets().entrySet()) {
+			bytes += BYTES_ENTRADA_MAPA + bytesCadena(dataset.getKey());
+			for (String valor : dataset.getValue().values())
+				bytes += BYTES_ENTRADA_MAPA + bytesCadena(valor);
+		}
+		for (Map.Entry<String, List<Resource>> dataset : resources.entrySet()) {
+			bytes += BYTES_ENTRADA_MAPA + BYTES_OBJETO;
+			for (Resource resource : dataset.getValue())
+				bytes += BYTES_INDICES + BYTES_REFERENCIA + BYTES_OBJETO + 13 * BYTES_REFERENCIA
+						+ bytesCadena(resource.getConcept()) + bytesCadena(resource.getLink())
+						+ bytesCadena(resource.getRelation()) + bytesCadena(resource.getTitle())
+						+ bytesCadena(resource.getEventLocation()) + bytesCadena(resource.getArea())
+						+ bytesCadena(resource.getDescription()) + bytesCadena(resource.getDtstart())
+						+ bytesCadena(resource.getDtend()) + bytesCadena(resource.getLatitude())
+						+ bytesCadena(resource.getLongitude()) + bytesCadena(resource.getAccesibility())
+						+ bytesCadena(resource.getOrganizationName());
+		}
+		return bytes;
+	}
+
+	private static long bytesCadena(String cadena) {
+		return cadena == null ? 0 : BYTES_CADENA + cadena.length();
+	}
+
+	/**
+	 * Esbozo count-min con contadores que se saturan en 15, como los de 4 bits de TinyLFU: estima cuántas veces se ha
+	 * visto cada clave con una memoria fija, pudiendo equivocarse solo por exceso. Cuando el número de incrementos
+	 * alcanza diez veces su anchura, todos los contadores se dividen entre dos, de forma que las frecuencias antiguas
+	 * pierden peso.
+	 */
+	private static class EsbozoFrecuencias {
+
+		private static final int FILAS = 4;
+		private static final int MAXIMO = 15;
+		private static final int[] SEMILLAS = { 0x9E3779B9, 0x85EBCA6B, 0xC2B2AE35, 0x27D4EB2F };
+
+		private final byte[][] contadores;
+		private final int mascara;
+		private final int periodo;
+		private int incrementos;
+
+		/**
+		 * @param anchura Contadores por fila; se redondea a la siguiente potencia de dos.
+		 */
+		EsbozoFrecuencias(int anchura) {
+			final int columnas = Integer.highestOneBit(Math.max(2, anchura - 1)) << 1;
+			contadores = new byte[FILAS][columnas];
+			mascara = columnas - 1;
+			periodo = columnas * 10;
+		}
+
+		void incrementar(String clave) {
+			final int hash = clave.hashCode();
+			for (int fila = 0; fila < FILAS; fila++) {
+				final int columna = columna(hash, fila);
+				if (contadores[fila][columna] < MAXIMO) contadores[fila][columna]++;
+			}
+			if (++incrementos >= periodo) envejecer();
+		}
+
+		int estimar(String clave) {
+			final int hash = clave.hashCode();
+			int minimo = MAXIMO;
+			for (int fila = 0; fila < FILAS; fila++)
+				minimo = Math.min(minimo, contadores[fila][columna(hash, fila)]);
+			return minimo;
+		}
+
+		private int columna(int hash, int fila) {
+			final int mezcla = (hash ^ SEMILLAS[fila]) * SEMILLAS[(fila + 1) % FILAS];
+			return (mezcla ^ (mezcla >>> 16)) & mascara;
+		}
+
+		private void envejecer() {
+			for (byte[] fila : contadores)
+				for (int i = 0; i < fila.length; i++)
+					fila[i] >>= 1;
+			incrementos /= 2;
+		}
+	}
+}
@@ -0,0 +1,234 @@
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.parsers.SAXParserFactory;
+
+import org.xml.sax.Attributes;
+import org.xml.sax.SAXException;
+import org.xml.sax.helpers.DefaultHandler;
+
+/**
+ * Catálogo completo cargado en memoria: árbol de concepts y todos los datasets con los concepts a los que se refieren.
+ * A diferencia de {@link ManejadorXML}, que solo guarda los datasets de los códigos buscados, permite resolver
+ * cualquier código sin volver a leer el fichero.
+ * <br>
+ * Una vez cargado no se modifica, de forma que se puede consultar desde varios hilos a la vez y sustituir por una
+ * versión nueva sin afectar a las consultas en curso.
+ *
+ * @author Adolfo Trocolí Naranjo, 09218364X, a.trocoli@alumnos.upm.es
+ *
+ */
+public class CatalogoResidente {
+
+	private final File fichero;
+	private final long modificado, tamaño; // Fecha de modificación y tamaño del fichero al cargarlo
+	private final String hash; // SHA-256 del contenido del fichero, comprimido o no
+	private final IndiceConceptos indice;
+	private final Map<String, HashMap<String, String>> datasets; // Id -> title, description y theme, en orden
+	private final Map<String, int[]> conceptsDataset; // Id -> nodos del índice a los que se refiere el dataset
+
+	private CatalogoResidente(File fichero, long modificado, long tamaño, String hash, Cargador cargador) {
+		this.fichero = fichero;
+		this.modificado = modificado;
+		this.tamaño = tamaño;
+		this.hash = hash;
+		this.indice = cargador.indice;
+		this.datasets = cargador.datasets;
+		this.conceptsDataset = cargador.conceptsDataset;
+	}
+
+	/**
+	 * Escanea el catálogo completo con SAX, calculando a la vez el SHA-256 de su contenido.
+	 *
+	 * @param fichero Fichero del catálogo, comprimido con gzip si termina en {@value Compresion#EXTENSION_GZIP}.
+	 * @return Catálogo cargado.
+	 */
+	public static CatalogoResidente cargar(File fichero) throws ParserConfigurationException, SAXException, IOException {
+		// Se leen antes de escanear: si el fichero cambia durante el escaneo, la siguiente comprobación lo detecta
+		final long modificado = fichero.lastModified();
+		final long tamaño = fichero.length();
+		SAXParserFactory factory = SAXParserFactory.newInstance();
+		factory.setNamespaceAware(true);
+		final MessageDigest resumen;
+		try {
+			resumen = MessageDigest.getInstance("SHA-256");
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException(e); // Todas las JVM incluyen SHA-256
+		}
+		Cargador cargador = new Cargador();
+		try (InputStream entrada = Compresion.descomprimir(new DigestInputStream(new FileInputStream(fichero), resumen),
+				fichero.getName())) {
+			factory.newSAXParser().parse(entrada, cargador);
+		}
+		StringBuilder hash = new StringBuilder();
+		for (byte b : resumen.digest())
+			hash.append(String.format("%02x", b));
+		return new CatalogoResidente(fichero, modificado, tamaño, hash.toString(), cargador);
+	}
+
+	/**
+	 * @return true si el fichero ha cambiado desde que se cargó.
+	 */
+	public boolean isObsoleto() {
+		return fichero.lastModified() != modificado || fichero.length() != tamaño;
+	}
+
+	/**
+	 * Resuelve un código con la misma información que obtendría {@link ManejadorXML} al escanear el fichero.
+	 *
+	 * @param codigo Código de la categoría buscada.
+	 * @return Resultado de la búsqueda; su raíz es -1 si el código no existe.
+	 */
+	public ResultadoBusqueda buscar(String codigo) {
+		ResultadoBusqueda resultado = new ResultadoBusqueda(codigo);
+		resultado.resolver(indice);
+		if (resultado.getRaiz() < 0) return resultado;
+		for (Map.Entry<String, int[]> entrada : conceptsDataset.entrySet()) {
+			for (int nodo : entrada.getValue()) {
+				if (!indice.esDescendiente(nodo, resultado.getRaiz())) continue;
+				resultado.añadirDataset(entrada.getKey(), datasets.get(entrada.getKey()));
+				break;
+			}
+		}
+		return resultado;
+	}
+
+	public File getFichero() {
+		return fichero;
+	}
+
+	/**
+	 * @return Fecha de modificación del fichero cuando se cargó, en milisegundos.
+	 */
+	public long getModificado() {
+		return modificado;
+	}
+
+	/**
+	 * @return SHA-256 del contenido del fichero, en hexadecimal. Dos versiones con el mismo contenido tienen el mismo
+	 *         hash aunque cambie su fecha de modificación.
+	 */
+	public String getHash() {
+		return hash;
+	}
+
+	/**
+	 * @return Tamaño del fichero cuando se cargó, en bytes.
+	 */
+	public long getTamaño() {
+		return tamaño;
+	}
+
+	public IndiceConceptos getIndice() {
+		return indice;
+	}
+
+	public int getNumDatasets() {
+		return datasets.size();
+	}
+
+	/**
+	 * @return Id -> title, description y theme de todos los datasets, en orden de documento, sin modificar.
+	 */
+	public Map<String, HashMap<String, String>> getDatasets() {
+		return Collections.unmodifiableMap(datasets);
+	}
+
+	/**
+	 * @param idDataset Id del dataset.
+	 * @return Nodos del índice a los que se refiere el dataset, sin los concepts que no están en el árbol.
+	 */
+	public int[] getConceptsDataset(String idDataset) {
+		return conceptsDataset.get(idDataset).clone();
+	}
+
+	/**
+	 * Manejador SAX que guarda el árbol de concepts y todos los datasets del catálogo.
+	 */
+	private static class Cargador extends DefaultHandler {
+
+		private final IndiceConceptos indice = new IndiceConceptos();
+		private final Map<String, HashMap<String, String>> datasets = new LinkedHashMap<String, HashMap<String, String>>();
+		private final Map<String, int[]> conceptsDataset = new LinkedHashMap<String, int[]>();
+		private final List<Integer> nodos = new ArrayList<Integer>(); // Concepts del dataset actual
+		private StringBuilder sb = new StringBuilder();
+		private boolean enDatasets;
+		private String idDataset, title, description, theme;
+
+		@Override
+		public void startElement(String uri, String localName, String qName, Attributes attributes) {
+			sb = new StringBuilder();
+			final String atributoID = attributes.getLength() > 0 ? attributes.getValue(0) : null;
+			switch (localName) {
+			case "concept":
+				if (!enDatasets) indice.abrirConcepto(atributoID);
+				else nodos.add(indice.buscar(atributoID));
+				break;
+			case "datasets":
+				enDatasets = true;
+				break;
+			case "dataset":
+				idDataset = atributoID;
+				nodos.clear();
+				break;
+			}
+		}
+
+		@Override
+		public void endElement(String uri, String localName, String qName) {
+			final String chars = sb.toString();
+			switch (localName) {
+			case "code":
+				if (!enDatasets) indice.asignarCodigo(chars);
+				break;
+			case "label":
+				if (!enDatasets) indice.asignarLabel(chars);
+				break;
+			case "concept":
+				if (!enDatasets) indice.cerrarConcepto();
+				break;
+			case "datasets":
+				enDatasets = false;
+				break;
+			case "title":
+				title = chars;
+				break;
+			case "description":
+				description = chars;
+				break;
+			case "theme":
+				theme = chars;
+				break;
+			case "dataset":
+				añadirDataset();
+				break;
+			}
+		}
+
+		@Override
+		public void characters(char[] ch, int start, int length) {
+			sb.append(ch, start, length);
+		}
+
+		private void añadirDataset() {
+			HashMap<String, String> dataset = new HashMap<String, String>();
+			dataset.put("title", title);
+			dataset.put("description", description);
+			dataset.put("theme", theme);
+			datasets.put(idDataset, dataset);
+			conceptsDataset.put(idDataset, nodos.stream().mapToInt(Integer::intValue).filter(n -> n >= 0).toArray());
+		}
+	}
+}
@@ -0,0 +1,253 @@
+import java.io.FileNotFoundException;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.net.URL;
+import java.net.URLConnection;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Capa de descarga de los ficheros JSON de los datasets. Todas las descargas comparten un único {@link HttpClient}, que
+ * reutiliza las conexiones (y las multiplexa si el servidor admite HTTP/2), pide el contenido comprimido con gzip y
+ * aplica un tiempo máximo de conexión y otro de inactividad durante la lectura.
+ * <br>
+ * Si se le asigna una {@link CacheHTTP}, los ficheros cacheados se piden con una petición condicional y, si el servidor
+ * responde que no han cambiado, se leen del disco.
+ * <br>
+ * Las URLs que no son http/https (por ejemplo <code>file:</code>) se abren como hasta ahora, con {@link URL}.
+ *
+ * @author Adolfo Trocolí Naranjo, 09218364X, a.trocoli@alumnos.upm.es
+ *
+ */
+public class ClienteHTTP {
+
+	public static final Duration TIMEOUT_CONEXION = Duration.ofSeconds(10);
+	public static final Duration TIMEOUT_LECTURA = Duration.ofSeconds(30);
+
+	// Un único hilo vigila las lecturas de todos los flujos abiertos
+	private static final ScheduledExecutorService vigilante = Executors.newSingleThreadScheduledExecutor(r -> {
+		Thread hilo = new Thread(r, "Vigilante HTTP");
+		hilo.setDaemon(true);
+		return hilo;
+	});
+
+	private final HttpClient cliente;
+	private final Duration timeoutLectura;
+	private CacheHTTP cache;
+
+	public ClienteHTTP() {
+		this(TIMEOUT_CONEXION, TIMEOUT_LECTURA);
+	}
+
+	/**
+	 * @param timeoutConexion Tiempo máximo para establecer la conexión.
+	 * @param timeoutLectura  Tiempo máximo de espera de la respuesta, y entre dos lecturas consecutivas del cuerpo.
+	 */
+	public ClienteHTTP(Duration timeoutConexion, Duration timeoutLectura) {
+		this.timeoutLectura = timeoutLectura;
+		cliente = HttpClient.newBuilder()
+				.version(HttpClient.Version.HTTP_2)
+				.followRedirects(HttpClient.Redirect.NORMAL)
+				.connectTimeout(timeoutConexion)
+				.build();
+	}
+
+	/**
+	 * Hace que las descargas pasen por la caché indicada.
+	 */
+	public void setCache(CacheHTTP cache) {
+		this.cache = cache;
+	}
+
+	public CacheHTTP getCache() {
+		return cache;
+	}
+
+	/**
+	 * Abre el fichero indicado y devuelve su contenido ya descomprimido. Se bloquea hasta recibir la cabecera de la
+	 * respuesta; el cuerpo se va leyendo de la red a medida que se consume el flujo.
+	 *
+	 * @param url URL del fichero.
+	 * @return Descarga con el contenido del fichero.
+	 * @throws FileNotFoundException Si el servidor responde 404 o 410.
+	 * @throws IOException           Si hay un error de red, se agota algún tiempo máximo o la respuesta no es 200.
+	 * @throws InterruptedException  Si el hilo se interrumpe mientras espera la respuesta.
+	 */
+	public Descarga abrir(String url) throws IOException, InterruptedException {
+		if (!esHTTP(url)) return abrirURL(url);
+		final CacheHTTP.Entrada cacheada = cache == null ? null : cache.buscar(url);
+		HttpResponse<InputStream> respuesta = cliente.send(crearPeticion(url, cacheada),
+				HttpResponse.BodyHandlers.ofInputStream());
+		if (respuesta.statusCode() == 304 && cacheada != null) {
+			respuesta.body().close();
+			try {
+				return new Descarga(cache.abrir(cacheada), null, -1, false);
+			} catch (FileNotFoundException e) {
+				// La caché lo ha eliminado para hacer sitio después de buscarlo: se pide entero, sin condiciones
+				respuesta = cliente.send(crearPeticion(url, null), HttpResponse.BodyHandlers.ofInputStream());
+			}
+		}
+		return procesarRespuesta(url, respuesta);
+	}
+
+	private Descarga abrirURL(String url) throws IOException {
+		final URLConnection conexion = new URL(url).openConnection();
+		final FlujoVigilado red = new FlujoVigilado(conexion.getInputStream(), timeoutLectura);
+		return new Descarga(red, red, conexion.getContentLengthLong(), false);
+	}
+
+	/**
+	 * @param cacheada Entrada de la caché del fichero, o null si no está cacheado.
+	 */
+	private HttpRequest crearPeticion(String url, CacheHTTP.Entrada cacheada) {
+		HttpRequest.Builder peticion = HttpRequest.newBuilder(URI.create(url))
+				.header("Accept-Encoding", "gzip")
+				.timeout(timeoutLectura)
+				.GET();
+		if (cacheada != null && cacheada.getEtag() != null) peticion.header("If-None-Match", cacheada.getEtag());
+		if (cacheada != null && cacheada.getLastModified() != null)
+			peticion.header("If-Modified-Since", cacheada.getLastModified());
+		return peticion.build();
+	}
+
+	private Descarga procesarRespuesta(String url, HttpResponse<InputStream> respuesta) throws IOException {
+		final int estado = respuesta.statusCode();
+		if (estado != 200) {
+			respuesta.body().close();
+			if (estado == 404 || estado == 410) throw new FileNotFoundException(url);
+			throw new IOException("Respuesta HTTP " + estado + " al pedir " + url);
+		}
+		final FlujoVigilado red = new FlujoVigilado(respuesta.body(), timeoutLectura);
+		InputStream cuerpo = red;
+		if (respuesta.headers().firstValue("Content-Encoding").orElse("").equalsIgnoreCase("gzip"))
+			cuerpo = new GZIPInputStream(cuerpo, 64 * 1024);
+		final InputStream descomprimido = cuerpo;
+		if (cache != null) cuerpo = cache.guardar(url, respuesta.headers().firstValue("ETag").orElse(null),
+				respuesta.headers().firstValue("Last-Modified").orElse(null), cuerpo);
+		return new Descarga(cuerpo, red, respuesta.headers().firstValueAsLong("Content-Length").orElse(-1),
+				cuerpo != descomprimido);
+	}
+
+	private static boolean esHTTP(String url) {
+		return url.startsWith("http://") || url.startsWith("https://");
+	}
+
+	/**
+	 * Contenido de un fichero abierto con {@link ClienteHTTP}, con los bytes recibidos de la red hasta el momento.
+	 */
+	public static class Descarga extends FilterInputStream {
+
+		private final FlujoVigilado red;
+		private final long longitud;
+		private final boolean guardandoEnCache;
+
+		/**
+		 * @param contenido        Contenido ya descomprimido.
+		 * @param red              Flujo tal como llega de la red, o null si el contenido se lee de la caché.
+		 * @param longitud         Content-Length de la respuesta, o -1 si no se conoce.
+		 * @param guardandoEnCache Si el contenido se está copiando en la caché.
+		 */
+		private Descarga(InputStream contenido, FlujoVigilado red, long longitud, boolean guardandoEnCache) {
+			super(contenido);
+			this.red = red;
+			this.longitud = longitud;
+			this.guardandoEnCache = guardandoEnCache;
+		}
+
+		/**
+		 * @return Bytes recibidos de la red (comprimidos si el servidor usa gzip). 0 si el contenido es de la caché.
+		 */
+		public long getBytesLeidos() {
+			return red == null ? 0 : red.bytesLeidos;
+		}
+
+		/**
+		 * @return Content-Length de la respuesta, o -1 si no se conoce.
+		 */
+		public long getLongitud() {
+			return longitud;
+		}
+
+		public boolean isDesdeCache() {
+			return red == null;
+		}
+
+		/**
+		 * Deja de leer el contenido cortando la conexión, sin recibir el resto. Si el contenido se está copiando en la
+		 * caché se recibe entero, porque así la siguiente ejecución podrá leerlo del disco.
+		 */
+		public void abortar() throws IOException {
+			if (red != null && !guardandoEnCache) red.close();
+			close();
+		}
+	}
+
+	/**
+	 * Flujo que se cierra solo si pasa más tiempo del permitido sin recibir datos, lo que desbloquea la lectura en curso
+	 * con una {@link IOException}. {@link HttpClient} no ofrece un tiempo máximo de lectura para el cuerpo.
+	 */
+	private static class FlujoVigilado extends FilterInputStream {
+
+		private final long timeoutNanos;
+		private final ScheduledFuture<?> vigilancia;
+		private volatile long ultimaLectura, bytesLeidos;
+		private volatile boolean agotado;
+
+		private FlujoVigilado(InputStream flujo, Duration timeout) {
+			super(flujo);
+			timeoutNanos = timeout.toNanos();
+			ultimaLectura = System.nanoTime();
+			final long periodo = Math.max(1, timeout.toMillis() / 4);
+			vigilancia = vigilante.scheduleWithFixedDelay(this::comprobar, periodo, periodo, TimeUnit.MILLISECONDS);
+		}
+
+		private void comprobar() {
+			if (System.nanoTime() - ultimaLectura < timeoutNanos) return;
+			agotado = true;
+			try {
+				close();
+			} catch (IOException e) {
+				// Se va a notificar al lector de todas formas
+			}
+		}
+
+		@Override
+		public int read() throws IOException {
+			try {
+				final int leido = super.read();
+				ultimaLectura = System.nanoTime();
+				if (leido >= 0) bytesLeidos++;
+				return leido;
+			} catch (IOException e) {
+				throw agotado ? new IOException("Tiempo de lectura agotado", e) : e;
+			}
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException {
+			try {
+				final int leidos = super.read(b, off, len);
+				ultimaLectura = System.nanoTime();
+				if (leidos > 0) bytesLeidos += leidos;
+				return leidos;
+			} catch (IOException e) {
+				throw agotado ? new IOException("Tiempo de lectura agotado", e) : e;
+			}
+		}
+
+		@Override
+		public void close() throws IOException {
+			vigilancia.cancel(false);
+			super.close();
+		}
+	}
+}
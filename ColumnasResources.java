@@ -0,0 +1,384 @@
+import java.io.BufferedOutputStream;
+import java.io.BufferedWriter;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Exportación de los resources extraídos (los mismos que {@link ConstructorCatalogoXML#printResource} escribe en el
+ * XML) en un fichero binario por columnas, para cargarlos sin volver a leer el XML. Hay una fila por resource y una
+ * columna por campo, y cada columna se guarda seguida, de forma que quien solo necesita algunas columnas no lee las
+ * demás.
+ * <br>
+ * Tras una cabecera con el número de filas y un directorio con el nombre, el tipo y la posición de cada columna,
+ * cada columna se guarda según su tipo:
+ * <ul>
+ * <li>{@link #TIPO_TEXTO}: posición de cada valor y los valores en UTF-8 seguidos; la posición de los que no tienen
+ * valor se guarda en negativo, para distinguirlos de las cadenas vacías,</li>
+ * <li>{@link #TIPO_DICCIONARIO}: los valores distintos como en {@link #TIPO_TEXTO} y un entero por fila con el índice
+ * de su valor (-1 si no tiene); se usa con las columnas de texto con como mucho un valor distinto por cada dos
+ * filas,</li>
+ * <li>{@link #TIPO_FECHA}: milisegundos desde 1970-01-01T00:00 de la fecha sin zona horaria, o
+ * {@link Long#MIN_VALUE} si no tiene o no es una fecha,</li>
+ * <li>{@link #TIPO_DECIMAL}: un double por fila, NaN si no tiene o no es un número.</li>
+ * </ul>
+ * Si el nombre del fichero termina en {@value #EXTENSION_CSV} (opcionalmente comprimido con gzip) se escribe en su
+ * lugar un CSV con las mismas columnas y los valores tal como se han extraído.
+ *
+ * @author Adolfo Trocolí Naranjo, 09218364X, a.trocoli@alumnos.upm.es
+ *
+ */
+public class ColumnasResources {
+
+	public static final String EXTENSION_CSV = ".csv";
+	public static final int VERSION = 2;
+
+	public static final byte TIPO_TEXTO = 1, TIPO_DICCIONARIO = 2, TIPO_FECHA = 3, TIPO_DECIMAL = 4;
+
+	private static final int MAGICO = 0x50354352; // "P5CR"
+
+	// Columnas, en el orden en que se escriben
+	private static final String[] NOMBRES = { "dataset", "concept", "link", "relation", "title", "eventLocation",
+			"area", "description", "dtstart", "dtend", "latitude", "longitude", "accesibility", "organizationName" };
+	private static final byte[] TIPOS = { TIPO_TEXTO, TIPO_TEXTO, TIPO_TEXTO, TIPO_TEXTO, TIPO_TEXTO, TIPO_TEXTO,
+			TIPO_TEXTO, TIPO_TEXTO, TIPO_FECHA, TIPO_FECHA, TIPO_DECIMAL, TIPO_DECIMAL, TIPO_TEXTO, TIPO_TEXTO };
+
+	// Fichero abierto
+	private final ByteBuffer buffer;
+	private final int numFilas;
+	private final Map<String, int[]> columnas; // Nombre -> {tipo, posición}
+
+	/**
+	 * Abre un fichero binario de columnas proyectándolo en memoria. Solo se lee el directorio; cada columna se lee al
+	 * consultarla.
+	 *
+	 * @param fichero Fichero escrito con {@link #escribir(File, Map)}.
+	 */
+	public ColumnasResources(File fichero) throws IOException {
+		try (FileChannel canal = FileChannel.open(fichero.toPath(), StandardOpenOption.READ)) {
+			if (canal.size() > Integer.MAX_VALUE) throw new IOException("Fichero demasiado grande: " + fichero);
+			buffer = canal.map(FileChannel.MapMode.READ_ONLY, 0, canal.size());
+		}
+		if (buffer.capacity() < 16 || buffer.getInt(0) != MAGICO || buffer.getInt(4) != VERSION)
+			throw new IOException("No es un fichero de columnas de la versión " + VERSION + ": " + fichero);
+		numFilas = buffer.getInt(8);
+		final int n = buffer.getInt(12);
+		final ByteBuffer directorio = buffer.duplicate().position(16);
+		columnas = new LinkedHashMap<String, int[]>();
+		for (int i = 0; i < n; i++) {
+			final byte[] nombre = new byte[directorio.getShort()];
+			directorio.get(nombre);
+			final byte tipo = directorio.get();
+			columnas.put(new String(nombre, StandardCharsets.UTF_8), new int[] { tipo, directorio.getInt() });
+		}
+	}
+
+	public int getNumFilas() {
+		return numFilas;
+	}
+
+	/**
+	 * @return Nombre y tipo de cada columna, en el orden del fichero.
+	 */
+	public Map<String, Byte> getColumnas() {
+		final Map<String, Byte> tipos = new LinkedHashMap<String, Byte>();
+		for (Map.Entry<String, int[]> columna : columnas.entrySet())
+			tipos.put(columna.getKey(), (byte) columna.getValue()[0]);
+		return Collections.unmodifiableMap(tipos);
+	}
+
+	/**
+	 * @return Valor de una columna de texto o diccionario, o null si no tiene.
+	 */
+	public String getTexto(String columna, int fila) {
+		final int[] descripcion = getColumna(columna, TIPO_TEXTO, TIPO_DICCIONARIO);
+		final int posicion = descripcion[1];
+		if (descripcion[0] == TIPO_TEXTO) return cadena(posicion, numFilas, fila);
+		// Número de valores distintos, los valores y los índices de cada fila
+		final int numValores = buffer.getInt(posicion);
+		final int indices = posicion + 4 + 4 * (numValores + 1) + buffer.getInt(posicion + 4 + 4 * numValores);
+		final int valor = buffer.getInt(indices + 4 * fila);
+		return valor < 0 ? null : cadena(posicion + 4, numValores, valor);
+	}
+
+	/**
+	 * @return Milisegundos desde 1970-01-01T00:00 de una columna de fechas, o {@link Long#MIN_VALUE} si no tiene.
+	 */
+	public long getFecha(String columna, int fila) {
+		return buffer.getLong(getColumna(columna, TIPO_FECHA)[1] + 8 * fila);
+	}
+
+	/**
+	 * @return Valor de una columna de decimales, o NaN si no tiene.
+	 */
+	public double getDecimal(String columna, int fila) {
+		return buffer.getDouble(getColumna(columna, TIPO_DECIMAL)[1] + 8 * fila);
+	}
+
+	private int[] getColumna(String columna, byte... tipos) {
+		final int[] descripcion = columnas.get(columna);
+		if (descripcion == null) throw new IllegalArgumentException("Columna desconocida: " + columna);
+		for (byte tipo : tipos)
+			if (descripcion[0] == tipo) return descripcion;
+		throw new IllegalArgumentException("La columna " + columna + " es de tipo " + descripcion[0]);
+	}
+
+	/**
+	 * @return Cadena número <code>i</code> de una lista de <code>n</code> cadenas guardada en <code>posicion</code>.
+	 */
+	private String cadena(int posicion, int n, int i) {
+		return cadena(buffer, posicion, n, i);
+	}
+
+	/**
+	 * @return Cadena número <code>i</code> de una lista de <code>n</code> cadenas codificada con
+	 *         {@link #codificarCadenas} y guardada en <code>posicion</code> del buffer, o null si se codificó null.
+	 */
+	static String cadena(ByteBuffer buffer, int posicion, int n, int i) {
+		final int datos = posicion + 4 * (n + 1);
+		final int inicio = buffer.getInt(posicion + 4 * i);
+		if (inicio < 0) return null;
+		final int fin = buffer.getInt(posicion + 4 * i + 4);
+		final byte[] bytes = new byte[(fin < 0 ? -fin - 1 : fin) - inicio];
+		buffer.duplicate().position(datos + inicio).get(bytes);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * Escribe los resources de todos los datasets, en binario o en CSV según el nombre del fichero.
+	 *
+	 * @param fichero    Fichero de salida.
+	 * @param mResources Resources de cada dataset, en el orden en que se escriben.
+	 */
+	public static void escribir(File fichero, Map<String, List<Resource>> mResources) throws IOException {
+		if (isCSV(fichero.getName())) escribirCSV(fichero, mResources);
+		else escribirBinario(fichero, mResources);
+	}
+
+	/**
+	 * @return true si el fichero se escribe en CSV.
+	 */
+	public static boolean isCSV(String fichero) {
+		return Compresion.sinCompresion(fichero).endsWith(EXTENSION_CSV);
+	}
+
+	private static void escribirBinario(File fichero, Map<String, List<Resource>> mResources) throws IOException {
+		final List<String> datasets = new ArrayList<String>();
+		final List<Resource> resources = new ArrayList<Resource>();
+		for (Map.Entry<String, List<Resource>> entrada : mResources.entrySet())
+			for (Resource resource : entrada.getValue()) {
+				datasets.add(entrada.getKey());
+				resources.add(resource);
+			}
+		final int filas = resources.size();
+
+		// Cada columna se codifica por separado para conocer su longitud antes de escribir el directorio
+		final List<byte[]> codificadas = new ArrayList<byte[]>();
+		final byte[] tipos = new byte[NOMBRES.length];
+		for (int columna = 0; columna < NOMBRES.length; columna++) {
+			final String[] valores = new String[filas];
+			for (int fila = 0; fila < filas; fila++)
+				valores[fila] = valor(columna, datasets.get(fila), resources.get(fila));
+			tipos[columna] = TIPOS[columna];
+			final ByteBuffer codificada;
+			if (TIPOS[columna] == TIPO_FECHA) {
+				codificada = ByteBuffer.allocate(8 * filas);
+				for (String valor : valores)
+					codificada.putLong(Resource.leerFecha(valor));
+			} else if (TIPOS[columna] == TIPO_DECIMAL) {
+				codificada = ByteBuffer.allocate(8 * filas);
+				for (String valor : valores)
+					codificada.putDouble(leerDecimal(valor));
+			} else {
+				final Map<String, Integer> distintos = new LinkedHashMap<String, Integer>();
+				final int[] indices = new int[filas];
+				for (int fila = 0; fila < filas; fila++)
+					indices[fila] = valores[fila] == null ? -1
+							: distintos.computeIfAbsent(valores[fila], v -> distintos.size());
+				if (2 * distintos.size() <= filas) {
+					tipos[columna] = TIPO_DICCIONARIO;
+					final byte[] diccionario = codificarCadenas(distintos.keySet().toArray(new String[0]));
+					codificada = ByteBuffer.allocate(4 + diccionario.length + 4 * filas);
+					codificada.putInt(distintos.size()).put(diccionario);
+					for (int indice : indices)
+						codificada.putInt(indice);
+				} else {
+					codificada = ByteBuffer.wrap(codificarCadenas(valores));
+				}
+			}
+			codificadas.add(codificada.array());
+		}
+
+		long posicion = 16;
+		for (String nombre : NOMBRES)
+			posicion += 2 + nombre.getBytes(StandardCharsets.UTF_8).length + 1 + 4;
+		try (DataOutputStream salida = new DataOutputStream(
+				new BufferedOutputStream(new FileOutputStream(fichero), 256 * 1024))) {
+			salida.writeInt(MAGICO);
+			salida.writeInt(VERSION);
+			salida.writeInt(filas);
+			salida.writeInt(NOMBRES.length);
+			for (int columna = 0; columna < NOMBRES.length; columna++) {
+				if (posicion > Integer.MAX_VALUE) throw new IOException("Demasiados resources para " + fichero);
+				salida.writeUTF(NOMBRES[columna]);
+				salida.writeByte(tipos[columna]);
+				salida.writeInt((int) posicion);
+				posicion += codificadas.get(columna).length;
+			}
+			for (byte[] codificada : codificadas)
+				salida.write(codificada);
+		}
+	}
+
+	/**
+	 * Codifica una lista de cadenas: la posición de cada una (y la del final) y después todas en UTF-8. Las cadenas
+	 * null se guardan vacías y con la posición <code>-posición - 1</code>, de forma que se leen como null.
+	 */
+	static byte[] codificarCadenas(String[] cadenas) {
+		final byte[][] bytes = new byte[cadenas.length][];
+		int longitud = 0;
+		for (int i = 0; i < cadenas.length; i++) {
+			bytes[i] = cadenas[i] == null ? new byte[0] : cadenas[i].getBytes(StandardCharsets.UTF_8);
+			longitud += bytes[i].length;
+		}
+		final ByteBuffer codificadas = ByteBuffer.allocate(4 * (cadenas.length + 1) + longitud);
+		int inicio = 0;
+		for (int i = 0; i < cadenas.length; i++) {
+			codificadas.putInt(cadenas[i] == null ? -inicio - 1 : inicio);
+			inicio += bytes[i].length;
+		}
+		codificadas.putInt(inicio);
+		for (byte[] cadena : bytes)
+			codificadas.put(cadena);
+		return codificadas.array();
+	}
+
+	private static void escribirCSV(File fichero, Map<String, List<Resource>> mResources) throws IOException {
+		try (Writer salida = new BufferedWriter(
+				new OutputStreamWriter(Compresion.abrirSalida(fichero), StandardCharsets.UTF_8), 64 * 1024)) {
+			salida.write(String.join(",", NOMBRES));
+			salida.write("\r\n");
+			for (Map.Entry<String, List<Resource>> entrada : mResources.entrySet())
+				for (Resource resource : entrada.getValue()) {
+					for (int columna = 0; columna < NOMBRES.length; columna++) {
+						if (columna > 0) salida.write(',');
+						salida.write(escaparCSV(valor(columna, entrada.getKey(), resource)));
+					}
+					salida.write("\r\n");
+				}
+		}
+	}
+
+	/**
+	 * Entrecomilla un valor de CSV si contiene comas, comillas o saltos de línea, duplicando las comillas (RFC 4180).
+	 */
+	private static String escaparCSV(String valor) {
+		if (valor == null) return "";
+		for (int i = 0; i < valor.length(); i++) {
+			final char c = valor.charAt(i);
+			if (c == ',' || c == '"' || c == '\n' || c == '\r') return "\"" + valor.replace("\"", "\"\"") + "\"";
+		}
+		return valor;
+	}
+
+	private static String valor(int columna, String idDataset, Resource resource) {
+		switch (columna) {
+		case 0:
+			return idDataset;
+		case 1:
+			return resource.getConcept();
+		case 2:
+			return resource.getLink();
+		case 3:
+			return resource.getRelation();
+		case 4:
+			return resource.getTitle();
+		case 5:
+			return resource.getEventLocation();
+		case 6:
+			return resource.getArea();
+		case 7:
+			return resource.getDescription();
+		case 8:
+			return resource.getDtstart();
+		case 9:
+			return resource.getDtend();
+		case 10:
+			return resource.getLatitude();
+		case 11:
+			return resource.getLongitude();
+		case 12:
+			return resource.getAccesibility();
+		default:
+			return resource.getOrganizationName();
+		}
+	}
+
+	private static double leerDecimal(String valor) {
+		if (valor == null || valor.isBlank()) return Double.NaN;
+		try {
+			return Double.parseDouble(valor.trim());
+		} catch (NumberFormatException e) {
+			return Double.NaN;
+		}
+	}
+
+	/**
+	 * Muestra en CSV solo las columnas indicadas de un fichero binario de columnas:
+	 * <code>ColumnasResources fichero [columna,columna...]</code>. Sin columnas muestra el nombre y el tipo de cada
+	 * una.
+	 */
+	public static void main(String[] args) throws IOException {
+		if (args.length < 1 || args.length > 2) {
+			System.err.println("Uso: ColumnasResources <fichero> [columna,columna...]");
+			System.exit(1);
+		}
+		final ColumnasResources tabla = new ColumnasResources(new File(args[0]));
+		if (args.length == 1) {
+			System.out.println(tabla.getNumFilas() + " filas");
+			for (Map.Entry<String, Byte> columna : tabla.getColumnas().entrySet())
+				System.out.println(columna.getKey() + "\t" + columna.getValue());
+			return;
+		}
+		final List<String> seleccion = Arrays.asList(args[1].split(","));
+		final byte[] tipos = new byte[seleccion.size()];
+		for (int i = 0; i < tipos.length; i++)
+			tipos[i] = (byte) tabla.getColumna(seleccion.get(i), TIPO_TEXTO, TIPO_DICCIONARIO, TIPO_FECHA,
+					TIPO_DECIMAL)[0];
+		System.out.println(String.join(",", seleccion));
+		final StringBuilder linea = new StringBuilder();
+		for (int fila = 0; fila < tabla.getNumFilas(); fila++) {
+			linea.setLength(0);
+			for (int i = 0; i < tipos.length; i++) {
+				if (i > 0) linea.append(',');
+				final String columna = seleccion.get(i);
+				if (tipos[i] == TIPO_FECHA) {
+					final long fecha = tabla.getFecha(columna, fila);
+					if (fecha != Long.MIN_VALUE) linea.append(LocalDateTime.ofEpochSecond(Math.floorDiv(fecha, 1000L),
+							(int) Math.floorMod(fecha, 1000L) * 1000000, ZoneOffset.UTC));
+				} else if (tipos[i] == TIPO_DECIMAL) {
+					final double decimal = tabla.getDecimal(columna, fila);
+					if (!Double.isNaN(decimal)) linea.append(decimal);
+				} else {
+					linea.append(escaparCSV(tabla.getTexto(columna, fila)));
+				}
+			}
+			System.out.println(linea);
+		}
+	}
+}
@@ -0,0 +1,110 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Apertura de los ficheros de entrada y salida, comprimidos con gzip o no según su extensión. Los ficheros terminados
+ * en {@value #EXTENSION_GZIP} se descomprimen o comprimen al vuelo mientras se leen o escriben, sin pasar por un
+ * fichero temporal con el contenido sin comprimir.
+ * <br>
+ * Todos los flujos usan buffers grandes, porque leer y escribir de 8 KB en 8 KB (el tamaño por defecto) multiplica las
+ * llamadas al sistema y, con gzip, las llamadas al compresor.
+ *
+ * @author Adolfo Trocolí Naranjo, 09218364X, a.trocoli@alumnos.upm.es
+ *
+ */
+public class Compresion {
+
+	public static final String EXTENSION_GZIP = ".gz";
+
+	private static final int TAMAÑO_BUFFER = 256 * 1024;
+	private static final int TAMAÑO_BUFFER_GZIP = 64 * 1024;
+
+	/**
+	 * @return true si el fichero se guarda comprimido con gzip.
+	 */
+	public static boolean isComprimido(String fichero) {
+		return fichero.endsWith(EXTENSION_GZIP);
+	}
+
+	/**
+	 * @return Nombre del fichero sin la extensión de compresión, si la tiene.
+	 */
+	public static String sinCompresion(String fichero) {
+		return isComprimido(fichero) ? fichero.substring(0, fichero.length() - EXTENSION_GZIP.length()) : fichero;
+	}
+
+	/**
+	 * @return Extensión de compresión del fichero, o la cadena vacía si no está comprimido.
+	 */
+	public static String getExtension(String fichero) {
+		return isComprimido(fichero) ? EXTENSION_GZIP : "";
+	}
+
+	/**
+	 * Abre un fichero para leerlo, descomprimiéndolo si está comprimido.
+	 *
+	 * @param fichero Fichero a leer.
+	 * @return Flujo con el contenido sin comprimir.
+	 */
+	public static InputStream abrirEntrada(File fichero) throws IOException {
+		return descomprimir(new FileInputStream(fichero), fichero.getName());
+	}
+
+	/**
+	 * Descomprime un flujo ya abierto si el nombre del fichero del que procede indica que está comprimido.
+	 *
+	 * @param entrada Flujo con el contenido del fichero, tal cual está guardado.
+	 * @param fichero Nombre del fichero.
+	 * @return Flujo con el contenido sin comprimir.
+	 */
+	public static InputStream descomprimir(InputStream entrada, String fichero) throws IOException {
+		try {
+			if (!isComprimido(fichero)) return new BufferedInputStream(entrada, TAMAÑO_BUFFER);
+			return new BufferedInputStream(
+					new GZIPInputStream(new BufferedInputStream(entrada, TAMAÑO_BUFFER), TAMAÑO_BUFFER_GZIP),
+					TAMAÑO_BUFFER_GZIP);
+		} catch (IOException e) {
+			entrada.close(); // No es un fichero gzip válido
+			throw e;
+		}
+	}
+
+	/**
+	 * Crea o sustituye un fichero para escribirlo, comprimiéndolo si su nombre lo indica.
+	 *
+	 * @param fichero Fichero a escribir.
+	 * @return Flujo en el que escribir el contenido sin comprimir.
+	 */
+	public static OutputStream abrirSalida(File fichero) throws IOException {
+		final OutputStream salida = new BufferedOutputStream(new FileOutputStream(fichero), TAMAÑO_BUFFER);
+		if (!isComprimido(fichero.getName())) return salida;
+		try {
+			return new BufferedOutputStream(new GZIPOutputStream(salida, TAMAÑO_BUFFER_GZIP), TAMAÑO_BUFFER_GZIP);
+		} catch (IOException e) {
+			salida.close();
+			throw e;
+		}
+	}
+
+	/**
+	 * Abre un fichero de salida de texto con la misma codificación que {@link PrintWriter#PrintWriter(File)}, de forma
+	 * que el contenido sin comprimir es idéntico al de un fichero sin comprimir.
+	 *
+	 * @param fichero Fichero a escribir.
+	 * @return Escritor del fichero.
+	 */
+	public static PrintWriter abrirEscritor(String fichero) throws IOException {
+		return new PrintWriter(new BufferedWriter(new OutputStreamWriter(abrirSalida(new File(fichero)))));
+	}
+}
@@ -0,0 +1,73 @@
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Agrupa los resultados de todos los códigos buscados en un mismo escaneo del catálogo y decide a cuáles de ellos
+ * pertenece cada concept referenciado por un dataset.
+ *
+ * @author Adolfo Trocolí Naranjo, 09218364X, a.trocoli@alumnos.upm.es
+ *
+ */
+public class ConjuntoResultados {
+
+	private final List<ResultadoBusqueda> resultados; // Un resultado por cada código buscado, en el mismo orden
+	private final Map<Integer, List<ResultadoBusqueda>> resultadosPorRaiz; // Nodo encontrado -> resultados que lo buscan
+	private IndiceConceptos indice;
+	private boolean[] esRaiz; // Marca los nodos del índice que son raíz de algún resultado
+
+	/**
+	 * @param codigos Códigos de las categorías buscadas.
+	 */
+	public ConjuntoResultados(List<String> codigos) {
+		resultados = new ArrayList<ResultadoBusqueda>();
+		for (String codigo : codigos)
+			resultados.add(new ResultadoBusqueda(codigo));
+		resultadosPorRaiz = new HashMap<Integer, List<ResultadoBusqueda>>();
+	}
+
+	/**
+	 * Resuelve cada código buscado sobre el índice, extrayendo su label y las URIs de su subárbol, y marca los nodos
+	 * raíz encontrados. Debe invocarse cuando el árbol de concepts ya esté completo.
+	 *
+	 * @param indice Índice de concepts del catálogo.
+	 */
+	public void resolver(IndiceConceptos indice) {
+		this.indice = indice;
+		esRaiz = new boolean[indice.getNumConceptos()];
+		for (ResultadoBusqueda resultado : resultados) {
+			resultado.resolver(indice);
+			if (resultado.getRaiz() < 0) continue;
+			esRaiz[resultado.getRaiz()] = true;
+			resultadosPorRaiz.computeIfAbsent(resultado.getRaiz(), k -> new ArrayList<ResultadoBusqueda>())
+					.add(resultado);
+		}
+	}
+
+	/**
+	 * Recorre los ancestros del concept indicado y anota los resultados cuya raíz se encuentra en ese camino. Así cada
+	 * concept se comprueba una sola vez contra todos los códigos buscados, estén anidados o no.
+	 *
+	 * @param uri           URI del concept referenciado por el dataset.
+	 * @param coincidencias Lista en la que se añaden (sin repetir) los resultados a los que pertenece.
+	 */
+	public void buscarCoincidencias(String uri, List<ResultadoBusqueda> coincidencias) {
+		for (int nodo = indice.buscar(uri); nodo >= 0; nodo = indice.getPadre(nodo)) {
+			if (!esRaiz[nodo]) continue;
+			for (ResultadoBusqueda resultado : resultadosPorRaiz.get(nodo))
+				if (!coincidencias.contains(resultado)) coincidencias.add(resultado);
+		}
+	}
+
+	/**
+	 * @return true si al menos uno de los códigos buscados se ha encontrado en el catálogo.
+	 */
+	public boolean hayCoincidencias() {
+		return !resultadosPorRaiz.isEmpty();
+	}
+
+	public List<ResultadoBusqueda> getResultados() {
+		return resultados;
+	}
+}
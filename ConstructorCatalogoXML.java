@@ -1,5 +1,4 @@
-import java.io.File;
-import java.io.FileNotFoundException;
+import java.io.IOException;
 import java.io.PrintWriter;
 import java.util.HashMap;
 import java.util.List;
@@ -17,7 +16,7 @@ import java.util.Map;
 public class ConstructorCatalogoXML {
 
 	/**
-	 * Construye el fichero XML.
+	 * Construye el fichero XML, comprimido con gzip si su nombre termina en {@value Compresion#EXTENSION_GZIP}.
 	 * 
 	 * @param ficheroSalida    Fichero de salida.
 	 * @param sNombreCategoria Nombre de la categoría buscada.
@@ -26,16 +25,39 @@ public class ConstructorCatalogoXML {
 	 *                         encontrado.
 	 * @param query            Código del concept.
 	 * @param mResources 
-	 * @throws FileNotFoundException Si el fichero de salida no existe y no puede
-	 *                               ser creado.
+	 * @throws IOException Si el fichero de salida no existe y no puede ser
+	 *                     creado.
 	 */
 	public static void construir(String ficheroSalida, String sNombreCategoria, List<String> lConcepts,
-			Map<String, HashMap<String, String>> hDatasets, final String query, Map<String, List<Map<String, String>>> mResources) throws FileNotFoundException {
+			Map<String, HashMap<String, String>> hDatasets, final String query, Map<String, List<Resource>> mResources) throws IOException {
+		PrintWriter pw = Compresion.abrirEscritor(ficheroSalida);
+		construir(pw, sNombreCategoria, lConcepts, hDatasets, query, mResources);
+		pw.close();
+	}
+
+	/**
+	 * Igual que {@link #construir(String, String, List, Map, String, Map)} pero escribiendo el documento en el
+	 * destino indicado, que no se cierra.
+	 */
+	public static void construir(PrintWriter pw, String sNombreCategoria, List<String> lConcepts,
+			Map<String, HashMap<String, String>> hDatasets, final String query, Map<String, List<Resource>> mResources) {
+		printCabecera(pw, lConcepts, hDatasets, query);
+		if (mResources.size() > 0) {
+			printResources(pw, mResources);
+		}
+		printFinal(pw);
+		pw.flush();
+	}
+
+	/**
+	 * Imprime todo lo que precede a los resources: cabecera, resumen, concepts y datasets.
+	 */
+	static void printCabecera(PrintWriter pw, List<String> lConcepts, Map<String, HashMap<String, String>> hDatasets,
+			final String query) {
 		final String header = "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n<searchResults xmlns=\"http://www.piat.dte.upm.es/ResultadosBusquedaP4\"\n"
 				+ "xmlns:xsi=\"http://www.w3.org/2001/XMLSchema-instance\"\n"
 				+ "xsi:schemaLocation=\"http://www.piat.dte.upm.es/ResultadosBusquedaP4 ResultadosBusquedaP4.xsd \">\n";
 
-		PrintWriter pw = new PrintWriter(new File(ficheroSalida));
 		pw.println(header);
 		pw.println("\t<summary>");
 		pw.println("\t\t<query>" + query + "</query>");
@@ -51,19 +73,21 @@ public class ConstructorCatalogoXML {
 		if (hDatasets.size() > 0) {
 			printDatasets(pw, hDatasets);
 		}
-		if (mResources.size() > 0) {
-			printResources(pw, mResources);
-		}
+	}
+
+	/**
+	 * Imprime el cierre del documento, tras los resources.
+	 */
+	static void printFinal(PrintWriter pw) {
 		pw.println("\t</results>");
 		pw.println("</searchResults>");
-		pw.close();
 	}
 
-	private static void printResources(PrintWriter pw, Map<String, List<Map<String, String>>> mResources) {
+	private static void printResources(PrintWriter pw, Map<String, List<Resource>> mResources) {
 		String resourceID;
-		List<Map<String, String>> listaElementos;
+		List<Resource> listaElementos;
 		pw.println("\t\t<resources>");
-		for(Map.Entry<String, List<Map<String, String>>> entradaResources : mResources.entrySet()) {
+		for(Map.Entry<String, List<Resource>> entradaResources : mResources.entrySet()) {
 			resourceID = entradaResources.getKey();
 			listaElementos = entradaResources.getValue();
 			printResource(pw, resourceID, listaElementos);
@@ -71,29 +95,29 @@ public class ConstructorCatalogoXML {
 		pw.println("\t\t</resources>");		
 	}
 
-	private static void printResource(PrintWriter pw, String resourceID, List<Map<String, String>> listaElementos) {
-		for(Map<String, String> element : listaElementos) {
+	static void printResource(PrintWriter pw, String resourceID, List<Resource> listaElementos) {
+		for(Resource element : listaElementos) {
 			pw.println("\t\t\t<resource id=\"" + resourceID + "\">");
-			pw.println("\t\t\t\t<concept id=\"" + element.get("concept") + "\"/>");
-			if(!element.get("link").isBlank())
-				pw.println("\t\t\t\t<link> <![CDATA[" + element.get("link") + "]]> </link>");
+			pw.println("\t\t\t\t<concept id=\"" + element.getConcept() + "\"/>");
+			if(!element.getLink().isBlank())
+				pw.println("\t\t\t\t<link> <![CDATA[" + element.getLink() + "]]> </link>");
 			else
-				pw.println("\t\t\t\t<link>" + element.get("relation") + "</link>");
-			pw.println("\t\t\t\t<title>" + element.get("title") + "</title>");
+				pw.println("\t\t\t\t<link>" + element.getRelation() + "</link>");
+			pw.println("\t\t\t\t<title>" + element.getTitle() + "</title>");
 			pw.println("\t\t\t\t<location>");
-			pw.println("\t\t\t\t\t<eventLocation>" + element.get("eventLocation") + "</eventLocation>");
-			pw.println("\t\t\t\t\t<area>" + element.get("area") + "</area>");
+			pw.println("\t\t\t\t\t<eventLocation>" + element.getEventLocation() + "</eventLocation>");
+			pw.println("\t\t\t\t\t<area>" + element.getArea() + "</area>");
 			pw.println("\t\t\t\t\t<timetable>");
-			pw.println("\t\t\t\t\t\t<start>" + element.get("dtstart") + "</start>");
-			pw.println("\t\t\t\t\t\t<end>" + element.get("dtend") + "</end>");
+			pw.println("\t\t\t\t\t\t<start>" + element.getDtstart() + "</start>");
+			pw.println("\t\t\t\t\t\t<end>" + element.getDtend() + "</end>");
 			pw.println("\t\t\t\t\t</timetable>");
-			pw.println("\t\t\t\t\t<georeference>" + element.get("latitude") + " " + element.get("longitude") + " " + "</georeference>");
+			pw.println("\t\t\t\t\t<georeference>" + element.getLatitude() + " " + element.getLongitude() + " " + "</georeference>");
 			pw.println("\t\t\t\t</location>");
 			pw.println("\t\t\t\t<organization>");
-			pw.println("\t\t\t\t\t<accesibility>" + element.get("accesibility") + "</accesibility>");
-			pw.println("\t\t\t\t\t<organizationName>" + element.get("organization-name") + "</organizationName>");
+			pw.println("\t\t\t\t\t<accesibility>" + element.getAccesibility() + "</accesibility>");
+			pw.println("\t\t\t\t\t<organizationName>" + element.getOrganizationName() + "</organizationName>");
 			pw.println("\t\t\t\t</organization>");
-			pw.println("\t\t\t\t<description>" + element.get("description") + "</description>");
+			pw.println("\t\t\t\t<description>" + element.getDescription() + "</description>");
 			pw.println("\t\t\t</resource>");
 		}
 	}
@@ -1,114 +1,120 @@
+import java.io.BufferedWriter;
 import java.io.File;
-import java.io.FileNotFoundException;
-import java.io.PrintWriter;
-import java.util.List;
-import java.util.Optional;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+
+import com.google.gson.stream.JsonWriter;
 
 /**
- * Clase encargada de construir un documento JSON a partir los datos facilitados por el procesador de XML.
- * 
+ * Clase encargada de construir un documento JSON a partir los datos facilitados por el procesador de XML. El documento
+ * se escribe en una sola pasada a medida que se recorre el {@link ContenidoJSON}, con un {@link JsonWriter} que escapa
+ * los valores, así que no hace falta tener todos los títulos en memoria a la vez.
+ *
  * @author Adolfo Trocolí Naranjo, 09218364X, a.trocoli@alumnos.upm.es
  *
  */
 public class ConstructorDocumentoJSON {
 
-	private static PrintWriter pw;
+	private static final int TAMAÑO_BUFFER = 64 * 1024;
 
 	/**
 	 * Permite construir un documento JSON que indica la query realizada al portal de información, el número de datasets
 	 * que se han recabado con esta query, la información acerca del número de recursos asociados a cada uno de los
-	 * datasets, y los títulos de estos recursos.
-	 * 
-	 * @param propiedades       Lista de propiedades necesarias para construir el documento JSON.
+	 * datasets, y los títulos de estos recursos. El fichero se escribe en UTF-8 y se comprime con gzip si su nombre
+	 * termina en {@value Compresion#EXTENSION_GZIP}.
+	 *
+	 * @param contenido         Información a escribir en el documento JSON.
 	 * @param ficheroSalidaJSON URI del fichero de salida.
-	 * @throws FileNotFoundException
+	 * @param ndjson            Escribir el documento en formato NDJSON (ver {@link #construirNDJSON}).
+	 * @throws IOException
 	 */
-	public static void construir(List<Propiedad> propiedades, String ficheroSalidaJSON) throws FileNotFoundException {
-
-		pw = new PrintWriter(new File(ficheroSalidaJSON));
-		// Indice de la primera propiedad "title", nos sirve para ver donde cortar la lista de propiedades
-		int indice = indexOfTitle(propiedades);
-
-		Propiedad query = propiedades.get(0);
-		Propiedad numDataset = propiedades.get(1);
-		List<Propiedad> infDatasets = propiedades.subList(2, indice);
-		List<Propiedad> titles = propiedades.subList(indice, propiedades.size());
-
-		beginDocument();
-		printProperty(query);
-		printProperty(numDataset);
-		printInfDatasets(infDatasets);
-		printTitles(titles);
-		endDocument();
+	public static void construir(ContenidoJSON contenido, String ficheroSalidaJSON, boolean ndjson)
+			throws IOException {
+		try (Writer salida = new BufferedWriter(new OutputStreamWriter(
+				Compresion.abrirSalida(new File(ficheroSalidaJSON)), StandardCharsets.UTF_8), TAMAÑO_BUFFER)) {
+			if (ndjson) construirNDJSON(contenido, salida);
+			else construir(contenido, salida);
+		}
 	}
 
 	/**
-	 * Devuelve el índice del primero objeto de la lista de propiedades que cumple que su nombre es "title". Sirve para
-	 * conocer el punto donde terminan las propiedades relacionadas dcon "infDatasets" y donde empiezan las relacionadas
-	 * con "titles".
-	 * 
-	 * @param propiedades Lista de propiedades.
-	 * @return Posicion del primer objeto Propiedad cuyo nombre es igual a "title".
+	 * Escribe el documento JSON en el destino indicado, que no se cierra. Cada llamada usa su propio destino, de forma
+	 * que se pueden construir varios documentos a la vez.
+	 *
+	 * @param contenido Información a escribir en el documento JSON.
+	 * @param salida    Destino del documento.
 	 */
-	private static int indexOfTitle(List<Propiedad> propiedades) {
-		 Optional<Propiedad> posiblePropiedad = propiedades.stream() // Es el primer objeto Propiedad que devuelve "title" al llamar a getNombre();
-				.filter(p -> p.getNombre().equals("title"))
-				.findFirst();
-		 if (posiblePropiedad.isPresent()) return propiedades.indexOf(posiblePropiedad.get());
-		 else return propiedades.size();
+	public static void construir(ContenidoJSON contenido, Writer salida) throws IOException {
+		JsonWriter writer = new JsonWriter(salida);
+		writer.setIndent("\t");
+		writer.beginObject();
+		writer.name("query").value(contenido.getQuery());
+		writer.name("numDataset").value(formatear(contenido.getNumDatasets()));
+		writer.name("infDatasets").beginArray();
+		for (String idDataset : contenido.getDatasets())
+			printInfDataset(writer, contenido, idDataset);
+		writer.endArray();
+		writer.name("titles").beginArray();
+		for (String title : contenido.getTitles())
+			printTitle(writer, title);
+		writer.endArray();
+		writer.endObject();
+		writer.flush();
+		salida.write('\n');
+		salida.flush();
 	}
 
 	/**
-	 * Imprime los títulos en formato JSON.
-	 * 
-	 * @param titles Títulos a imprimir.
+	 * Escribe la misma información en formato NDJSON, con un objeto por línea: primero la query y el número de
+	 * datasets, después un objeto con el id y el número de recursos de cada dataset, y por último uno por cada título.
+	 * Así el documento se puede procesar línea a línea sin leerlo entero.
+	 *
+	 * @param contenido Información a escribir en el documento.
+	 * @param salida    Destino del documento, que no se cierra.
 	 */
-	private static void printTitles(List<Propiedad> propiedades) {
-		pw.println("\t\"titles\": [");
-		String line;
-		for (int i = 0; i < propiedades.size(); i++) {
-			line = "\t\t{ \"title\": \"" + propiedades.get(i).getValor() + "\" }";
-			if (i != propiedades.size() - 1) line += ",";
-			pw.println(line);
+	public static void construirNDJSON(ContenidoJSON contenido, Writer salida) throws IOException {
+		JsonWriter writer = new JsonWriter(salida);
+		writer.setLenient(true); // Admite varios valores seguidos en el nivel superior
+		writer.beginObject();
+		writer.name("query").value(contenido.getQuery());
+		writer.name("numDataset").value(formatear(contenido.getNumDatasets()));
+		writer.endObject();
+		salida.write('\n');
+		for (String idDataset : contenido.getDatasets()) {
+			printInfDataset(writer, contenido, idDataset);
+			salida.write('\n');
 		}
-		pw.println("\t]");
-	}
-
-	/**
-	 * Imprime información acerca de cuantos recursos se han recabado por cada dataset.
-	 * 
-	 * @param ids  Array de String con los nombres de los datasets.
-	 * @param nums Array con los valores numéricos correspondientes por índice.
-	 */
-	private static void printInfDatasets(List<Propiedad> propiedades) {
-		pw.println("\t\"infDatasets\": [{");
-		Propiedad propiedad;
-		for (int i = 0; i < propiedades.size(); i++) {
-			propiedad = propiedades.get(i);
-			if (i != 0) pw.println("\t\t{");
-			pw.println("\t\t\t\"id\": \"" + propiedad.getNombre() + "\",");
-			pw.println("\t\t\t\"num\": \"" + propiedad.getValor() + "\"");
-			if (i != propiedades.size() - 1) pw.println("\t\t},");
-			else pw.println("\t\t}");
+		for (String title : contenido.getTitles()) {
+			printTitle(writer, title);
+			salida.write('\n');
 		}
-		pw.println("\t],");
+		writer.flush();
 	}
 
 	/**
-	 * Imprime una propiedad en JSON.
-	 * 
-	 * @param propiedad Propiedad a imprimir.
+	 * Imprime cuántos recursos se han recabado de un dataset.
 	 */
-	private static void printProperty(Propiedad propiedad) {
-		pw.println("\t\"" + propiedad.getNombre() + "\": \"" + propiedad.getValor() + "\",");
+	private static void printInfDataset(JsonWriter writer, ContenidoJSON contenido, String idDataset)
+			throws IOException {
+		writer.beginObject();
+		writer.name("id").value(idDataset);
+		writer.name("num").value(formatear(contenido.getNumResources(idDataset)));
+		writer.endObject();
 	}
 
-	private static void beginDocument() {
-		pw.println("{");
+	private static void printTitle(JsonWriter writer, String title) throws IOException {
+		writer.beginObject();
+		writer.name("title").value(title);
+		writer.endObject();
 	}
 
-	private static void endDocument() {
-		pw.println("}");
-		pw.close();
+	/**
+	 * Los números se escriben como cadenas con un decimal ("3.0"), igual que los devolvía XPath, para no cambiar el
+	 * formato del documento.
+	 */
+	private static String formatear(int numero) {
+		return Double.toString(numero);
 	}
 }
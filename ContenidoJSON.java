@@ -0,0 +1,33 @@
+/**
+ * Información que recoge el documento JSON de salida, tal como la obtienen {@link XPathProcess} y
+ * {@link EvaluadorMemoria}. {@link ConstructorDocumentoJSON} la recorre una sola vez mientras escribe el documento, de
+ * forma que los títulos de los resources se obtienen a medida que se escriben en lugar de reunirse antes en una lista.
+ *
+ * @author Adolfo Trocolí Naranjo, 09218364X, a.trocoli@alumnos.upm.es
+ *
+ */
+public interface ContenidoJSON {
+
+	/**
+	 * @return Código del concept buscado.
+	 */
+	public String getQuery();
+
+	public int getNumDatasets();
+
+	/**
+	 * @return Ids de los datasets, en el orden en que aparecen en el XML de salida.
+	 */
+	public Iterable<String> getDatasets();
+
+	/**
+	 * @param idDataset Id del dataset.
+	 * @return Número de resources del dataset en el XML de salida.
+	 */
+	public int getNumResources(String idDataset);
+
+	/**
+	 * @return Títulos de todos los resources, en el orden en que aparecen en el XML de salida.
+	 */
+	public Iterable<String> getTitles();
+}
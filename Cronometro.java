@@ -0,0 +1,40 @@
+import java.io.PrintStream;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Acumula el tiempo empleado en cada fase de la extracción para poder comparar distintas configuraciones.
+ *
+ * @author Adolfo Trocolí Naranjo, 09218364X, a.trocoli@alumnos.upm.es
+ *
+ */
+public class Cronometro {
+
+	private final Map<String, Long> fases = new LinkedHashMap<String, Long>(); // Fase -> nanosegundos acumulados
+
+	/**
+	 * Suma a una fase el tiempo transcurrido desde el instante indicado, y lo anota también en las
+	 * {@link Metricas#getGlobal() métricas} del proceso.
+	 *
+	 * @param fase   Nombre de la fase.
+	 * @param inicio Instante de comienzo, obtenido con {@link System#nanoTime()}.
+	 */
+	public synchronized void registrar(String fase, long inicio) {
+		final long duracion = System.nanoTime() - inicio;
+		fases.merge(fase, duracion, Long::sum);
+		Metricas.getGlobal().registrarFase(fase, duracion);
+	}
+
+	/**
+	 * Imprime una línea por fase con su duración en milisegundos, y el total.
+	 */
+	public synchronized void imprimir(PrintStream salida) {
+		long total = 0;
+		salida.println("Tiempos por fase (ms):");
+		for (Map.Entry<String, Long> fase : fases.entrySet()) {
+			salida.printf("\t%-25s %10.2f%n", fase.getKey(), fase.getValue() / 1e6);
+			total += fase.getValue();
+		}
+		salida.printf("\t%-25s %10.2f%n", "total", total / 1e6);
+	}
+}
@@ -0,0 +1,42 @@
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Número máximo de resources que pueden extraer entre todos los {@link JSONDatasetParser} de un código. Los parsers
+ * se reparten el cupo a medida que encuentran resources, por lo que qué datasets aportan resources cuando el cupo se
+ * agota depende del orden en que terminan las descargas.
+ *
+ * @author Adolfo Trocolí Naranjo, 09218364X, a.trocoli@alumnos.upm.es
+ *
+ */
+public class CupoResources {
+
+	public static final int SIN_LIMITE = Integer.MAX_VALUE;
+
+	private final AtomicInteger restantes;
+
+	/**
+	 * @param maximo Número máximo de resources, o {@link #SIN_LIMITE}.
+	 */
+	public CupoResources(int maximo) {
+		restantes = new AtomicInteger(maximo);
+	}
+
+	/**
+	 * Reserva un resource del cupo.
+	 *
+	 * @return true si quedaba cupo, false si ya estaba agotado.
+	 */
+	public boolean tomar() {
+		int actual;
+		do {
+			actual = restantes.get();
+			if (actual <= 0) return false;
+			if (actual == SIN_LIMITE) return true;
+		} while (!restantes.compareAndSet(actual, actual - 1));
+		return true;
+	}
+
+	public boolean agotado() {
+		return restantes.get() <= 0;
+	}
+}
@@ -0,0 +1,34 @@
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Conjunto de valores compartido por los {@link JSONDatasetParser} de una ejecución. Devuelve siempre la misma
+ * instancia para cadenas iguales, de forma que los valores repetidos de miles de {@link Resource} ocupan memoria una
+ * sola vez.
+ * <br>
+ * Solo debe usarse con valores que se repiten mucho (URIs de concepts, nombres de organizaciones...): cada valor
+ * distinto queda guardado mientras exista el diccionario.
+ *
+ * @author Adolfo Trocolí Naranjo, 09218364X, a.trocoli@alumnos.upm.es
+ *
+ */
+public class DiccionarioValores {
+
+	private final ConcurrentHashMap<String, String> valores = new ConcurrentHashMap<String, String>();
+
+	/**
+	 * @param valor Valor leído (puede ser null).
+	 * @return Instancia compartida de un valor igual, o null si el valor es null.
+	 */
+	public String compartir(String valor) {
+		if (valor == null || valor.isEmpty()) return valor;
+		final String compartido = valores.putIfAbsent(valor, valor);
+		return compartido == null ? valor : compartido;
+	}
+
+	/**
+	 * @return Número de valores distintos guardados.
+	 */
+	public int size() {
+		return valores.size();
+	}
+}
@@ -0,0 +1,109 @@
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * Versión incremental de {@link ConstructorCatalogoXML}. Escribe el mismo documento, pero sin esperar a que terminen
+ * todos los {@link JSONDatasetParser}: la cabecera, los concepts y los datasets se escriben al empezar, y los resources
+ * de cada dataset en cuanto su parser termina.
+ * <br>
+ * Los parsers entregan sus resultados a través de una cola acotada, de forma que si la escritura va por detrás se
+ * bloquean en lugar de acumular resultados. Así la memoria necesaria depende del número de datasets en curso y no del
+ * tamaño total de la salida.
+ *
+ * @author Adolfo Trocolí Naranjo, 09218364X, a.trocoli@alumnos.upm.es
+ *
+ */
+public class EscritorCatalogoXML implements ReceptorResources {
+
+	/**
+	 * Resources de un dataset pendientes de escribir.
+	 */
+	private static class EntradaResources {
+		private final String idDataset;
+		private final List<Resource> resources;
+
+		private EntradaResources(String idDataset, List<Resource> resources) {
+			this.idDataset = idDataset;
+			this.resources = resources;
+		}
+	}
+
+	private final PrintWriter pw;
+	private final BlockingQueue<EntradaResources> cola;
+	private EvaluadorMemoria evaluador;
+	private boolean resourcesAbiertos;
+
+	/**
+	 * Abre el fichero de salida, comprimido con gzip si su nombre termina en {@value Compresion#EXTENSION_GZIP}.
+	 *
+	 * @param ficheroSalida Fichero de salida.
+	 * @param capacidad     Número máximo de datasets leídos pendientes de escribir.
+	 * @throws IOException Si el fichero de salida no existe y no puede ser creado.
+	 */
+	public EscritorCatalogoXML(String ficheroSalida, int capacidad) throws IOException {
+		pw = Compresion.abrirEscritor(ficheroSalida);
+		cola = new ArrayBlockingQueue<EntradaResources>(capacidad);
+	}
+
+	/**
+	 * Hace que cada dataset escrito se registre también en el evaluador, para poder generar el JSON sin releer el XML.
+	 */
+	public void setEvaluador(EvaluadorMemoria evaluador) {
+		this.evaluador = evaluador;
+	}
+
+	/**
+	 * Escribe todo lo que precede a los resources: cabecera, resumen, concepts y datasets.
+	 *
+	 * @param lConcepts Sub-conceptos del concept encontrado.
+	 * @param hDatasets Mapa de datasets relacionados con el concept encontrado.
+	 * @param query     Código del concept.
+	 */
+	public void escribirCabecera(List<String> lConcepts, Map<String, HashMap<String, String>> hDatasets,
+			final String query) {
+		ConstructorCatalogoXML.printCabecera(pw, lConcepts, hDatasets, query);
+		pw.flush();
+	}
+
+	/**
+	 * Encola los resources de un dataset. Lo invocan los hilos de los parsers y se bloquea si la cola está llena.
+	 */
+	@Override
+	public void recibir(String idDataset, List<Resource> resources) throws InterruptedException {
+		cola.put(new EntradaResources(idDataset, resources));
+	}
+
+	/**
+	 * Escribe los resources a medida que llegan, hasta haber recibido el resultado de todos los datasets, y cierra el
+	 * documento.
+	 *
+	 * @param numDatasets Número de parsers lanzados.
+	 * @throws InterruptedException Si el hilo se interrumpe mientras espera resultados.
+	 * @throws IOException          Si el evaluador no puede guardar los títulos de algún dataset.
+	 */
+	public void escribirResources(int numDatasets) throws InterruptedException, IOException {
+		EntradaResources entrada;
+		for (int i = 0; i < numDatasets; i++) {
+			entrada = cola.take();
+			if (entrada.resources == null) continue; // El dataset no se ha podido leer
+			if (!resourcesAbiertos) {
+				pw.println("\t\t<resources>");
+				resourcesAbiertos = true;
+			}
+			ConstructorCatalogoXML.printResource(pw, entrada.idDataset, entrada.resources);
+			pw.flush();
+			if (evaluador != null) evaluador.registrar(entrada.idDataset, entrada.resources);
+		}
+		if (resourcesAbiertos) pw.println("\t\t</resources>");
+		ConstructorCatalogoXML.printFinal(pw);
+	}
+
+	public void cerrar() {
+		pw.close();
+	}
+}
@@ -0,0 +1,305 @@
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
+
+/**
+ * Estado de la extracción de un código guardado entre ejecuciones, para volver a descargar solo lo que ha cambiado en
+ * el catálogo. Por cada código se guardan en el directorio de estado:
+ * <ul>
+ * <li><code>código.estado.json</code>: huella del conjunto de URIs del subárbol de concepts del código y de las
+ * opciones de extracción, huella de lo que las salidas muestran del subárbol (el label de la raíz y la lista de
+ * concepts), y la huella y los resources de cada dataset,</li>
+ * <li><code>código.xml</code> y <code>código.json</code>: copias de los ficheros de salida, con la extensión
+ * {@value Compresion#EXTENSION_GZIP} si se escribieron comprimidos.</li>
+ * </ul>
+ * Los resources de un dataset dependen solo de su URL y del conjunto de concepts del subárbol, así que si la huella del
+ * subárbol no cambia se reutilizan los de los datasets cuya huella (id, title, description y theme) tampoco ha
+ * cambiado; cambiar el label de un concept no obliga a descargar nada. Si además no cambian la huella de las salidas ni
+ * el conjunto de datasets, se reutilizan directamente los ficheros de salida.
+ * <br>
+ * Se supone que el contenido de la URL de un dataset no cambia mientras no cambie su entrada en el catálogo.
+ *
+ * @author Adolfo Trocolí Naranjo, 09218364X, a.trocoli@alumnos.upm.es
+ *
+ */
+public class EstadoIncremental {
+
+	private static final String EXTENSION_ESTADO = ".estado.json";
+	private static final String EXTENSION_XML = ".xml";
+	private static final String EXTENSION_JSON = ".json";
+
+	private final File directorio;
+	private final String codigo;
+	private final String huellaSubarbol; // Del catálogo actual y las opciones actuales
+	private final String huellaSalidas; // Label de la raíz y concepts del resultado actual
+	private final Map<String, String> huellas; // Dataset del catálogo actual -> huella
+	private final Map<String, List<Resource>> reutilizables; // Datasets sin cambios -> resources de la ejecución anterior
+	private boolean sinCambios; // Mismo subárbol, mismas salidas y mismos datasets con las mismas huellas
+
+	/**
+	 * Compara el resultado actual de un código con el estado guardado en la ejecución anterior.
+	 *
+	 * @param directorio    Directorio de estado; se crea si no existe.
+	 * @param resultado     Resultado de la búsqueda del código en el catálogo actual.
+	 * @param indice        Índice de concepts del catálogo actual.
+	 * @param firmaOpciones Opciones que cambian los resources extraídos.
+	 * @param diccionario   Diccionario con el que se comparten los valores de los resources leídos.
+	 */
+	public EstadoIncremental(File directorio, ResultadoBusqueda resultado, IndiceConceptos indice,
+			String firmaOpciones, DiccionarioValores diccionario) throws IOException {
+		Files.createDirectories(directorio.toPath());
+		this.directorio = directorio;
+		this.codigo = resultado.getCodigo();
+		huellaSubarbol = huellaSubarbol(indice, resultado.getRaiz(), firmaOpciones);
+		final List<String> salidas = new ArrayList<String>();
+		salidas.add(resultado.getLabel());
+		salidas.addAll(resultado.getConcepts());
+		huellaSalidas = huella(salidas);
+		huellas = new HashMap<String, String>();
+		for (Map.Entry<String, HashMap<String, String>> dataset : resultado.getDatasets().entrySet())
+			huellas.put(dataset.getKey(), huellaDataset(dataset.getKey(), dataset.getValue()));
+		reutilizables = new HashMap<String, List<Resource>>();
+		final File fichero = getFichero(EXTENSION_ESTADO);
+		if (fichero.isFile()) {
+			try {
+				leer(fichero, diccionario);
+			} catch (IOException | IllegalStateException | NumberFormatException e) {
+				// Estado dañado: se descarta y se extrae todo de nuevo
+				reutilizables.clear();
+				sinCambios = false;
+			}
+		}
+	}
+
+	/**
+	 * @return Resources de la ejecución anterior de los datasets que no han cambiado.
+	 */
+	public Map<String, List<Resource>> getReutilizables() {
+		return reutilizables;
+	}
+
+	/**
+	 * @return true si ni el subárbol, ni lo que las salidas muestran de él, ni los datasets del código han cambiado
+	 *         desde la ejecución anterior.
+	 */
+	public boolean isSinCambios() {
+		return sinCambios;
+	}
+
+	/**
+	 * Copia los ficheros de salida de la ejecución anterior, si no ha cambiado nada y se guardaron.
+	 *
+	 * @param ficheroSalidaXML  Fichero XML de salida, o null si no se escribe.
+	 * @param ficheroSalidaJSON Fichero JSON de salida.
+	 * @return true si se han copiado todos los ficheros pedidos.
+	 */
+	public boolean copiarSalidas(String ficheroSalidaXML, String ficheroSalidaJSON) throws IOException {
+		final File xml = ficheroSalidaXML == null ? null : getCopia(EXTENSION_XML, ficheroSalidaXML);
+		final File json = getCopia(EXTENSION_JSON, ficheroSalidaJSON);
+		if (!sinCambios || !json.isFile() || (ficheroSalidaXML != null && !xml.isFile())) return false;
+		if (ficheroSalidaXML != null)
+			Files.copy(xml.toPath(), new File(ficheroSalidaXML).toPath(), StandardCopyOption.REPLACE_EXISTING);
+		Files.copy(json.toPath(), new File(ficheroSalidaJSON).toPath(), StandardCopyOption.REPLACE_EXISTING);
+		return true;
+	}
+
+	/**
+	 * Guarda el estado de esta ejecución y copias de sus ficheros de salida. Los datasets que no se han podido leer no
+	 * se guardan, de forma que la próxima ejecución los vuelve a descargar.
+	 *
+	 * @param mResources        Resources de cada dataset leído, incluidos los reutilizados.
+	 * @param ficheroSalidaXML  Fichero XML escrito, o null si no se ha escrito.
+	 * @param ficheroSalidaJSON Fichero JSON escrito.
+	 */
+	public void guardar(Map<String, List<Resource>> mResources, String ficheroSalidaXML, String ficheroSalidaJSON)
+			throws IOException {
+		// Se borran las copias anteriores, comprimidas o no, que ya no corresponden a esta ejecución
+		for (String extension : new String[] { EXTENSION_XML, EXTENSION_JSON }) {
+			getFichero(extension).delete();
+			getFichero(extension + Compresion.EXTENSION_GZIP).delete();
+		}
+		if (ficheroSalidaXML != null) Files.copy(new File(ficheroSalidaXML).toPath(),
+				getCopia(EXTENSION_XML, ficheroSalidaXML).toPath(), StandardCopyOption.REPLACE_EXISTING);
+		Files.copy(new File(ficheroSalidaJSON).toPath(), getCopia(EXTENSION_JSON, ficheroSalidaJSON).toPath(),
+				StandardCopyOption.REPLACE_EXISTING);
+		final File temporal = getFichero(EXTENSION_ESTADO + ".tmp");
+		try (JsonWriter writer = new JsonWriter(Files.newBufferedWriter(temporal.toPath(), StandardCharsets.UTF_8))) {
+			writer.beginObject();
+			writer.name("subarbol").value(huellaSubarbol);
+			writer.name("salidas").value(huellaSalidas);
+			writer.name("datasets").beginObject();
+			for (Map.Entry<String, List<Resource>> dataset : mResources.entrySet()) {
+				writer.name(dataset.getKey()).beginObject();
+				writer.name("huella").value(huellas.get(dataset.getKey()));
+				writer.name("resources").beginArray();
+				for (Resource resource : dataset.getValue())
+					escribirResource(writer, resource);
+				writer.endArray();
+				writer.endObject();
+			}
+			writer.endObject();
+			writer.endObject();
+		}
+		// Se sustituye de una vez para no dejar un estado a medias si la ejecución se interrumpe
+		Files.move(temporal.toPath(), getFichero(EXTENSION_ESTADO).toPath(), StandardCopyOption.REPLACE_EXISTING,
+				StandardCopyOption.ATOMIC_MOVE);
+	}
+
+	private void leer(File fichero, DiccionarioValores diccionario) throws IOException {
+		try (BufferedReader lector = Files.newBufferedReader(fichero.toPath(), StandardCharsets.UTF_8);
+				JsonReader reader = new JsonReader(lector)) {
+			boolean mismoSubarbol = false, mismasSalidas = false;
+			int datasetsSinCambios = 0, datasetsAnteriores = 0;
+			reader.beginObject();
+			while (reader.hasNext()) {
+				final String nombre = reader.nextName();
+				if (nombre.equals("subarbol")) {
+					mismoSubarbol = reader.nextString().equals(huellaSubarbol);
+					if (!mismoSubarbol) return; // Cambia el filtro de concepts: no se puede reutilizar ningún dataset
+				} else if (nombre.equals("salidas")) {
+					mismasSalidas = reader.nextString().equals(huellaSalidas);
+				} else if (nombre.equals("datasets")) {
+					reader.beginObject();
+					while (reader.hasNext()) {
+						final String idDataset = reader.nextName();
+						datasetsAnteriores++;
+						if (leerDataset(reader, idDataset, diccionario)) datasetsSinCambios++;
+					}
+					reader.endObject();
+				} else {
+					reader.skipValue();
+				}
+			}
+			reader.endObject();
+			sinCambios = mismoSubarbol && mismasSalidas && datasetsSinCambios == datasetsAnteriores
+					&& datasetsSinCambios == huellas.size();
+		}
+	}
+
+	/**
+	 * Lee un dataset del estado y guarda sus resources si su huella coincide con la actual.
+	 *
+	 * @return true si el dataset no ha cambiado.
+	 */
+	private boolean leerDataset(JsonReader reader, String idDataset, DiccionarioValores diccionario)
+			throws IOException {
+		String huella = null;
+		List<Resource> resources = null;
+		reader.beginObject();
+		while (reader.hasNext()) {
+			final String nombre = reader.nextName();
+			if (nombre.equals("huella")) {
+				huella = reader.nextString();
+			} else if (nombre.equals("resources") && huella != null && huella.equals(huellas.get(idDataset))) {
+				resources = new ArrayList<Resource>();
+				reader.beginArray();
+				while (reader.hasNext())
+					resources.add(leerResource(reader, diccionario));
+				reader.endArray();
+			} else {
+				reader.skipValue();
+			}
+		}
+		reader.endObject();
+		if (huella == null || !huella.equals(huellas.get(idDataset)) || resources == null) return false;
+		reutilizables.put(idDataset, resources);
+		return true;
+	}
+
+	private static void escribirResource(JsonWriter writer, Resource resource) throws IOException {
+		writer.beginArray();
+		for (String valor : new String[] { resource.getConcept(), resource.getLink(), resource.getRelation(),
+				resource.getTitle(), resource.getEventLocation(), resource.getArea(), resource.getDescription(),
+				resource.getDtstart(), resource.getDtend(), resource.getLatitude(), resource.getLongitude(),
+				resource.getAccesibility(), resource.getOrganizationName() })
+			writer.value(valor);
+		writer.endArray();
+	}
+
+	private static Resource leerResource(JsonReader reader, DiccionarioValores diccionario) throws IOException {
+		final String[] v = new String[13];
+		reader.beginArray();
+		for (int i = 0; i < v.length; i++) {
+			if (reader.peek() == JsonToken.NULL) reader.nextNull();
+			else v[i] = reader.nextString();
+		}
+		reader.endArray();
+		// Mismos valores compartidos que en JSONDatasetParser
+		return new Resource(diccionario.compartir(v[0]), v[1], diccionario.compartir(v[2]), v[3],
+				diccionario.compartir(v[4]), diccionario.compartir(v[5]), v[6], v[7], v[8], diccionario.compartir(v[9]),
+				diccionario.compartir(v[10]), diccionario.compartir(v[11]), diccionario.compartir(v[12]));
+	}
+
+	private File getFichero(String extension) {
+		return new File(directorio, codigo + extension);
+	}
+
+	/**
+	 * @return Copia guardada de un fichero de salida, comprimida igual que él.
+	 */
+	private File getCopia(String extension, String ficheroSalida) {
+		return getFichero(extension + Compresion.getExtension(ficheroSalida));
+	}
+
+	/**
+	 * Huella de lo único de lo que dependen los resources: el conjunto de URIs del subárbol y las opciones. Los labels
+	 * no se incluyen, porque no cambian los resources y el motor StAX solo indexa el de la raíz.
+	 *
+	 * @return Huella de las URIs ordenadas del subárbol de un concept y de las opciones.
+	 */
+	private static String huellaSubarbol(IndiceConceptos indice, int raiz, String firmaOpciones) {
+		List<String> uris = new ArrayList<String>();
+		for (int nodo = raiz; raiz >= 0 && nodo < indice.getNumConceptos() && indice.esDescendiente(nodo, raiz); nodo++)
+			uris.add(indice.getUri(nodo));
+		Collections.sort(uris);
+		uris.add(0, firmaOpciones);
+		return huella(uris);
+	}
+
+	/**
+	 * @return Huella del id, title, description y theme de un dataset.
+	 */
+	private static String huellaDataset(String idDataset, Map<String, String> dataset) {
+		List<String> partes = new ArrayList<String>();
+		partes.add(idDataset);
+		partes.add(dataset.get("title"));
+		partes.add(dataset.get("description"));
+		partes.add(dataset.get("theme"));
+		return huella(partes);
+	}
+
+	/**
+	 * SHA-256 de una lista de valores, separados de forma que ningún valor pueda confundirse con el siguiente.
+	 */
+	private static String huella(List<String> partes) {
+		try {
+			final MessageDigest resumen = MessageDigest.getInstance("SHA-256");
+			for (String parte : partes) {
+				final byte[] bytes = String.valueOf(parte).getBytes(StandardCharsets.UTF_8);
+				resumen.update(Integer.toString(bytes.length).getBytes(StandardCharsets.US_ASCII));
+				resumen.update((byte) ':');
+				resumen.update(bytes);
+			}
+			StringBuilder huella = new StringBuilder();
+			for (byte b : resumen.digest())
+				huella.append(String.format("%02x", b));
+			return huella.toString();
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException(e); // Todas las JVM incluyen SHA-256
+		}
+	}
+}
@@ -0,0 +1,182 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+
+/**
+ * Alternativa a {@link XPathProcess} que obtiene la misma información directamente de los resultados en memoria, sin
+ * escribir ni volver a leer el fichero XML. Ofrece la misma información en el mismo orden, de forma que
+ * {@link ConstructorDocumentoJSON} puede usar cualquiera de los dos indistintamente.
+ * <br>
+ * Cuando los resources se registran según terminan las descargas, sus títulos se vuelcan a un fichero temporal en
+ * lugar de guardarse en memoria, porque el documento JSON no se puede empezar hasta conocer el número de resources de
+ * todos los datasets. Así la memoria depende de las descargas en curso y no del tamaño de la salida.
+ *
+ * @author Adolfo Trocolí Naranjo, 09218364X, a.trocoli@alumnos.upm.es
+ *
+ */
+public class EvaluadorMemoria implements ContenidoJSON {
+
+	private final String query;
+	private final Map<String, HashMap<String, String>> hDatasets;
+	private final Map<String, Integer> numResources; // Dataset -> número de resources registrados
+	private File ficheroTitulos; // Títulos de los resources registrados, en orden; se crea con el primero
+	private DataOutputStream titulos;
+	private int numTitulos;
+	private Map<String, List<Resource>> mResources; // Resources de todos los datasets, si se conocen desde el principio
+
+	/**
+	 * Crea un evaluador al que se le irán registrando los resources de cada dataset con
+	 * {@link #registrar(String, List)}.
+	 *
+	 * @param query     Código del concept buscado.
+	 * @param hDatasets Mapa de datasets relacionados con el concept.
+	 */
+	public EvaluadorMemoria(String query, Map<String, HashMap<String, String>> hDatasets) {
+		this.query = query;
+		this.hDatasets = hDatasets;
+		numResources = new HashMap<String, Integer>();
+	}
+
+	/**
+	 * @param query      Código del concept buscado.
+	 * @param hDatasets  Mapa de datasets relacionados con el concept.
+	 * @param mResources Resources extraídos de cada dataset.
+	 */
+	public EvaluadorMemoria(String query, Map<String, HashMap<String, String>> hDatasets,
+			Map<String, List<Resource>> mResources) {
+		this(query, hDatasets);
+		// Los títulos se leen de los propios resources al recorrerlos, sin copiarlos a otra lista
+		this.mResources = mResources;
+		for (Map.Entry<String, List<Resource>> entradaResources : mResources.entrySet())
+			numResources.merge(entradaResources.getKey(), entradaResources.getValue().size(), Integer::sum);
+	}
+
+	/**
+	 * Registra los resources de un dataset. En memoria solo se guarda su número; los títulos se vuelcan al fichero
+	 * temporal, cada uno con su longitud en UTF-8 delante (-1 si no tiene).
+	 *
+	 * @param datasetID Id del dataset.
+	 * @param resources Resources extraídos del dataset.
+	 * @throws IOException Si no se puede escribir el fichero temporal.
+	 */
+	public void registrar(String datasetID, List<Resource> resources) throws IOException {
+		numResources.merge(datasetID, resources.size(), Integer::sum);
+		if (titulos == null) {
+			ficheroTitulos = File.createTempFile("titulos", ".tmp");
+			ficheroTitulos.deleteOnExit(); // Por si la ejecución termina antes de cerrar el evaluador
+			titulos = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(ficheroTitulos), 64 * 1024));
+		}
+		for (Resource resource : resources) {
+			if (resource.getTitle() == null) {
+				titulos.writeInt(-1);
+			} else {
+				final byte[] bytes = resource.getTitle().getBytes(StandardCharsets.UTF_8);
+				titulos.writeInt(bytes.length);
+				titulos.write(bytes);
+			}
+			numTitulos++;
+		}
+	}
+
+	/**
+	 * Borra el fichero temporal de los títulos, una vez escrito el documento JSON.
+	 */
+	public void cerrar() throws IOException {
+		if (titulos == null) return;
+		titulos.close();
+		ficheroTitulos.delete();
+	}
+
+	@Override
+	public String getQuery() {
+		return query;
+	}
+
+	@Override
+	public int getNumDatasets() {
+		return hDatasets.size();
+	}
+
+	/**
+	 * @return Ids de los datasets, en el orden en que {@link ConstructorCatalogoXML} los escribe.
+	 */
+	@Override
+	public Iterable<String> getDatasets() {
+		return hDatasets.keySet();
+	}
+
+	@Override
+	public int getNumResources(String idDataset) {
+		return numResources.getOrDefault(idDataset, 0);
+	}
+
+	/**
+	 * @return Títulos de los resources, en el orden en que se han registrado. Los registrados se leen del fichero
+	 *         temporal a medida que se recorren.
+	 */
+	@Override
+	public Iterable<String> getTitles() {
+		if (mResources != null)
+			return () -> mResources.values().stream().flatMap(List::stream).map(Resource::getTitle).iterator();
+		if (titulos == null) return Collections.emptyList();
+		try {
+			titulos.flush();
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+		return () -> new LectorTitulos();
+	}
+
+	/**
+	 * Recorre los títulos volcados al fichero temporal, y lo cierra al leer el último.
+	 */
+	private class LectorTitulos implements Iterator<String> {
+
+		private final DataInputStream entrada;
+		private int leidos;
+
+		private LectorTitulos() {
+			try {
+				entrada = new DataInputStream(new BufferedInputStream(new FileInputStream(ficheroTitulos), 64 * 1024));
+			} catch (IOException e) {
+				throw new UncheckedIOException(e);
+			}
+		}
+
+		@Override
+		public boolean hasNext() {
+			return leidos < numTitulos;
+		}
+
+		@Override
+		public String next() {
+			if (!hasNext()) throw new NoSuchElementException();
+			try {
+				final int longitud = entrada.readInt();
+				String titulo = null;
+				if (longitud >= 0) {
+					final byte[] bytes = new byte[longitud];
+					entrada.readFully(bytes);
+					titulo = new String(bytes, StandardCharsets.UTF_8);
+				}
+				if (++leidos == numTitulos) entrada.close();
+				return titulo;
+			} catch (IOException e) {
+				throw new UncheckedIOException(e);
+			}
+		}
+	}
+}
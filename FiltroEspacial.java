@@ -0,0 +1,97 @@
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.IntPredicate;
+
+/**
+ * Filtro de los resources extraídos según su georreferencia, resuelto con un {@link IndiceEspacial}. Hay tres tipos de
+ * consulta, con los parámetros separados por comas:
+ * <ul>
+ * <li>{@value #RECTANGULO}: <code>latMin,lonMin,latMax,lonMax</code>, los resources dentro del rectángulo,</li>
+ * <li>{@value #RADIO}: <code>lat,lon,metros</code>, los resources a como mucho esa distancia del punto,</li>
+ * <li>{@value #CERCANOS}: <code>lat,lon,k</code>, los k resources más cercanos al punto.</li>
+ * </ul>
+ * Los resources sin coordenadas nunca pasan el filtro.
+ *
+ * @author Adolfo Trocolí Naranjo, 09218364X, a.trocoli@alumnos.upm.es
+ *
+ */
+public class FiltroEspacial extends FiltroResources {
+
+	public static final String RECTANGULO = "rectangulo";
+	public static final String RADIO = "radio";
+	public static final String CERCANOS = "cercanos";
+	public static final List<String> TIPOS = Arrays.asList(RECTANGULO, RADIO, CERCANOS);
+
+	private final String tipo;
+	private final double[] parametros;
+
+	/**
+	 * @param tipo  Tipo de consulta: {@value #RECTANGULO}, {@value #RADIO} o {@value #CERCANOS}.
+	 * @param valor Parámetros de la consulta, separados por comas.
+	 * @throws IllegalArgumentException Si el tipo no existe o los parámetros no son válidos.
+	 */
+	public FiltroEspacial(String tipo, String valor) {
+		if (!TIPOS.contains(tipo)) throw new IllegalArgumentException("Consulta espacial desconocida: " + tipo);
+		final String[] partes = valor.split(",");
+		final int esperados = tipo.equals(RECTANGULO) ? 4 : 3;
+		if (partes.length != esperados)
+			throw new IllegalArgumentException(tipo + " requiere " + esperados + " números separados por comas");
+		parametros = new double[esperados];
+		for (int i = 0; i < esperados; i++) {
+			parametros[i] = leerCoordenada(partes[i]);
+			if (!Double.isFinite(parametros[i]))
+				throw new IllegalArgumentException(tipo + ": no es un número: " + partes[i]);
+		}
+		if (!tipo.equals(RECTANGULO) && (parametros[2] < 0 || tipo.equals(CERCANOS) && parametros[2] % 1 != 0))
+			throw new IllegalArgumentException(tipo + (tipo.equals(RADIO) ? ": el radio no puede ser negativo"
+					: ": el número de resources debe ser un entero no negativo"));
+		this.tipo = tipo;
+	}
+
+	@Override
+	protected int[] seleccionar(ResourcesIndexados resources, IntPredicate candidatos) {
+		return buscar(resources.getIndiceEspacial(), candidatos);
+	}
+
+	/**
+	 * @return Puntos del índice que cumplen la consulta.
+	 */
+	public int[] buscar(IndiceEspacial indice) {
+		return buscar(indice, null);
+	}
+
+	/**
+	 * @param candidatos Puntos entre los que se buscan los más cercanos, o null para todos. Las demás consultas pueden
+	 *                   devolver puntos que no son candidatos.
+	 */
+	private int[] buscar(IndiceEspacial indice, IntPredicate candidatos) {
+		if (tipo.equals(RECTANGULO))
+			return indice.buscarRectangulo(parametros[0], parametros[1], parametros[2], parametros[3]);
+		if (tipo.equals(RADIO)) return indice.buscarRadio(parametros[0], parametros[1], parametros[2]);
+		return indice.buscarCercanos(parametros[0], parametros[1], (int) Math.min(Integer.MAX_VALUE, parametros[2]),
+				candidatos);
+	}
+
+	/**
+	 * @return Número leído, o NaN si no lo es.
+	 */
+	static double leerCoordenada(String valor) {
+		if (valor == null || valor.isBlank()) return Double.NaN;
+		try {
+			return Double.parseDouble(valor.trim());
+		} catch (NumberFormatException e) {
+			return Double.NaN;
+		}
+	}
+
+	/**
+	 * @return Consulta con la forma <code>tipo=parámetros</code>.
+	 */
+	@Override
+	public String toString() {
+		final StringBuilder texto = new StringBuilder(tipo).append('=');
+		for (int i = 0; i < parametros.length; i++)
+			texto.append(i > 0 ? "," : "").append(parametros[i]);
+		return texto.toString();
+	}
+}
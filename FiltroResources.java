@@ -0,0 +1,93 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.BiFunction;
+import java.util.function.Function;
+import java.util.function.IntPredicate;
+
+/**
+ * Filtro de los resources extraídos que se aplica antes de escribir las salidas, como {@link FiltroEspacial} y
+ * {@link FiltroTemporal}. Cada filtro resuelve su consulta sobre un índice de {@link ResourcesIndexados}, que se crea
+ * una vez por conjunto de resources y se reutiliza en todas las consultas sobre él.
+ *
+ * @author Adolfo Trocolí Naranjo, 09218364X, a.trocoli@alumnos.upm.es
+ *
+ */
+public abstract class FiltroResources {
+
+	/**
+	 * @param resources  Resources indexados.
+	 * @param candidatos Posiciones que han pasado los filtros anteriores.
+	 * @return Posiciones en la lista de los resources que pasan el filtro, en cualquier orden. Puede incluir posiciones
+	 *         que no son candidatas, que se descartan; los filtros que eligen entre los resources, como el de los más
+	 *         cercanos, deben elegir solo entre las candidatas.
+	 */
+	protected abstract int[] seleccionar(ResourcesIndexados resources, IntPredicate candidatos);
+
+	/**
+	 * @param parametros Valor de cada tipo de consulta por su nombre, o null si no se ha indicado.
+	 * @return Filtros indicados, como mucho uno de cada clase. El temporal va antes que el espacial, de forma que los
+	 *         resources más cercanos a un punto se buscan entre los de la ventana de tiempo.
+	 * @throws IllegalArgumentException Si se indican dos consultas de la misma clase o alguna no es válida.
+	 */
+	public static List<FiltroResources> crear(Function<String, String> parametros) {
+		final List<FiltroResources> filtros = new ArrayList<FiltroResources>();
+		añadir(filtros, parametros, FiltroTemporal.TIPOS, FiltroTemporal::new);
+		añadir(filtros, parametros, FiltroEspacial.TIPOS, FiltroEspacial::new);
+		return filtros;
+	}
+
+	/**
+	 * Añade el filtro de la única consulta indicada de entre los tipos dados, si la hay.
+	 */
+	private static void añadir(List<FiltroResources> filtros, Function<String, String> parametros, List<String> tipos,
+			BiFunction<String, String, FiltroResources> constructor) {
+		String tipo = null;
+		for (String candidato : tipos)
+			if (parametros.apply(candidato) != null) {
+				if (tipo != null) throw new IllegalArgumentException(String.join(", --", tipos) + " son incompatibles");
+				tipo = candidato;
+			}
+		if (tipo != null) filtros.add(constructor.apply(tipo, parametros.apply(tipo)));
+	}
+
+	/**
+	 * @param filtros Filtros a aplicar, en orden.
+	 * @return Resources de cada dataset que pasan todos los filtros, en el mismo orden. Los datasets se mantienen
+	 *         aunque no quede ninguno de sus resources.
+	 */
+	public static Map<String, List<Resource>> filtrar(List<FiltroResources> filtros,
+			Map<String, List<Resource>> mResources) {
+		return filtros.isEmpty() ? mResources : filtrar(filtros, new ResourcesIndexados(mResources));
+	}
+
+	/**
+	 * @param filtros   Filtros a aplicar, en orden.
+	 * @param resources Resources indexados, cuyos índices se reutilizan entre llamadas.
+	 * @return Resources de cada dataset que pasan todos los filtros, en el mismo orden. Los datasets se mantienen
+	 *         aunque no quede ninguno de sus resources.
+	 */
+	public static Map<String, List<Resource>> filtrar(List<FiltroResources> filtros, ResourcesIndexados resources) {
+		if (filtros.isEmpty()) return resources.getResources();
+		boolean[] seleccionados = new boolean[resources.getLista().size()];
+		Arrays.fill(seleccionados, true);
+		for (FiltroResources filtro : filtros) {
+			final boolean[] candidatos = seleccionados;
+			seleccionados = new boolean[candidatos.length];
+			for (int i : filtro.seleccionar(resources, posicion -> candidatos[posicion]))
+				seleccionados[i] = candidatos[i];
+		}
+
+		final Map<String, List<Resource>> filtrados = new LinkedHashMap<String, List<Resource>>();
+		int i = 0;
+		for (Map.Entry<String, List<Resource>> entrada : resources.getResources().entrySet()) {
+			final List<Resource> lista = new ArrayList<Resource>();
+			for (Resource resource : entrada.getValue())
+				if (seleccionados[i++]) lista.add(resource);
+			filtrados.put(entrada.getKey(), lista);
+		}
+		return filtrados;
+	}
+}
@@ -0,0 +1,86 @@
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.IntPredicate;
+
+/**
+ * Filtro de los resources extraídos según sus fechas dtstart y dtend, resuelto con un {@link IndiceIntervalos}. La
+ * consulta es una ventana <code>desde,hasta</code>, con los extremos incluidos, y hay tres tipos:
+ * <ul>
+ * <li>{@value #DURANTE}: los resources que tienen lugar en algún momento de la ventana,</li>
+ * <li>{@value #DENTRO}: los resources que empiezan y terminan dentro de la ventana,</li>
+ * <li>{@value #ABARCA}: los resources que empiezan antes de la ventana y terminan después.</li>
+ * </ul>
+ * Los extremos se escriben como las fechas de los datasets, con espacio o "T" entre la fecha y la hora, y pueden
+ * omitir los segundos o la hora entera (<code>2024-05-01</code> es <code>2024-05-01 00:00:00</code>). Los resources
+ * sin dtstart nunca pasan el filtro, y los que no tienen dtend se toman como un instante en su dtstart.
+ *
+ * @author Adolfo Trocolí Naranjo, 09218364X, a.trocoli@alumnos.upm.es
+ *
+ */
+public class FiltroTemporal extends FiltroResources {
+
+	public static final String DURANTE = "durante";
+	public static final String DENTRO = "dentro";
+	public static final String ABARCA = "abarca";
+	public static final List<String> TIPOS = Arrays.asList(DURANTE, DENTRO, ABARCA);
+
+	private final String tipo;
+	private final long desde, hasta;
+
+	/**
+	 * @param tipo  Tipo de consulta: {@value #DURANTE}, {@value #DENTRO} o {@value #ABARCA}.
+	 * @param valor Inicio y fin de la ventana, separados por una coma.
+	 * @throws IllegalArgumentException Si el tipo no existe o la ventana no es válida.
+	 */
+	public FiltroTemporal(String tipo, String valor) {
+		if (!TIPOS.contains(tipo)) throw new IllegalArgumentException("Consulta temporal desconocida: " + tipo);
+		final String[] partes = valor.split(",");
+		if (partes.length != 2)
+			throw new IllegalArgumentException(tipo + " requiere dos fechas separadas por una coma");
+		desde = leerInstante(tipo, partes[0]);
+		hasta = leerInstante(tipo, partes[1]);
+		if (desde > hasta) throw new IllegalArgumentException(tipo + ": la ventana termina antes de empezar");
+		this.tipo = tipo;
+	}
+
+	@Override
+	protected int[] seleccionar(ResourcesIndexados resources, IntPredicate candidatos) {
+		return buscar(resources.getIndiceIntervalos());
+	}
+
+	/**
+	 * @return Intervalos del índice que cumplen la consulta.
+	 */
+	public int[] buscar(IndiceIntervalos indice) {
+		if (tipo.equals(DURANTE)) return indice.buscarSolapados(desde, hasta);
+		if (tipo.equals(DENTRO)) return indice.buscarContenidos(desde, hasta);
+		return indice.buscarContenedores(desde, hasta);
+	}
+
+	/**
+	 * Completa la hora o los segundos que falten y lee la fecha como las de los datasets.
+	 */
+	private static long leerInstante(String tipo, String valor) {
+		String fecha = valor.trim().replace('T', ' ');
+		if (fecha.indexOf(' ') < 0) fecha += " 0:0:0";
+		else if (fecha.indexOf(':') == fecha.lastIndexOf(':')) fecha += ":0";
+		final long instante = Resource.leerFecha(fecha);
+		if (instante == Resource.SIN_FECHA) throw new IllegalArgumentException(tipo + ": no es una fecha: " + valor);
+		return instante;
+	}
+
+	/**
+	 * @return Consulta con la forma <code>tipo=desde,hasta</code>.
+	 */
+	@Override
+	public String toString() {
+		return tipo + "=" + formatear(desde) + "," + formatear(hasta);
+	}
+
+	private static LocalDateTime formatear(long instante) {
+		return LocalDateTime.ofEpochSecond(Math.floorDiv(instante, 1000L),
+				(int) Math.floorMod(instante, 1000L) * 1000000, ZoneOffset.UTC);
+	}
+}
@@ -0,0 +1,203 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Índice compacto del árbol de <code>concepts</code> del catálogo. Se construye durante el escaneo del documento y
+ * guarda cada <code>concept</code> como un entero: la URI se interna una sola vez y la jerarquía se representa con
+ * arrays de enteros (padre, primer hijo y siguiente hermano).
+ * <br>
+ * Cada nodo se etiqueta además con su orden de entrada (preorden) y de salida (postorden), de forma que comprobar si un
+ * concept es descendiente de otro se reduce a comparar dos intervalos de enteros.
+ *
+ * @author Adolfo Trocolí Naranjo, 09218364X, a.trocoli@alumnos.upm.es
+ *
+ */
+public class IndiceConceptos {
+
+	private static final int CAPACIDAD_INICIAL = 256;
+
+	// URI interna -> identificador del nodo, y código -> identificador del nodo
+	private final Map<String, Integer> ids;
+	private final Map<String, Integer> codigos;
+
+	// Información de cada nodo, indexada por su identificador
+	private String[] uris;
+	private String[] labels;
+	private int[] padre, primerHijo, siguienteHermano, ultimoHijo, pre, post;
+
+	// Estado de la construcción
+	private int numConceptos, contadorPost;
+	private int[] pila;
+	private int cima;
+
+	public IndiceConceptos() {
+		ids = new HashMap<String, Integer>();
+		codigos = new HashMap<String, Integer>();
+		uris = new String[CAPACIDAD_INICIAL];
+		labels = new String[CAPACIDAD_INICIAL];
+		padre = new int[CAPACIDAD_INICIAL];
+		primerHijo = new int[CAPACIDAD_INICIAL];
+		siguienteHermano = new int[CAPACIDAD_INICIAL];
+		ultimoHijo = new int[CAPACIDAD_INICIAL];
+		pre = new int[CAPACIDAD_INICIAL];
+		post = new int[CAPACIDAD_INICIAL];
+		pila = new int[16];
+		cima = -1;
+	}
+
+	/**
+	 * Registra el comienzo de un elemento <code>concept</code> como hijo del concept abierto actualmente.
+	 *
+	 * @param uri Valor del atributo id del concept.
+	 * @return Identificador asignado al nodo.
+	 */
+	public int abrirConcepto(String uri) {
+		asegurarCapacidad();
+		final int nodo = numConceptos++;
+		final int nodoPadre = cima >= 0 ? pila[cima] : -1;
+		uris[nodo] = uri;
+		padre[nodo] = nodoPadre;
+		primerHijo[nodo] = -1;
+		siguienteHermano[nodo] = -1;
+		ultimoHijo[nodo] = -1;
+		pre[nodo] = nodo; // Los nodos se numeran en el orden en que aparecen en el documento
+		post[nodo] = -1;
+		if (nodoPadre >= 0) {
+			if (primerHijo[nodoPadre] < 0) primerHijo[nodoPadre] = nodo;
+			else siguienteHermano[ultimoHijo[nodoPadre]] = nodo;
+			ultimoHijo[nodoPadre] = nodo;
+		}
+		ids.putIfAbsent(uri, nodo);
+		if (++cima == pila.length) pila = Arrays.copyOf(pila, pila.length * 2);
+		pila[cima] = nodo;
+		return nodo;
+	}
+
+	/**
+	 * Registra el final del elemento <code>concept</code> abierto actualmente.
+	 */
+	public void cerrarConcepto() {
+		if (cima < 0) return;
+		post[pila[cima--]] = contadorPost++;
+	}
+
+	/**
+	 * Asocia un código al concept abierto actualmente. Si el código ya estaba registrado se conserva la primera
+	 * aparición.
+	 *
+	 * @param codigo Valor del elemento code.
+	 */
+	public void asignarCodigo(String codigo) {
+		if (cima >= 0) codigos.putIfAbsent(codigo, pila[cima]);
+	}
+
+	/**
+	 * Asocia una etiqueta al concept abierto actualmente.
+	 *
+	 * @param label Valor del elemento label.
+	 */
+	public void asignarLabel(String label) {
+		if (cima >= 0) labels[pila[cima]] = label;
+	}
+
+	/**
+	 * @param codigo Código a buscar.
+	 * @return Identificador del concept con ese código, o -1 si no existe.
+	 */
+	public int buscarCodigo(String codigo) {
+		Integer nodo = codigos.get(codigo);
+		return nodo == null ? -1 : nodo;
+	}
+
+	/**
+	 * @param uri URI a buscar.
+	 * @return Identificador del concept con esa URI, o -1 si no existe.
+	 */
+	public int buscar(String uri) {
+		Integer nodo = ids.get(uri);
+		return nodo == null ? -1 : nodo;
+	}
+
+	/**
+	 * Comprueba si un nodo pertenece al subárbol de otro (incluido él mismo) comparando sus intervalos de
+	 * preorden/postorden.
+	 *
+	 * @param nodo Nodo a comprobar.
+	 * @param raiz Raíz del subárbol.
+	 * @return true si nodo es raiz o uno de sus descendientes.
+	 */
+	public boolean esDescendiente(int nodo, int raiz) {
+		if (nodo < 0 || raiz < 0) return false;
+		return pre[nodo] >= pre[raiz] && post[nodo] <= post[raiz];
+	}
+
+	/**
+	 * Igual que {@link #esDescendiente(int, int)} pero a partir de la URI del concept.
+	 */
+	public boolean esDescendiente(String uri, int raiz) {
+		return esDescendiente(buscar(uri), raiz);
+	}
+
+	/**
+	 * Devuelve las URIs del subárbol de un nodo en orden de documento, empezando por el propio nodo. Como los nodos se
+	 * numeran en preorden, el subárbol ocupa un rango contiguo de identificadores.
+	 *
+	 * @param raiz Raíz del subárbol.
+	 * @return Lista de URIs (vacía si raiz es -1).
+	 */
+	public List<String> getSubarbol(int raiz) {
+		List<String> subarbol = new ArrayList<String>();
+		if (raiz < 0) return subarbol;
+		for (int nodo = raiz; nodo < numConceptos && esDescendiente(nodo, raiz); nodo++)
+			subarbol.add(uris[nodo]);
+		return subarbol;
+	}
+
+	public String getUri(int nodo) {
+		return uris[nodo];
+	}
+
+	public String getLabel(int nodo) {
+		return labels[nodo];
+	}
+
+	public int getPadre(int nodo) {
+		return padre[nodo];
+	}
+
+	public int getPrimerHijo(int nodo) {
+		return primerHijo[nodo];
+	}
+
+	public int getSiguienteHermano(int nodo) {
+		return siguienteHermano[nodo];
+	}
+
+	public int getNumConceptos() {
+		return numConceptos;
+	}
+
+	/**
+	 * @return Código -> identificador del concept con ese código, sin modificar.
+	 */
+	public Map<String, Integer> getCodigos() {
+		return Collections.unmodifiableMap(codigos);
+	}
+
+	private void asegurarCapacidad() {
+		if (numConceptos < uris.length) return;
+		final int capacidad = uris.length * 2;
+		uris = Arrays.copyOf(uris, capacidad);
+		labels = Arrays.copyOf(labels, capacidad);
+		padre = Arrays.copyOf(padre, capacidad);
+		primerHijo = Arrays.copyOf(primerHijo, capacidad);
+		siguienteHermano = Arrays.copyOf(siguienteHermano, capacidad);
+		ultimoHijo = Arrays.copyOf(ultimoHijo, capacidad);
+		pre = Arrays.copyOf(pre, capacidad);
+		post = Arrays.copyOf(post, capacidad);
+	}
+}
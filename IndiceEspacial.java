@@ -0,0 +1,226 @@
+import java.util.Arrays;
+import java.util.PriorityQueue;
+import java.util.function.IntPredicate;
+import java.util.stream.IntStream;
+
+/**
+ * Índice espacial en memoria de puntos con latitud y longitud, sobre una rejilla uniforme. Los puntos se ordenan por
+ * celda en arrays de <code>double</code> contiguos, de forma que cada consulta solo recorre las celdas que pueden tener
+ * resultados. Admite consultas por rectángulo, por radio y de los k puntos más cercanos; las distancias son las del
+ * círculo máximo (haversine) en metros.
+ * <br>
+ * Cada punto se identifica por su posición en los arrays con los que se crea el índice. Los puntos sin coordenadas
+ * (NaN) se ignoran.
+ *
+ * @author Adolfo Trocolí Naranjo, 09218364X, a.trocoli@alumnos.upm.es
+ *
+ */
+public class IndiceEspacial {
+
+	public static final double RADIO_TIERRA = 6371008.8; // Radio medio, en metros
+
+	private static final int PUNTOS_POR_CELDA = 4;
+
+	// Puntos ordenados por celda, y posición original de cada uno
+	private final double[] latitudes, longitudes;
+	private final int[] ids;
+	private final int[] inicioCeldas; // Primer punto de cada celda, y el total al final
+	private final int columnas, filas;
+	private final double latitudMinima, longitudMinima, altoCelda, anchoCelda;
+
+	/**
+	 * @param latitudes  Latitud de cada punto, en grados.
+	 * @param longitudes Longitud de cada punto, en grados.
+	 */
+	public IndiceEspacial(double[] latitudes, double[] longitudes) {
+		int n = 0;
+		double latMin = Double.POSITIVE_INFINITY, latMax = Double.NEGATIVE_INFINITY;
+		double lonMin = Double.POSITIVE_INFINITY, lonMax = Double.NEGATIVE_INFINITY;
+		for (int i = 0; i < latitudes.length; i++) {
+			if (!isValido(latitudes[i], longitudes[i])) continue;
+			n++;
+			latMin = Math.min(latMin, latitudes[i]);
+			latMax = Math.max(latMax, latitudes[i]);
+			lonMin = Math.min(lonMin, longitudes[i]);
+			lonMax = Math.max(lonMax, longitudes[i]);
+		}
+		if (n == 0) latMin = latMax = lonMin = lonMax = 0;
+
+		// Rejilla con unos PUNTOS_POR_CELDA puntos por celda y celdas aproximadamente cuadradas en grados
+		final int celdas = Math.max(1, n / PUNTOS_POR_CELDA);
+		final double ancho = lonMax - lonMin, alto = latMax - latMin;
+		if (ancho <= 0 && alto <= 0) columnas = 1;
+		else if (alto <= 0) columnas = celdas;
+		else if (ancho <= 0) columnas = 1;
+		else columnas = (int) Math.max(1, Math.min(celdas, Math.round(Math.sqrt(celdas * ancho / alto))));
+		filas = Math.max(1, celdas / columnas);
+		latitudMinima = latMin;
+		longitudMinima = lonMin;
+		altoCelda = alto > 0 ? alto / filas : 1;
+		anchoCelda = ancho > 0 ? ancho / columnas : 1;
+
+		// Ordenación por celda en dos pasadas (counting sort)
+		inicioCeldas = new int[columnas * filas + 1];
+		for (int i = 0; i < latitudes.length; i++)
+			if (isValido(latitudes[i], longitudes[i])) inicioCeldas[celda(latitudes[i], longitudes[i]) + 1]++;
+		for (int c = 0; c < columnas * filas; c++)
+			inicioCeldas[c + 1] += inicioCeldas[c];
+		final int[] siguiente = Arrays.copyOf(inicioCeldas, columnas * filas);
+		this.latitudes = new double[n];
+		this.longitudes = new double[n];
+		ids = new int[n];
+		for (int i = 0; i < latitudes.length; i++) {
+			if (!isValido(latitudes[i], longitudes[i])) continue;
+			final int posicion = siguiente[celda(latitudes[i], longitudes[i])]++;
+			this.latitudes[posicion] = latitudes[i];
+			this.longitudes[posicion] = longitudes[i];
+			ids[posicion] = i;
+		}
+	}
+
+	/**
+	 * @return Número de puntos con coordenadas.
+	 */
+	public int size() {
+		return ids.length;
+	}
+
+	/**
+	 * @return Puntos dentro del rectángulo, con los bordes incluidos, en ningún orden en particular.
+	 */
+	public int[] buscarRectangulo(double latMin, double lonMin, double latMax, double lonMax) {
+		final IntStream.Builder encontrados = IntStream.builder();
+		final int x0 = columna(lonMin), x1 = columna(lonMax), y0 = fila(latMin), y1 = fila(latMax);
+		for (int y = y0; y <= y1; y++)
+			for (int x = x0; x <= x1; x++)
+				for (int p = inicioCeldas[y * columnas + x]; p < inicioCeldas[y * columnas + x + 1]; p++)
+					if (latitudes[p] >= latMin && latitudes[p] <= latMax && longitudes[p] >= lonMin
+							&& longitudes[p] <= lonMax)
+						encontrados.add(ids[p]);
+		return encontrados.build().toArray();
+	}
+
+	/**
+	 * @return Puntos a como mucho <code>metros</code> del punto indicado, en ningún orden en particular.
+	 */
+	public int[] buscarRadio(double lat, double lon, double metros) {
+		final IntStream.Builder encontrados = IntStream.builder();
+		// Rectángulo que contiene el círculo; si el círculo llega a un polo abarca todas las longitudes
+		final double angulo = metros / RADIO_TIERRA;
+		final double dLat = Math.toDegrees(angulo);
+		final double cos = Math.cos(Math.toRadians(lat));
+		final double dLon = angulo >= Math.PI / 2 || Math.sin(angulo) >= cos ? 180
+				: Math.toDegrees(Math.asin(Math.sin(angulo) / cos));
+		final int x0 = columna(lon - dLon), x1 = columna(lon + dLon), y0 = fila(lat - dLat), y1 = fila(lat + dLat);
+		for (int y = y0; y <= y1; y++)
+			for (int x = x0; x <= x1; x++)
+				for (int p = inicioCeldas[y * columnas + x]; p < inicioCeldas[y * columnas + x + 1]; p++)
+					if (distancia(lat, lon, latitudes[p], longitudes[p]) <= metros) encontrados.add(ids[p]);
+		return encontrados.build().toArray();
+	}
+
+	/**
+	 * Busca los k puntos más cercanos recorriendo anillos de celdas cada vez más amplios alrededor del punto, hasta que
+	 * los puntos que quedan fuera de los anillos recorridos no pueden estar más cerca que el k-ésimo encontrado.
+	 *
+	 * @return Como mucho k puntos, del más cercano al más lejano.
+	 */
+	public int[] buscarCercanos(double lat, double lon, int k) {
+		return buscarCercanos(lat, lon, k, null);
+	}
+
+	/**
+	 * Como {@link #buscarCercanos(double, double, int)}, pero solo entre los puntos admitidos.
+	 *
+	 * @param admitidos Posiciones originales de los puntos que se pueden devolver, o null para todos.
+	 * @return Como mucho k puntos admitidos, del más cercano al más lejano.
+	 */
+	public int[] buscarCercanos(double lat, double lon, int k, IntPredicate admitidos) {
+		if (k <= 0 || ids.length == 0) return new int[0];
+		// Montículo de máximos con los mejores hasta ahora: {distancia, posición}
+		final PriorityQueue<double[]> mejores = new PriorityQueue<double[]>(k + 1,
+				(a, b) -> Double.compare(b[0], a[0]));
+		final int cx = columna(lon), cy = fila(lat);
+		for (int anillo = 0;; anillo++) {
+			final int x0 = cx - anillo, x1 = cx + anillo, y0 = cy - anillo, y1 = cy + anillo;
+			for (int y = Math.max(0, y0); y <= Math.min(filas - 1, y1); y++)
+				for (int x = Math.max(0, x0); x <= Math.min(columnas - 1, x1); x++) {
+					if (y != y0 && y != y1 && x != x0 && x != x1) continue; // Ya recorrida en un anillo anterior
+					for (int p = inicioCeldas[y * columnas + x]; p < inicioCeldas[y * columnas + x + 1]; p++) {
+						if (admitidos != null && !admitidos.test(ids[p])) continue;
+						final double d = distancia(lat, lon, latitudes[p], longitudes[p]);
+						if (mejores.size() < k) mejores.add(new double[] { d, p });
+						else if (d < mejores.peek()[0]) {
+							mejores.poll();
+							mejores.add(new double[] { d, p });
+						}
+					}
+				}
+			final boolean completa = x0 <= 0 && y0 <= 0 && x1 >= columnas - 1 && y1 >= filas - 1;
+			if (completa || mejores.size() == k && mejores.peek()[0] <= distanciaFuera(lat, lon, x0, x1, y0, y1))
+				break;
+		}
+		final int[] cercanos = new int[mejores.size()];
+		for (int i = cercanos.length - 1; i >= 0; i--)
+			cercanos[i] = ids[(int) mejores.poll()[1]];
+		return cercanos;
+	}
+
+	/**
+	 * Cota inferior de la distancia desde el punto a cualquier punto fuera de las celdas [x0, x1] x [y0, y1]. Por
+	 * latitud es la distancia al paralelo del borde, y por longitud la distancia al círculo máximo del meridiano del
+	 * borde, que el camino más corto tiene que cruzar si el punto de destino está a menos de 180 grados de longitud. Los
+	 * bordes que coinciden con los de la rejilla no tienen puntos detrás.
+	 */
+	private double distanciaFuera(double lat, double lon, int x0, int x1, int y0, int y1) {
+		double cota = Double.POSITIVE_INFINITY;
+		final double phi = Math.toRadians(lat);
+		if (y0 > 0) cota = Math.min(cota, Math.max(0, Math.toRadians(lat - (latitudMinima + y0 * altoCelda))));
+		if (y1 < filas - 1)
+			cota = Math.min(cota, Math.max(0, Math.toRadians(latitudMinima + (y1 + 1) * altoCelda - lat)));
+		final double longitudMaxima = longitudMinima + columnas * anchoCelda;
+		if (x0 > 0) cota = Math.min(cota,
+				aMeridiano(phi, lon - (longitudMinima + x0 * anchoCelda), lon - longitudMinima));
+		if (x1 < columnas - 1) cota = Math.min(cota,
+				aMeridiano(phi, longitudMinima + (x1 + 1) * anchoCelda - lon, longitudMaxima - lon));
+		return cota * RADIO_TIERRA;
+	}
+
+	/**
+	 * @param phi     Latitud del punto, en radianes.
+	 * @param grados  Diferencia de longitud hasta el meridiano del borde.
+	 * @param alcance Diferencia de longitud hasta el punto más alejado en esa dirección.
+	 * @return Distancia angular mínima a los puntos más allá del meridiano, o 0 si no se puede acotar.
+	 */
+	private static double aMeridiano(double phi, double grados, double alcance) {
+		if (grados <= 0 || alcance > 180) return 0;
+		return Math.asin(Math.cos(phi) * Math.sin(Math.toRadians(grados)));
+	}
+
+	/**
+	 * @return Distancia en metros entre dos puntos, por el círculo máximo (fórmula del haversine).
+	 */
+	public static double distancia(double lat1, double lon1, double lat2, double lon2) {
+		final double dLat = Math.toRadians(lat2 - lat1);
+		final double dLon = Math.toRadians(lon2 - lon1);
+		final double a = Math.sin(dLat / 2) * Math.sin(dLat / 2) + Math.cos(Math.toRadians(lat1))
+				* Math.cos(Math.toRadians(lat2)) * Math.sin(dLon / 2) * Math.sin(dLon / 2);
+		return 2 * RADIO_TIERRA * Math.asin(Math.min(1, Math.sqrt(a)));
+	}
+
+	private int celda(double lat, double lon) {
+		return fila(lat) * columnas + columna(lon);
+	}
+
+	private int columna(double lon) {
+		return (int) Math.max(0, Math.min(columnas - 1, Math.floor((lon - longitudMinima) / anchoCelda)));
+	}
+
+	private int fila(double lat) {
+		return (int) Math.max(0, Math.min(filas - 1, Math.floor((lat - latitudMinima) / altoCelda)));
+	}
+
+	private static boolean isValido(double lat, double lon) {
+		return !Double.isNaN(lat) && !Double.isNaN(lon);
+	}
+}
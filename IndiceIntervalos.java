@@ -0,0 +1,169 @@
+import java.util.Arrays;
+import java.util.stream.IntStream;
+
+/**
+ * Índice en memoria de intervalos de tiempo [inicio, fin], con los extremos en milisegundos. Los intervalos se ordenan
+ * por su inicio en arrays de <code>long</code>, y sobre ese orden se guarda un árbol de segmentos implícito con el fin
+ * máximo y mínimo de cada rango. Una consulta busca en binario el rango de inicios que puede cumplirla y recorre
+ * solo las ramas del árbol cuyo fin máximo o mínimo admite algún resultado, en O(log n) más O(log n) por resultado:
+ * <ul>
+ * <li>{@link #buscarSolapados}: intervalos que tienen algún instante dentro de la ventana,</li>
+ * <li>{@link #buscarContenidos}: intervalos que están enteros dentro de la ventana,</li>
+ * <li>{@link #buscarContenedores}: intervalos que abarcan la ventana entera.</li>
+ * </ul>
+ * Todos los extremos se incluyen. Cada intervalo se identifica por su posición en los arrays con los que se crea el
+ * índice. Los intervalos sin inicio ({@link Resource#SIN_FECHA}) se ignoran, y los que no tienen fin o lo tienen antes
+ * del inicio se toman como un instante en su inicio.
+ *
+ * @author Adolfo Trocolí Naranjo, 09218364X, a.trocoli@alumnos.upm.es
+ *
+ */
+public class IndiceIntervalos {
+
+	// Intervalos ordenados por inicio, y posición original de cada uno
+	private final long[] inicios;
+	private final int[] ids;
+	// Árbol de segmentos sobre el orden anterior: el nodo 1 es la raíz y los hijos de n son 2n y 2n+1
+	private final long[] finMaximo, finMinimo;
+	private final int hojas;
+
+	/**
+	 * @param inicios Inicio de cada intervalo, en milisegundos.
+	 * @param fines   Fin de cada intervalo, en milisegundos.
+	 */
+	public IndiceIntervalos(long[] inicios, long[] fines) {
+		final int[] orden = ordenar(IntStream.range(0, inicios.length).filter(i -> inicios[i] != Resource.SIN_FECHA)
+				.toArray(), inicios);
+		final int n = orden.length;
+		int potencia = 1;
+		while (potencia < n)
+			potencia *= 2;
+		hojas = potencia;
+		finMaximo = new long[2 * hojas];
+		finMinimo = new long[2 * hojas];
+		Arrays.fill(finMaximo, Long.MIN_VALUE);
+		Arrays.fill(finMinimo, Long.MAX_VALUE);
+
+		// Las hojas son los fines de los intervalos, y cada nodo interno resume los de sus hijos
+		this.inicios = new long[n];
+		ids = new int[n];
+		for (int i = 0; i < n; i++) {
+			ids[i] = orden[i];
+			this.inicios[i] = inicios[ids[i]];
+			finMaximo[hojas + i] = finMinimo[hojas + i] = Math.max(this.inicios[i], fines[ids[i]]);
+		}
+		for (int nodo = hojas - 1; nodo >= 1; nodo--) {
+			finMaximo[nodo] = Math.max(finMaximo[2 * nodo], finMaximo[2 * nodo + 1]);
+			finMinimo[nodo] = Math.min(finMinimo[2 * nodo], finMinimo[2 * nodo + 1]);
+		}
+	}
+
+	/**
+	 * @return Número de intervalos con inicio.
+	 */
+	public int size() {
+		return ids.length;
+	}
+
+	/**
+	 * @return Intervalos con inicio &lt;= hasta y fin &gt;= desde, en ningún orden en particular.
+	 */
+	public int[] buscarSolapados(long desde, long hasta) {
+		final IntStream.Builder encontrados = IntStream.builder();
+		recogerFinDesde(1, 0, hojas, 0, posicion(hasta, true), desde, encontrados);
+		return encontrados.build().toArray();
+	}
+
+	/**
+	 * @return Intervalos con inicio &gt;= desde y fin &lt;= hasta, en ningún orden en particular.
+	 */
+	public int[] buscarContenidos(long desde, long hasta) {
+		final IntStream.Builder encontrados = IntStream.builder();
+		recogerFinHasta(1, 0, hojas, posicion(desde, false), posicion(hasta, true), hasta, encontrados);
+		return encontrados.build().toArray();
+	}
+
+	/**
+	 * @return Intervalos con inicio &lt;= desde y fin &gt;= hasta, en ningún orden en particular.
+	 */
+	public int[] buscarContenedores(long desde, long hasta) {
+		final IntStream.Builder encontrados = IntStream.builder();
+		recogerFinDesde(1, 0, hojas, 0, posicion(desde, true), hasta, encontrados);
+		return encontrados.build().toArray();
+	}
+
+	/**
+	 * Recoge los intervalos de las posiciones [primero, ultimo) con fin &gt;= limite, descartando las ramas cuyo fin
+	 * máximo no llega al límite.
+	 *
+	 * @param nodo Nodo del árbol, que cubre las posiciones [izquierda, derecha).
+	 */
+	private void recogerFinDesde(int nodo, int izquierda, int derecha, int primero, int ultimo, long limite,
+			IntStream.Builder encontrados) {
+		if (derecha <= primero || izquierda >= ultimo || finMaximo[nodo] < limite) return;
+		if (derecha - izquierda == 1) {
+			encontrados.add(ids[izquierda]);
+			return;
+		}
+		final int medio = (izquierda + derecha) / 2;
+		recogerFinDesde(2 * nodo, izquierda, medio, primero, ultimo, limite, encontrados);
+		recogerFinDesde(2 * nodo + 1, medio, derecha, primero, ultimo, limite, encontrados);
+	}
+
+	/**
+	 * Recoge los intervalos de las posiciones [primero, ultimo) con fin &lt;= limite, descartando las ramas cuyo fin
+	 * mínimo pasa del límite.
+	 *
+	 * @param nodo Nodo del árbol, que cubre las posiciones [izquierda, derecha).
+	 */
+	private void recogerFinHasta(int nodo, int izquierda, int derecha, int primero, int ultimo, long limite,
+			IntStream.Builder encontrados) {
+		if (derecha <= primero || izquierda >= ultimo || finMinimo[nodo] > limite) return;
+		if (derecha - izquierda == 1) {
+			encontrados.add(ids[izquierda]);
+			return;
+		}
+		final int medio = (izquierda + derecha) / 2;
+		recogerFinHasta(2 * nodo, izquierda, medio, primero, ultimo, limite, encontrados);
+		recogerFinHasta(2 * nodo + 1, medio, derecha, primero, ultimo, limite, encontrados);
+	}
+
+	/**
+	 * Ordena las posiciones por el inicio de sus intervalos, por mezcla de abajo arriba y sin objetos intermedios. La
+	 * ordenación es estable: los intervalos con el mismo inicio mantienen su orden original.
+	 *
+	 * @return Posiciones ordenadas, que pueden estar en el mismo array.
+	 */
+	private static int[] ordenar(int[] posiciones, long[] inicios) {
+		int[] origen = posiciones, destino = new int[posiciones.length];
+		for (int ancho = 1; ancho < origen.length; ancho *= 2) {
+			for (int izquierda = 0; izquierda < origen.length; izquierda += 2 * ancho) {
+				final int medio = Math.min(izquierda + ancho, origen.length);
+				final int derecha = Math.min(izquierda + 2 * ancho, origen.length);
+				int i = izquierda, j = medio;
+				for (int k = izquierda; k < derecha; k++)
+					destino[k] = j >= derecha || i < medio && inicios[origen[i]] <= inicios[origen[j]] ? origen[i++]
+							: origen[j++];
+			}
+			final int[] intercambio = origen;
+			origen = destino;
+			destino = intercambio;
+		}
+		return origen;
+	}
+
+	/**
+	 * @param iguales Saltar también los intervalos que empiezan en el instante.
+	 * @return Primera posición con inicio posterior al instante indicado (o igual, si no se saltan), o el número de
+	 *         intervalos si no hay ninguna.
+	 */
+	private int posicion(long instante, boolean iguales) {
+		int izquierda = 0, derecha = inicios.length;
+		while (izquierda < derecha) {
+			final int medio = (izquierda + derecha) >>> 1;
+			if (inicios[medio] < instante || iguales && inicios[medio] == instante) izquierda = medio + 1;
+			else derecha = medio;
+		}
+		return izquierda;
+	}
+}
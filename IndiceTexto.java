@@ -0,0 +1,397 @@
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.text.Normalizer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+
+/**
+ * Índice invertido del texto de los datasets y resources extraídos, guardado en un fichero que se consulta
+ * proyectándolo en memoria. Cada dataset (título y descripción del catálogo) y cada resource (title y description del
+ * JSON-LD) es un documento, y las búsquedas devuelven los documentos ordenados por su puntuación BM25.
+ * <br>
+ * El texto se divide en palabras por los caracteres que no son letras ni dígitos, se pasa a minúsculas y se le quitan
+ * los acentos y la diéresis, pero no la tilde de la ñ. Se descartan las palabras vacías más frecuentes del español y
+ * las palabras restantes se reducen con un lematizador ligero (el de J. Savoy): se quitan la vocal final y las marcas
+ * de plural, de forma que "actividad" y "actividades" o "luz" y "luces" coinciden.
+ * <br>
+ * Tras una cabecera con el número de documentos y de términos y la posición de cada sección, el fichero guarda la
+ * longitud, el tipo, el dataset, el link y el título de cada documento, los términos ordenados (listas de cadenas
+ * como en {@link ColumnasResources}), el número de documentos y la posición de la lista de cada término, y las listas.
+ * Cada lista tiene, por cada documento que contiene el término, la diferencia con el documento anterior y el número
+ * de apariciones, con longitud variable (7 bits por byte).
+ *
+ * @author Adolfo Trocolí Naranjo, 09218364X, a.trocoli@alumnos.upm.es
+ *
+ */
+public class IndiceTexto {
+
+	public static final int VERSION = 1;
+	public static final byte TIPO_DATASET = 0, TIPO_RESOURCE = 1;
+
+	private static final int MAGICO = 0x50354954; // "P5IT"
+	private static final int CABECERA = 56;
+	private static final double K1 = 1.2, B = 0.75; // Parámetros habituales de BM25
+
+	private static final Locale ESPAÑOL = new Locale("es");
+	private static final Set<String> VACIAS = new HashSet<String>(Arrays.asList("al", "ante", "como", "con", "contra",
+			"de", "del", "desde", "el", "en", "entre", "es", "esta", "este", "esto", "fue", "ha", "hay", "hasta", "la",
+			"las", "le", "les", "lo", "los", "mas", "muy", "ni", "no", "para", "pero", "por", "que", "se", "ser", "si",
+			"sin", "sobre", "son", "su", "sus", "te", "tu", "un", "una", "unas", "uno", "unos", "ya", "yo"));
+	// Cada carácter del alfabeto latino (hasta U+024F) en minúscula y sin acentos
+	private static final char[] PLEGADO = new char[0x250];
+
+	static {
+		for (char c = 0; c < PLEGADO.length; c++) {
+			final String minuscula = String.valueOf(c).toLowerCase(ESPAÑOL);
+			PLEGADO[c] = minuscula.length() != 1 ? c
+					: minuscula.charAt(0) == 'ñ' ? 'ñ' : Normalizer.normalize(minuscula, Normalizer.Form.NFD).charAt(0);
+		}
+	}
+
+	/**
+	 * Documento encontrado por una búsqueda.
+	 */
+	public static class Resultado {
+		private final byte tipo;
+		private final String dataset, link, titulo;
+		private final double puntuacion;
+
+		private Resultado(byte tipo, String dataset, String link, String titulo, double puntuacion) {
+			this.tipo = tipo;
+			this.dataset = dataset;
+			this.link = link;
+			this.titulo = titulo;
+			this.puntuacion = puntuacion;
+		}
+
+		/**
+		 * @return {@link IndiceTexto#TIPO_DATASET} o {@link IndiceTexto#TIPO_RESOURCE}.
+		 */
+		public byte getTipo() {
+			return tipo;
+		}
+
+		/**
+		 * @return Id del dataset, o del dataset del resource.
+		 */
+		public String getDataset() {
+			return dataset;
+		}
+
+		/**
+		 * @return Link del resource, o cadena vacía si es un dataset.
+		 */
+		public String getLink() {
+			return link;
+		}
+
+		public String getTitulo() {
+			return titulo;
+		}
+
+		public double getPuntuacion() {
+			return puntuacion;
+		}
+	}
+
+	// Fichero abierto
+	private final ByteBuffer buffer;
+	private final int numDocumentos, numTerminos;
+	private final double longitudMedia;
+	private final int longitudes, tipos, datasets, links, titulos, terminos, frecuencias, listas;
+
+	/**
+	 * Abre un índice proyectándolo en memoria. Solo se lee la cabecera; el resto se lee al buscar.
+	 *
+	 * @param fichero Fichero escrito con {@link #escribir}.
+	 */
+	public IndiceTexto(File fichero) throws IOException {
+		try (FileChannel canal = FileChannel.open(fichero.toPath(), StandardOpenOption.READ)) {
+			if (canal.size() > Integer.MAX_VALUE) throw new IOException("Fichero demasiado grande: " + fichero);
+			buffer = canal.map(FileChannel.MapMode.READ_ONLY, 0, canal.size());
+		}
+		if (buffer.capacity() < CABECERA || buffer.getInt(0) != MAGICO || buffer.getInt(4) != VERSION)
+			throw new IOException("No es un índice de texto de la versión " + VERSION + ": " + fichero);
+		numDocumentos = buffer.getInt(8);
+		numTerminos = buffer.getInt(12);
+		longitudMedia = numDocumentos == 0 ? 0 : (double) buffer.getLong(16) / numDocumentos;
+		longitudes = buffer.getInt(24);
+		tipos = buffer.getInt(28);
+		datasets = buffer.getInt(32);
+		links = buffer.getInt(36);
+		titulos = buffer.getInt(40);
+		terminos = buffer.getInt(44);
+		frecuencias = buffer.getInt(48);
+		listas = buffer.getInt(52);
+	}
+
+	public int getNumDocumentos() {
+		return numDocumentos;
+	}
+
+	public int getNumTerminos() {
+		return numTerminos;
+	}
+
+	/**
+	 * Busca los documentos que contienen alguno de los términos de la consulta.
+	 *
+	 * @param consulta Texto de la consulta, que se trata igual que el de los documentos.
+	 * @param maximo   Número máximo de resultados.
+	 * @return Documentos encontrados, de mayor a menor puntuación BM25.
+	 */
+	public List<Resultado> buscar(String consulta, int maximo) {
+		final double[] puntuaciones = new double[numDocumentos];
+		final ByteBuffer lista = buffer.duplicate();
+		for (String termino : new HashSet<String>(tokenizar(consulta))) {
+			final int t = buscarTermino(termino);
+			if (t < 0) continue;
+			final int documentos = buffer.getInt(frecuencias + 4 * t);
+			final double idf = Math.log(1 + (numDocumentos - documentos + 0.5) / (documentos + 0.5));
+			lista.limit(listas + buffer.getInt(frecuencias + 4 * (numTerminos + t + 1)));
+			lista.position(listas + buffer.getInt(frecuencias + 4 * (numTerminos + t)));
+			int documento = -1;
+			while (lista.hasRemaining()) {
+				documento += leerVariable(lista);
+				final int apariciones = leerVariable(lista);
+				final double normalizacion = K1
+						* (1 - B + B * buffer.getInt(longitudes + 4 * documento) / longitudMedia);
+				puntuaciones[documento] += idf * apariciones * (K1 + 1) / (apariciones + normalizacion);
+			}
+		}
+
+		// Montículo de mínimos con los mejores documentos; a igual puntuación va antes el primero del índice
+		final PriorityQueue<Integer> mejores = new PriorityQueue<Integer>(Math.max(1, maximo) + 1,
+				(a, b) -> puntuaciones[a] != puntuaciones[b] ? Double.compare(puntuaciones[a], puntuaciones[b])
+						: Integer.compare(b, a));
+		for (int documento = 0; documento < numDocumentos && maximo > 0; documento++) {
+			if (puntuaciones[documento] <= 0) continue;
+			mejores.add(documento);
+			if (mejores.size() > maximo) mejores.poll();
+		}
+		final Resultado[] resultados = new Resultado[mejores.size()];
+		for (int i = resultados.length - 1; i >= 0; i--) {
+			final int documento = mejores.poll();
+			resultados[i] = new Resultado(buffer.get(tipos + documento),
+					ColumnasResources.cadena(buffer, datasets, numDocumentos, documento),
+					ColumnasResources.cadena(buffer, links, numDocumentos, documento),
+					ColumnasResources.cadena(buffer, titulos, numDocumentos, documento), puntuaciones[documento]);
+		}
+		return Arrays.asList(resultados);
+	}
+
+	/**
+	 * @return Posición del término en el diccionario, por búsqueda binaria, o -1 si no está.
+	 */
+	private int buscarTermino(String termino) {
+		int izquierda = 0, derecha = numTerminos - 1;
+		while (izquierda <= derecha) {
+			final int medio = (izquierda + derecha) >>> 1;
+			final int comparacion = ColumnasResources.cadena(buffer, terminos, numTerminos, medio).compareTo(termino);
+			if (comparacion == 0) return medio;
+			if (comparacion < 0) izquierda = medio + 1;
+			else derecha = medio - 1;
+		}
+		return -1;
+	}
+
+	/**
+	 * Escribe el índice de los datasets y de sus resources. Cada dataset va seguido de sus resources.
+	 *
+	 * @param fichero    Fichero de salida.
+	 * @param hDatasets  Datasets, con su título y descripción.
+	 * @param mResources Resources de cada dataset.
+	 */
+	public static void escribir(File fichero, Map<String, HashMap<String, String>> hDatasets,
+			Map<String, List<Resource>> mResources) throws IOException {
+		final List<String> lDatasets = new ArrayList<String>(), lLinks = new ArrayList<String>(),
+				lTitulos = new ArrayList<String>();
+		final ByteArrayOutputStream tiposDocumentos = new ByteArrayOutputStream();
+		final List<Integer> lLongitudes = new ArrayList<Integer>();
+		// Por cada término, pares de documento y apariciones
+		final Map<String, int[]> postings = new HashMap<String, int[]>();
+		long longitudTotal = 0;
+		for (Map.Entry<String, HashMap<String, String>> dataset : hDatasets.entrySet()) {
+			final List<Resource> resources = mResources.getOrDefault(dataset.getKey(), new ArrayList<Resource>());
+			for (int r = -1; r < resources.size(); r++) {
+				final Resource resource = r < 0 ? null : resources.get(r);
+				final int documento = lDatasets.size();
+				lDatasets.add(dataset.getKey());
+				// Sin null, que codificarCadenas distingue de la cadena vacía
+				final String link = resource == null ? null : resource.getLink();
+				final String titulo = resource == null ? dataset.getValue().get("title") : resource.getTitle();
+				lLinks.add(link == null ? "" : link);
+				lTitulos.add(titulo == null ? "" : titulo);
+				tiposDocumentos.write(resource == null ? TIPO_DATASET : TIPO_RESOURCE);
+				final List<String> palabras = resource == null
+						? tokenizar(dataset.getValue().get("title"), dataset.getValue().get("description"))
+						: tokenizar(resource.getTitle(), resource.getDescription());
+				lLongitudes.add(palabras.size());
+				longitudTotal += palabras.size();
+				final Map<String, Integer> apariciones = new LinkedHashMap<String, Integer>();
+				for (String palabra : palabras)
+					apariciones.merge(palabra, 1, Integer::sum);
+				for (Map.Entry<String, Integer> termino : apariciones.entrySet()) {
+					// El primer elemento es el número de enteros usados
+					int[] lista = postings.computeIfAbsent(termino.getKey(), k -> new int[5]);
+					if (lista[0] + 3 > lista.length) {
+						lista = Arrays.copyOf(lista, 2 * lista.length);
+						postings.put(termino.getKey(), lista);
+					}
+					lista[++lista[0]] = documento;
+					lista[++lista[0]] = termino.getValue();
+				}
+			}
+		}
+
+		final String[] ordenados = postings.keySet().toArray(new String[0]);
+		Arrays.sort(ordenados);
+		final ByteArrayOutputStream codificadas = new ByteArrayOutputStream();
+		final int[] documentosTermino = new int[ordenados.length];
+		final int[] inicioListas = new int[ordenados.length + 1];
+		for (int t = 0; t < ordenados.length; t++) {
+			final int[] lista = postings.get(ordenados[t]);
+			documentosTermino[t] = lista[0] / 2;
+			inicioListas[t] = codificadas.size();
+			int anterior = -1;
+			for (int i = 1; i < lista[0]; i += 2) {
+				escribirVariable(codificadas, lista[i] - anterior);
+				escribirVariable(codificadas, lista[i + 1]);
+				anterior = lista[i];
+			}
+		}
+		inicioListas[ordenados.length] = codificadas.size();
+
+		final int numDocumentos = lDatasets.size();
+		final List<byte[]> secciones = new ArrayList<byte[]>();
+		final ByteBuffer bLongitudes = ByteBuffer.allocate(4 * numDocumentos);
+		for (int longitud : lLongitudes)
+			bLongitudes.putInt(longitud);
+		secciones.add(bLongitudes.array());
+		secciones.add(tiposDocumentos.toByteArray());
+		secciones.add(ColumnasResources.codificarCadenas(lDatasets.toArray(new String[0])));
+		secciones.add(ColumnasResources.codificarCadenas(lLinks.toArray(new String[0])));
+		secciones.add(ColumnasResources.codificarCadenas(lTitulos.toArray(new String[0])));
+		secciones.add(ColumnasResources.codificarCadenas(ordenados));
+		final ByteBuffer bFrecuencias = ByteBuffer.allocate(4 * (2 * ordenados.length + 1));
+		for (int documentos : documentosTermino)
+			bFrecuencias.putInt(documentos);
+		for (int inicio : inicioListas)
+			bFrecuencias.putInt(inicio);
+		secciones.add(bFrecuencias.array());
+		secciones.add(codificadas.toByteArray());
+
+		try (DataOutputStream salida = new DataOutputStream(
+				new BufferedOutputStream(new FileOutputStream(fichero), 256 * 1024))) {
+			salida.writeInt(MAGICO);
+			salida.writeInt(VERSION);
+			salida.writeInt(numDocumentos);
+			salida.writeInt(ordenados.length);
+			salida.writeLong(longitudTotal);
+			long posicion = CABECERA;
+			for (byte[] seccion : secciones) {
+				if (posicion > Integer.MAX_VALUE) throw new IOException("Demasiado texto para " + fichero);
+				salida.writeInt((int) posicion);
+				posicion += seccion.length;
+			}
+			for (byte[] seccion : secciones)
+				salida.write(seccion);
+		}
+	}
+
+	/**
+	 * @param textos Textos a dividir, que pueden ser null.
+	 * @return Términos de los textos, en orden y con repeticiones, tratados como se describe en la clase.
+	 */
+	public static List<String> tokenizar(String... textos) {
+		final List<String> terminos = new ArrayList<String>();
+		final StringBuilder palabra = new StringBuilder();
+		for (String texto : textos) {
+			if (texto == null) continue;
+			for (int i = 0; i <= texto.length(); i++) {
+				final char c = i < texto.length() ? texto.charAt(i) : ' ';
+				if (Character.isLetterOrDigit(c)) {
+					palabra.append(c < PLEGADO.length ? PLEGADO[c] : Character.toLowerCase(c));
+				} else if (palabra.length() > 0) {
+					final String termino = palabra.toString();
+					palabra.setLength(0);
+					if (termino.length() > 1 && !VACIAS.contains(termino)) terminos.add(lematizar(termino));
+				}
+			}
+		}
+		return terminos;
+	}
+
+	/**
+	 * Lematizador ligero de J. Savoy para el español: quita la vocal final y las marcas de plural de las palabras de
+	 * al menos cinco letras. Las palabras con dígitos no se tocan.
+	 */
+	private static String lematizar(String palabra) {
+		final int n = palabra.length();
+		if (n < 5) return palabra;
+		for (int i = 0; i < n; i++)
+			if (!Character.isLetter(palabra.charAt(i))) return palabra;
+		switch (palabra.charAt(n - 1)) {
+		case 'o':
+		case 'a':
+		case 'e':
+			return palabra.substring(0, n - 1);
+		case 's':
+			if (palabra.endsWith("eses")) return palabra.substring(0, n - 2);
+			if (palabra.endsWith("ces")) return palabra.substring(0, n - 3) + "z";
+			if ("oae".indexOf(palabra.charAt(n - 2)) >= 0) return palabra.substring(0, n - 2);
+		}
+		return palabra;
+	}
+
+	private static void escribirVariable(ByteArrayOutputStream salida, int valor) {
+		while (valor >= 0x80) {
+			salida.write(valor & 0x7F | 0x80);
+			valor >>>= 7;
+		}
+		salida.write(valor);
+	}
+
+	private static int leerVariable(ByteBuffer entrada) {
+		int valor = 0;
+		for (int desplazamiento = 0;; desplazamiento += 7) {
+			final byte b = entrada.get();
+			valor |= (b & 0x7F) << desplazamiento;
+			if (b >= 0) return valor;
+		}
+	}
+
+	/**
+	 * Busca en un índice y muestra los resultados: <code>IndiceTexto fichero consulta [máximo]</code>.
+	 */
+	public static void main(String[] args) throws IOException {
+		if (args.length < 2 || args.length > 3) {
+			System.err.println("Uso: IndiceTexto <fichero> <consulta> [máximoResultados]");
+			System.exit(1);
+		}
+		final long inicio = System.nanoTime();
+		final IndiceTexto indice = new IndiceTexto(new File(args[0]));
+		final List<Resultado> resultados = indice.buscar(args[1], args.length > 2 ? Integer.parseInt(args[2]) : 10);
+		final double milisegundos = (System.nanoTime() - inicio) / 1e6;
+		for (Resultado resultado : resultados)
+			System.out.printf("%.3f\t%s\t%s\t%s%n", resultado.getPuntuacion(), resultado.getTitulo(),
+					resultado.getDataset(), resultado.getLink());
+		System.err.printf("%d resultados de %d documentos en %.2f ms%n", resultados.size(),
+				indice.getNumDocumentos(), milisegundos);
+	}
+}
@@ -0,0 +1,447 @@
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.xml.parsers.ParserConfigurationException;
+
+import org.xml.sax.SAXException;
+
+/**
+ * Instantánea binaria del catálogo, que se genera una vez a partir del XML y se abre después proyectándola en memoria
+ * (<code>mmap</code>) para resolver los códigos sin volver a escanear el documento.
+ * <br>
+ * El fichero contiene, tras una cabecera con la versión del formato y el SHA-256, el tamaño y la fecha de modificación
+ * del catálogo del que procede:
+ * <ol>
+ * <li>un almacén de cadenas sin repetir, en UTF-8, con la posición de cada una,</li>
+ * <li>el árbol de concepts en columnas de enteros (URI, label y padre de cada nodo, en preorden),</li>
+ * <li>una tabla hash con direccionamiento abierto de código -> nodo,</li>
+ * <li>los datasets en columnas (id, title, description, theme y primer enlace) y sus enlaces a los nodos.</li>
+ * </ol>
+ * Al abrirla solo se decodifican las cadenas del árbol de concepts, que son necesarias para construir el
+ * {@link IndiceConceptos}, y las de los datasets que pertenecen a algún código buscado. Si el catálogo ha cambiado
+ * desde que se generó, o la instantánea es de otra versión del formato, se vuelve a generar automáticamente.
+ *
+ * @author Adolfo Trocolí Naranjo, 09218364X, a.trocoli@alumnos.upm.es
+ *
+ */
+public class InstantaneaCatalogo implements ParserCatalogoIndexado {
+
+	public static final String EXTENSION = ".instantanea";
+	public static final int VERSION = 1;
+
+	private static final int MAGICO = 0x50354349; // "P5CI"
+	private static final int LONGITUD_HASH = 64; // SHA-256 en hexadecimal
+
+	// Posición de cada campo de la cabecera; las secciones se indican con su posición en el fichero
+	private static final int POS_MAGICO = 0, POS_VERSION = 4, POS_HASH = 8, POS_TAMAÑO = POS_HASH + LONGITUD_HASH,
+			POS_MODIFICADO = POS_TAMAÑO + 8, POS_NUM_CADENAS = POS_MODIFICADO + 8,
+			POS_NUM_CONCEPTOS = POS_NUM_CADENAS + 4, POS_CAPACIDAD_CODIGOS = POS_NUM_CONCEPTOS + 4,
+			POS_NUM_DATASETS = POS_CAPACIDAD_CODIGOS + 4, POS_CADENAS = POS_NUM_DATASETS + 4,
+			POS_DATOS_CADENAS = POS_CADENAS + 4, POS_CONCEPTOS = POS_DATOS_CADENAS + 4,
+			POS_CODIGOS = POS_CONCEPTOS + 4, POS_DATASETS = POS_CODIGOS + 4, POS_ENLACES = POS_DATASETS + 4,
+			TAMAÑO_CABECERA = POS_ENLACES + 4;
+
+	// Columnas de las secciones de concepts y datasets
+	private static final int CONCEPTO_URI = 0, CONCEPTO_LABEL = 1, CONCEPTO_PADRE = 2;
+	private static final int DATASET_ID = 0, DATASET_TITLE = 1, DATASET_DESCRIPTION = 2, DATASET_THEME = 3,
+			DATASET_ENLACES = 4;
+
+	private final List<String> codigos;
+	private ConjuntoResultados resultados;
+	private IndiceConceptos indice;
+	private boolean regenerada;
+
+	// Instantánea abierta
+	private ByteBuffer buffer;
+	private int posCadenas, posDatosCadenas, posConceptos, posCodigos, posDatasets, posEnlaces;
+	private int numConceptos, capacidadCodigos, numDatasets;
+
+	/**
+	 * @param codigos códigos de las categorías a resolver
+	 */
+	public InstantaneaCatalogo(List<String> codigos) {
+		this.codigos = codigos;
+	}
+
+	/**
+	 * Abre la instantánea de un catálogo, generándola antes si no existe o no corresponde al catálogo actual, y
+	 * resuelve todos los códigos buscados.
+	 *
+	 * @param catalogo    Fichero del catálogo.
+	 * @param instantanea Fichero de la instantánea.
+	 */
+	public void abrir(File catalogo, File instantanea) throws ParserConfigurationException, SAXException, IOException {
+		if (!isActual(catalogo, instantanea)) {
+			System.out.println("Generando la instantánea " + instantanea);
+			generar(catalogo, instantanea);
+			regenerada = true;
+		}
+		try (FileChannel canal = FileChannel.open(instantanea.toPath(), StandardOpenOption.READ)) {
+			if (canal.size() > Integer.MAX_VALUE) throw new IOException("Instantánea demasiado grande: " + instantanea);
+			buffer = canal.map(FileChannel.MapMode.READ_ONLY, 0, canal.size()); // Sigue siendo válido al cerrar
+		}
+		if (buffer.capacity() < TAMAÑO_CABECERA || buffer.getInt(POS_MAGICO) != MAGICO
+				|| buffer.getInt(POS_VERSION) != VERSION)
+			throw new IOException("No es una instantánea del catálogo de la versión " + VERSION + ": " + instantanea);
+		posCadenas = buffer.getInt(POS_CADENAS);
+		posDatosCadenas = buffer.getInt(POS_DATOS_CADENAS);
+		posConceptos = buffer.getInt(POS_CONCEPTOS);
+		posCodigos = buffer.getInt(POS_CODIGOS);
+		posDatasets = buffer.getInt(POS_DATASETS);
+		posEnlaces = buffer.getInt(POS_ENLACES);
+		numConceptos = buffer.getInt(POS_NUM_CONCEPTOS);
+		capacidadCodigos = buffer.getInt(POS_CAPACIDAD_CODIGOS);
+		numDatasets = buffer.getInt(POS_NUM_DATASETS);
+		construirIndice();
+		resultados = new ConjuntoResultados(codigos);
+		resultados.resolver(indice);
+		if (resultados.hayCoincidencias()) buscarDatasets();
+	}
+
+	/**
+	 * @return true si la última llamada a {@link #abrir(File, File)} ha tenido que generar la instantánea.
+	 */
+	public boolean isRegenerada() {
+		return regenerada;
+	}
+
+	@Override
+	public String getLabel() {
+		return getResultados().get(0).getLabel();
+	}
+
+	@Override
+	public List<String> getConcepts() {
+		return getResultados().get(0).getConcepts();
+	}
+
+	@Override
+	public Map<String, HashMap<String, String>> getDatasets() {
+		return getResultados().get(0).getDatasets();
+	}
+
+	/**
+	 * El índice solo conoce los códigos buscados; el resto de la información del árbol está completa.
+	 */
+	@Override
+	public IndiceConceptos getIndice() {
+		return indice;
+	}
+
+	@Override
+	public List<ResultadoBusqueda> getResultados() {
+		return resultados.getResultados();
+	}
+
+	/**
+	 * Comprueba si la instantánea corresponde al catálogo. Si coinciden el tamaño y la fecha de modificación se da por
+	 * buena; si solo cambia la fecha se compara el SHA-256 del catálogo y, si es el mismo, se actualiza la fecha en la
+	 * instantánea para no tener que volver a calcularlo.
+	 *
+	 * @param catalogo    Fichero del catálogo.
+	 * @param instantanea Fichero de la instantánea.
+	 * @return true si la instantánea existe, es de la versión actual del formato y corresponde al catálogo.
+	 */
+	public static boolean isActual(File catalogo, File instantanea) throws IOException {
+		if (!instantanea.isFile()) return false;
+		final ByteBuffer cabecera = ByteBuffer.allocate(TAMAÑO_CABECERA);
+		try (FileChannel canal = FileChannel.open(instantanea.toPath(), StandardOpenOption.READ)) {
+			while (cabecera.hasRemaining() && canal.read(cabecera) >= 0)
+				;
+		}
+		if (cabecera.hasRemaining() || cabecera.getInt(POS_MAGICO) != MAGICO
+				|| cabecera.getInt(POS_VERSION) != VERSION)
+			return false;
+		final long modificado = catalogo.lastModified();
+		if (cabecera.getLong(POS_TAMAÑO) != catalogo.length()) return false;
+		if (cabecera.getLong(POS_MODIFICADO) == modificado) return true;
+		final byte[] hash = new byte[LONGITUD_HASH];
+		cabecera.position(POS_HASH).get(hash);
+		if (!new String(hash, StandardCharsets.US_ASCII).equals(resumir(catalogo))) return false;
+		try (FileChannel canal = FileChannel.open(instantanea.toPath(), StandardOpenOption.WRITE)) {
+			canal.write(ByteBuffer.allocate(8).putLong(modificado).flip(), POS_MODIFICADO);
+		} catch (IOException e) {
+			// Sin permiso de escritura se volverá a comparar el hash la próxima vez
+		}
+		return true;
+	}
+
+	/**
+	 * Escanea el catálogo completo y escribe su instantánea. Se escribe primero en un fichero temporal que después
+	 * sustituye al anterior, de forma que un proceso que esté leyendo la instantánea nunca ve un fichero a medias.
+	 *
+	 * @param catalogo    Fichero del catálogo.
+	 * @param instantanea Fichero de la instantánea.
+	 */
+	public static void generar(File catalogo, File instantanea)
+			throws ParserConfigurationException, SAXException, IOException {
+		final CatalogoResidente residente = CatalogoResidente.cargar(catalogo);
+		final IndiceConceptos indice = residente.getIndice();
+		final Map<String, HashMap<String, String>> hDatasets = residente.getDatasets();
+
+		// Almacén de cadenas: cada cadena distinta se guarda una sola vez
+		final Map<String, Integer> almacen = new LinkedHashMap<String, Integer>();
+		final List<byte[]> bytesCadenas = new ArrayList<byte[]>();
+		final int n = indice.getNumConceptos();
+		final int[] columnasConceptos = new int[3 * n];
+		for (int nodo = 0; nodo < n; nodo++) {
+			columnasConceptos[CONCEPTO_URI * n + nodo] = añadirCadena(almacen, bytesCadenas, indice.getUri(nodo));
+			columnasConceptos[CONCEPTO_LABEL * n + nodo] = añadirCadena(almacen, bytesCadenas, indice.getLabel(nodo));
+			columnasConceptos[CONCEPTO_PADRE * n + nodo] = indice.getPadre(nodo);
+		}
+
+		// Tabla de códigos con sondeo lineal y al menos la mitad de las posiciones libres
+		final int capacidad = Integer.highestOneBit(Math.max(1, indice.getCodigos().size()) * 2 - 1) << 1;
+		final int[] tablaCodigos = new int[2 * capacidad];
+		Arrays.fill(tablaCodigos, -1);
+		for (Map.Entry<String, Integer> codigo : indice.getCodigos().entrySet()) {
+			int posicion = posicion(codigo.getKey(), capacidad);
+			while (tablaCodigos[2 * posicion] >= 0)
+				posicion = (posicion + 1) & (capacidad - 1);
+			tablaCodigos[2 * posicion] = añadirCadena(almacen, bytesCadenas, codigo.getKey());
+			tablaCodigos[2 * posicion + 1] = codigo.getValue();
+		}
+
+		final int d = hDatasets.size();
+		final int[] columnasDatasets = new int[5 * d + 1];
+		final List<int[]> enlaces = new ArrayList<int[]>();
+		int i = 0, numEnlaces = 0;
+		for (Map.Entry<String, HashMap<String, String>> dataset : hDatasets.entrySet()) {
+			columnasDatasets[DATASET_ID * d + i] = añadirCadena(almacen, bytesCadenas, dataset.getKey());
+			columnasDatasets[DATASET_TITLE * d + i] = añadirCadena(almacen, bytesCadenas,
+					dataset.getValue().get("title"));
+			columnasDatasets[DATASET_DESCRIPTION * d + i] = añadirCadena(almacen, bytesCadenas,
+					dataset.getValue().get("description"));
+			columnasDatasets[DATASET_THEME * d + i] = añadirCadena(almacen, bytesCadenas,
+					dataset.getValue().get("theme"));
+			columnasDatasets[DATASET_ENLACES * d + i] = numEnlaces;
+			final int[] nodos = residente.getConceptsDataset(dataset.getKey());
+			enlaces.add(nodos);
+			numEnlaces += nodos.length;
+			i++;
+		}
+		columnasDatasets[DATASET_ENLACES * d + d] = numEnlaces; // Fin de los enlaces del último dataset
+
+		// Posición de cada sección
+		long longitudCadenas = 0;
+		for (byte[] cadena : bytesCadenas)
+			longitudCadenas += cadena.length;
+		final long posCadenas = TAMAÑO_CABECERA;
+		final long posDatosCadenas = posCadenas + 4L * (bytesCadenas.size() + 1);
+		final long posConceptos = alinear(posDatosCadenas + longitudCadenas);
+		final long posCodigos = posConceptos + 4L * columnasConceptos.length;
+		final long posDatasets = posCodigos + 4L * tablaCodigos.length;
+		final long posEnlaces = posDatasets + 4L * columnasDatasets.length;
+		if (posEnlaces + 4L * numEnlaces > Integer.MAX_VALUE)
+			throw new IOException("El catálogo es demasiado grande para generar una instantánea: " + catalogo);
+
+		final File temporal = new File(instantanea.getPath() + ".tmp");
+		try (DataOutputStream salida = new DataOutputStream(
+				new BufferedOutputStream(new FileOutputStream(temporal), 256 * 1024))) {
+			salida.writeInt(MAGICO);
+			salida.writeInt(VERSION);
+			salida.write(residente.getHash().getBytes(StandardCharsets.US_ASCII));
+			salida.writeLong(residente.getTamaño());
+			salida.writeLong(residente.getModificado());
+			salida.writeInt(bytesCadenas.size());
+			salida.writeInt(n);
+			salida.writeInt(capacidad);
+			salida.writeInt(d);
+			for (long posicion : new long[] { posCadenas, posDatosCadenas, posConceptos, posCodigos, posDatasets,
+					posEnlaces })
+				salida.writeInt((int) posicion);
+			int inicio = 0;
+			for (byte[] cadena : bytesCadenas) {
+				salida.writeInt(inicio);
+				inicio += cadena.length;
+			}
+			salida.writeInt(inicio);
+			for (byte[] cadena : bytesCadenas)
+				salida.write(cadena);
+			for (long relleno = posDatosCadenas + longitudCadenas; relleno < posConceptos; relleno++)
+				salida.writeByte(0);
+			escribir(salida, columnasConceptos);
+			escribir(salida, tablaCodigos);
+			escribir(salida, columnasDatasets);
+			for (int[] nodos : enlaces)
+				escribir(salida, nodos);
+		}
+		Files.move(temporal.toPath(), instantanea.toPath(), StandardCopyOption.REPLACE_EXISTING,
+				StandardCopyOption.ATOMIC_MOVE);
+	}
+
+	/**
+	 * Genera la instantánea de un catálogo: <code>InstantaneaCatalogo catalogo.xml [instantanea]</code>. Por defecto la
+	 * instantánea se guarda junto al catálogo con la extensión {@value #EXTENSION}.
+	 */
+	public static void main(String[] args) throws Exception {
+		if (args.length < 1 || args.length > 2) {
+			System.err.println("Uso: InstantaneaCatalogo <ficheroCatalogo> [ficheroInstantanea]");
+			System.exit(1);
+		}
+		final File catalogo = new File(args[0]);
+		final File instantanea = new File(args.length > 1 ? args[1] : args[0] + EXTENSION);
+		final long inicio = System.nanoTime();
+		generar(catalogo, instantanea);
+		System.out.printf("Instantánea %s generada en %.1f ms (%d bytes)%n", instantanea,
+				(System.nanoTime() - inicio) / 1e6, instantanea.length());
+	}
+
+	/**
+	 * Reconstruye el árbol de concepts recorriendo los nodos en preorden: antes de abrir cada nodo se cierran los
+	 * abiertos hasta llegar a su padre, igual que al escanear el documento. Solo se asignan los códigos buscados.
+	 */
+	private void construirIndice() {
+		final Map<Integer, List<String>> codigosNodo = new HashMap<Integer, List<String>>();
+		for (String codigo : codigos) {
+			final int nodo = buscarCodigo(codigo);
+			if (nodo >= 0) codigosNodo.computeIfAbsent(nodo, k -> new ArrayList<String>()).add(codigo);
+		}
+		indice = new IndiceConceptos();
+		int[] pila = new int[16];
+		int cima = -1;
+		for (int nodo = 0; nodo < numConceptos; nodo++) {
+			final int padre = columna(posConceptos, numConceptos, CONCEPTO_PADRE, nodo);
+			while (cima >= 0 && pila[cima] != padre) {
+				indice.cerrarConcepto();
+				cima--;
+			}
+			indice.abrirConcepto(cadena(columna(posConceptos, numConceptos, CONCEPTO_URI, nodo)));
+			final int label = columna(posConceptos, numConceptos, CONCEPTO_LABEL, nodo);
+			if (label >= 0) indice.asignarLabel(cadena(label));
+			for (String codigo : codigosNodo.getOrDefault(nodo, new ArrayList<String>()))
+				indice.asignarCodigo(codigo);
+			if (++cima == pila.length) pila = Arrays.copyOf(pila, pila.length * 2);
+			pila[cima] = nodo;
+		}
+		for (; cima >= 0; cima--)
+			indice.cerrarConcepto();
+	}
+
+	/**
+	 * Añade a cada resultado los datasets que se refieren a algún concept de su subárbol. Solo se decodifican las
+	 * cadenas de los datasets añadidos.
+	 */
+	private void buscarDatasets() {
+		final List<ResultadoBusqueda> encontrados = new ArrayList<ResultadoBusqueda>();
+		for (ResultadoBusqueda resultado : resultados.getResultados())
+			if (resultado.getRaiz() >= 0) encontrados.add(resultado);
+		for (int dataset = 0; dataset < numDatasets; dataset++) {
+			final int inicio = columna(posDatasets, numDatasets, DATASET_ENLACES, dataset);
+			final int fin = columna(posDatasets, numDatasets, DATASET_ENLACES, dataset + 1);
+			HashMap<String, String> informacion = null;
+			for (ResultadoBusqueda resultado : encontrados) {
+				boolean pertenece = false;
+				for (int enlace = inicio; enlace < fin && !pertenece; enlace++)
+					pertenece = indice.esDescendiente(buffer.getInt(posEnlaces + 4 * enlace), resultado.getRaiz());
+				if (!pertenece) continue;
+				if (informacion == null) {
+					informacion = new HashMap<String, String>();
+					informacion.put("title", cadena(columna(posDatasets, numDatasets, DATASET_TITLE, dataset)));
+					informacion.put("description",
+							cadena(columna(posDatasets, numDatasets, DATASET_DESCRIPTION, dataset)));
+					informacion.put("theme", cadena(columna(posDatasets, numDatasets, DATASET_THEME, dataset)));
+				}
+				resultado.añadirDataset(cadena(columna(posDatasets, numDatasets, DATASET_ID, dataset)), informacion);
+			}
+		}
+	}
+
+	/**
+	 * Busca un código en la tabla hash de la instantánea comparando directamente sus bytes.
+	 *
+	 * @return Nodo del concept con ese código, o -1 si no existe.
+	 */
+	private int buscarCodigo(String codigo) {
+		final byte[] bytes = codigo.getBytes(StandardCharsets.UTF_8);
+		for (int posicion = posicion(codigo, capacidadCodigos);; posicion = (posicion + 1) & (capacidadCodigos - 1)) {
+			final int cadena = buffer.getInt(posCodigos + 8 * posicion);
+			if (cadena < 0) return -1;
+			final int inicio = buffer.getInt(posCadenas + 4 * cadena);
+			final int fin = buffer.getInt(posCadenas + 4 * cadena + 4);
+			if (fin - inicio != bytes.length) continue;
+			int i = 0;
+			while (i < bytes.length && buffer.get(posDatosCadenas + inicio + i) == bytes[i])
+				i++;
+			if (i == bytes.length) return buffer.getInt(posCodigos + 8 * posicion + 4);
+		}
+	}
+
+	private int columna(int seccion, int filas, int columna, int fila) {
+		return buffer.getInt(seccion + 4 * (columna * filas + fila));
+	}
+
+	/**
+	 * @return Cadena del almacén con ese índice, o null si es -1.
+	 */
+	private String cadena(int indice) {
+		if (indice < 0) return null;
+		final int inicio = buffer.getInt(posCadenas + 4 * indice);
+		final byte[] bytes = new byte[buffer.getInt(posCadenas + 4 * indice + 4) - inicio];
+		buffer.duplicate().position(posDatosCadenas + inicio).get(bytes);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+
+	private static int añadirCadena(Map<String, Integer> almacen, List<byte[]> bytesCadenas, String cadena) {
+		if (cadena == null) return -1;
+		return almacen.computeIfAbsent(cadena, c -> {
+			bytesCadenas.add(c.getBytes(StandardCharsets.UTF_8));
+			return bytesCadenas.size() - 1;
+		});
+	}
+
+	private static int posicion(String codigo, int capacidad) {
+		final int hash = codigo.hashCode();
+		return (hash ^ (hash >>> 16)) & (capacidad - 1);
+	}
+
+	private static long alinear(long posicion) {
+		return (posicion + 3) & ~3L;
+	}
+
+	private static void escribir(DataOutputStream salida, int[] valores) throws IOException {
+		for (int valor : valores)
+			salida.writeInt(valor);
+	}
+
+	/**
+	 * @return SHA-256 del contenido del fichero, en hexadecimal, igual que {@link CatalogoResidente#getHash()}.
+	 */
+	private static String resumir(File fichero) throws IOException {
+		final MessageDigest resumen;
+		try {
+			resumen = MessageDigest.getInstance("SHA-256");
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException(e); // Todas las JVM incluyen SHA-256
+		}
+		try (InputStream entrada = new DigestInputStream(new FileInputStream(fichero), resumen)) {
+			final byte[] bloque = new byte[64 * 1024];
+			while (entrada.read(bloque) >= 0)
+				;
+		}
+		StringBuilder hash = new StringBuilder();
+		for (byte b : resumen.digest())
+			hash.append(String.format("%02x", b));
+		return hash.toString();
+	}
+}
@@ -1,11 +1,11 @@
 import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.InputStreamReader;
-import java.net.URL;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
-import java.util.HashMap;
 import java.util.List;
-import java.util.Map;
+import java.util.concurrent.Callable;
 
 import com.google.gson.stream.JsonReader;
 
@@ -15,68 +15,142 @@ import com.google.gson.stream.JsonReader;
  * @author Adolfo Trocolí Naranjo, 09218364X, a.trocoli@alumnos.upm.es
  *
  */
-public class JSONDatasetParser implements Runnable {
+public class JSONDatasetParser implements Callable<List<Resource>> {
 
 	private String fichero;
-	private List<String> lConcepts;
-	private Map<String, List<Map<String, String>>> mDatasetConcepts;
-	private String nombreHilo;
+	private IndiceConceptos indice;
+	private int raiz;
+	private ClienteHTTP cliente;
+	private int maxResources;
+	private CupoResources cupo;
+	private DiccionarioValores diccionario;
 
 	private JsonReader reader;
+	private ClienteHTTP.Descarga descarga;
+	private boolean limiteAlcanzado;
 
-	public JSONDatasetParser(String fichero, List<String> lConcepts,
-			Map<String, List<Map<String, String>>> mDatasetConcepts) {
+	/**
+	 * @param fichero      Id (URL) del dataset.
+	 * @param indice       Índice de concepts del catálogo.
+	 * @param raiz         Concept buscado; se extraen los resources de sus descendientes.
+	 * @param cliente      Cliente con el que se descarga el dataset.
+	 * @param maxResources Número máximo de resources a extraer del dataset, o {@link CupoResources#SIN_LIMITE}.
+	 * @param cupo         Cupo de resources compartido con el resto de datasets del mismo código.
+	 * @param diccionario  Diccionario con el que se comparten los valores repetidos de los resources.
+	 */
+	public JSONDatasetParser(String fichero, IndiceConceptos indice, int raiz, ClienteHTTP cliente, int maxResources,
+			CupoResources cupo, DiccionarioValores diccionario) {
 		this.fichero = fichero;
-		this.lConcepts = lConcepts;
-		this.mDatasetConcepts = mDatasetConcepts;
+		this.indice = indice;
+		this.raiz = raiz;
+		this.cliente = cliente;
+		this.maxResources = maxResources;
+		this.cupo = cupo;
+		this.diccionario = diccionario;
 	}
 
+	/**
+	 * Descarga y lee el dataset. Al alcanzar el número máximo de resources se corta la descarga. Si el cupo compartido
+	 * ya está agotado no se llega a descargar.
+	 *
+	 * @return Resources del dataset relacionados con el concept buscado, o null si el JSON no tiene "@graph".
+	 * @throws FileNotFoundException Si el dataset no existe.
+	 * @throws IOException           Si hay un error al descargar o leer el JSON.
+	 * @throws InterruptedException  Si el hilo se interrumpe mientras espera la respuesta.
+	 */
 	@Override
-	public void run() {
+	public List<Resource> call() throws IOException, InterruptedException {
 		Thread.currentThread().setName("JSON " + fichero);
-		nombreHilo = "[" + Thread.currentThread().getName() + "] ";
+		if (cupo.agotado()) {
+			limiteAlcanzado = true;
+			return new ArrayList<Resource>();
+		}
+		final Metricas.EventoDescarga evento = new Metricas.EventoDescarga();
+		evento.begin();
+		List<Resource> resources = null;
 		try {
-			InputStreamReader url = abrirURL();
-			if (url == null) return;
-			List<Map<String, String>> graphs = leerFicheroJSON(url);
-			mDatasetConcepts.put(fichero, graphs);
-		} catch (IOException e) {
-			e.printStackTrace();
+			long inicio = System.nanoTime();
+			descarga = cliente.abrir(fichero);
+			Metricas.getGlobal().registrarFase(Metricas.FASE_CONEXION, System.nanoTime() - inicio);
+			inicio = System.nanoTime();
+			resources = leer(descarga);
+			Metricas.getGlobal().registrarFase(Metricas.FASE_LECTURA_JSON, System.nanoTime() - inicio);
+			return resources;
+		} finally {
+			if (evento.shouldCommit()) {
+				evento.dataset = fichero;
+				evento.bytes = getBytesLeidos();
+				evento.resources = resources == null ? 0 : resources.size();
+				evento.limiteAlcanzado = limiteAlcanzado;
+				evento.commit();
+			}
 		}
 	}
 
-	private InputStreamReader abrirURL() {
-		System.out.println(nombreHilo + "Empezar a descargar de internet el JSON");
-		try {
-			return new InputStreamReader(new URL(fichero).openStream(), "UTF-8");
-		} catch (FileNotFoundException e) {
-			System.err.println(nombreHilo + "El fichero no existe. Ignorándolo");
-		} catch (IOException e) {
-			System.err.println(nombreHilo + "Hubo un problema al abrir el fichero. Ignorándolo" + e);
-		}
-		return null;
+	/**
+	 * @return Id (URL) del dataset.
+	 */
+	public String getFichero() {
+		return fichero;
+	}
+
+	/**
+	 * @return Bytes recibidos de la red al descargar el dataset.
+	 */
+	public long getBytesLeidos() {
+		return descarga == null ? 0 : descarga.getBytesLeidos();
+	}
+
+	/**
+	 * @return Content-Length del dataset, o -1 si no se conoce o no se ha descargado.
+	 */
+	public long getLongitud() {
+		return descarga == null ? -1 : descarga.getLongitud();
+	}
+
+	/**
+	 * @return Si se ha dejado de leer el dataset por haber alcanzado el máximo de resources o agotado el cupo.
+	 */
+	public boolean isLimiteAlcanzado() {
+		return limiteAlcanzado;
 	}
 
-	private List<Map<String, String>> leerFicheroJSON(InputStreamReader input) throws IOException {
-		reader = new JsonReader(input);
+	/**
+	 * Lee el JSON de un dataset ya abierto, sin descargarlo. Permite medir la lectura por separado de la descarga.
+	 *
+	 * @param entrada Contenido del dataset; se cierra al terminar.
+	 * @return Resources del dataset relacionados con el concept buscado, o null si el JSON no tiene "@graph".
+	 * @throws IOException Si hay un error al leer el JSON.
+	 */
+	List<Resource> leer(InputStream entrada) throws IOException {
+		limiteAlcanzado = false;
+		reader = new JsonReader(new InputStreamReader(entrada, StandardCharsets.UTF_8));
 		try {
 			if (!colocarPunteroEnGraph()) return null;
 			return leerGraph();
 		} finally {
+			if (limiteAlcanzado && descarga != null) descarga.abortar();
 			reader.close();
 		}
 	}
 
-	private List<Map<String, String>> leerGraph() throws IOException {
-		List<Map<String, String>> lista = new ArrayList<Map<String, String>>();
-		Map<String, String> mapaResource;
+	private List<Resource> leerGraph() throws IOException {
+		List<Resource> lista = new ArrayList<Resource>();
+		Resource resource;
 		reader.beginArray(); // Nunca se llamará a endArray porque cuando se vaya a terminar el objeto
 								// "@graphs" ya no será necesario seguir leyendo
-		while (reader.hasNext() && (lista.size() < 5)) {
-			mapaResource = leerResource();
-			if (mapaResource != null) {
-				System.out.println(mapaResource.get("concept"));
-				lista.add(mapaResource);
+		while (reader.hasNext()) {
+			if (lista.size() >= maxResources) {
+				limiteAlcanzado = true;
+				break;
+			}
+			resource = leerResource();
+			if (resource != null) {
+				if (!cupo.tomar()) {
+					limiteAlcanzado = true;
+					break;
+				}
+				lista.add(resource);
 			}
 		}
 		return lista;
@@ -89,7 +163,7 @@ public class JSONDatasetParser implements Runnable {
 		return (reader.nextName().equals("@graph"));
 	}
 
-	private Map<String, String> leerResource() throws IOException {
+	private Resource leerResource() throws IOException {
 		String concept = "";
 		String link = "";
 		String relation = "";
@@ -113,7 +187,7 @@ public class JSONDatasetParser implements Runnable {
 			switch (propertyName) {
 			case "@type":
 				concept = reader.nextString();
-				if (lConcepts.contains(concept)) interestingResource = true;
+				if (indice.esDescendiente(concept, raiz)) interestingResource = true;
 				break;
 			case "link":
 				link = reader.nextString();
@@ -155,32 +229,14 @@ public class JSONDatasetParser implements Runnable {
 		}
 		reader.endObject();
 		if (interestingResource) {
-			return buildMap(concept, link, relation, title, eventLocation, area, description, dtstart, dtend, latitude,
-					longitude, accesibility, organization_name);
+			return new Resource(diccionario.compartir(concept), link, diccionario.compartir(relation), title,
+					diccionario.compartir(eventLocation), diccionario.compartir(area), description, dtstart, dtend,
+					diccionario.compartir(latitude), diccionario.compartir(longitude), diccionario.compartir(accesibility),
+					diccionario.compartir(organization_name));
 		} else
 			return null;
 	}
 
-	private Map<String, String> buildMap(String concept, String link, String relation, String title,
-			String eventLocation, String area, String description, String dtstart, String dtend, String latitude,
-			String longitude, String accesibility, String organization_name) {
-		Map<String, String> mapa = new HashMap<String, String>();
-		mapa.put("concept", concept);
-		mapa.put("link", link);
-		mapa.put("relation", relation);
-		mapa.put("title", title);
-		mapa.put("eventLocation", eventLocation);
-		mapa.put("area", area);
-		mapa.put("description", description);
-		mapa.put("dtstart", dtstart);
-		mapa.put("dtend", dtend);
-		mapa.put("latitude", latitude);
-		mapa.put("longitude", longitude);
-		mapa.put("accesibility", accesibility);
-		mapa.put("organization-name", organization_name);
-		return mapa;
-	}
-
 	private String[] leerLocation() throws IOException {
 		String[] location = new String[2];
 		String propertyName;
@@ -0,0 +1,400 @@
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.SequenceInputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.parsers.SAXParserFactory;
+
+import org.xml.sax.Attributes;
+import org.xml.sax.SAXException;
+import org.xml.sax.helpers.DefaultHandler;
+
+/**
+ * Alternativa a {@link ManejadorXML} para catálogos muy grandes, que reparte la sección <code>datasets</code> entre
+ * varios hilos. El fichero se proyecta en memoria (<code>mmap</code>) y se escanea en dos fases:
+ * <ol>
+ * <li>La parte anterior a <code>&lt;datasets&gt;</code> se escanea con {@link ManejadorXML} para construir el
+ * {@link IndiceConceptos} y resolver los códigos buscados.</li>
+ * <li>La sección <code>datasets</code>, que es una lista de elementos <code>dataset</code> independientes, se divide en
+ * trozos de bytes que empiezan siempre en un <code>&lt;dataset </code>. Cada trozo se escanea en su propio hilo como
+ * un documento aparte, envuelto en la misma etiqueta raíz que el catálogo para conservar los espacios de nombres, y
+ * los datasets que encuentra se unen después en el orden del documento.</li>
+ * </ol>
+ * Se obtienen los mismos resultados que con {@link ManejadorXML} siempre que la cadena <code>&lt;dataset</code> no
+ * aparezca dentro del texto de un dataset. Si los elementos llevan prefijo de espacio de nombres no se encuentra
+ * ningún límite y la sección se escanea en un único trozo.
+ *
+ * @author Adolfo Trocolí Naranjo, 09218364X, a.trocoli@alumnos.upm.es
+ */
+public class ManejadorParalelo implements ParserCatalogoIndexado {
+
+	private static final byte[] INICIO_DATASETS = "<datasets>".getBytes(StandardCharsets.US_ASCII);
+	private static final byte[] FIN_DATASETS = "</datasets>".getBytes(StandardCharsets.US_ASCII);
+	private static final byte[] INICIO_DATASET = "<dataset".getBytes(StandardCharsets.US_ASCII);
+	private static final int TROZOS_POR_HILO = 4; // Varios trozos por hilo para repartir mejor la carga
+	private static final long TAMAÑO_MINIMO_TROZO = 1 << 20;
+	private static final long TAMAÑO_MAXIMO_TROZO = 1 << 30; // Un MappedByteBuffer no puede pasar de 2 GB
+	private static final int VENTANA_BUSQUEDA = 1 << 24; // Bytes proyectados a la vez al buscar un patrón
+
+	private final ConjuntoResultados resultados;
+	private final int hilos;
+	private IndiceConceptos indice;
+
+	/**
+	 * @param codigos códigos de las categorías a procesar en un único escaneo
+	 * @param hilos   número de hilos entre los que se reparte la sección de datasets
+	 */
+	public ManejadorParalelo(List<String> codigos, int hilos) {
+		resultados = new ConjuntoResultados(codigos);
+		this.hilos = hilos;
+	}
+
+	/**
+	 * Escanea el catálogo y resuelve todos los códigos buscados.
+	 *
+	 * @param fichero Fichero del catálogo.
+	 */
+	public void parsear(File fichero)
+			throws IOException, SAXException, ParserConfigurationException, InterruptedException {
+		try (FileChannel canal = FileChannel.open(fichero.toPath(), StandardOpenOption.READ)) {
+			final long tamaño = canal.size();
+			final long inicioDatasets = buscar(canal, INICIO_DATASETS, 0, tamaño);
+			final long finDatasets = inicioDatasets < 0 ? -1 : buscarUltimo(canal, FIN_DATASETS, tamaño);
+			final byte[] prologo = leerPrologo(canal);
+			final String raiz = getNombreRaiz(prologo);
+
+			// Fase 1: concepts, cerrando el documento justo antes de la sección de datasets
+			final long finConcepts = inicioDatasets < 0 ? tamaño : inicioDatasets;
+			final byte[] cierre = inicioDatasets < 0 ? new byte[0] : ("</" + raiz + ">").getBytes(StandardCharsets.UTF_8);
+			ManejadorXML manejador = new ManejadorXML(Collections.<String>emptyList());
+			try (InputStream entrada = new SequenceInputStream(proyectar(canal, 0, finConcepts),
+					new ByteArrayInputStream(cierre))) {
+				nuevoParser().parse(entrada, manejador);
+			}
+			indice = manejador.getIndice();
+			resultados.resolver(indice);
+			if (inicioDatasets < 0 || finDatasets < inicioDatasets || !resultados.hayCoincidencias()) return;
+
+			// Fase 2: datasets, en trozos independientes
+			final List<long[]> trozos = dividir(canal, inicioDatasets + INICIO_DATASETS.length, finDatasets);
+			final ExecutorService ejecutor = Executors.newFixedThreadPool(Math.min(hilos, trozos.size()));
+			try {
+				List<Future<Map<ResultadoBusqueda, Map<String, HashMap<String, String>>>>> parciales = new ArrayList<>();
+				for (long[] trozo : trozos)
+					parciales.add(ejecutor.submit(() -> escanearTrozo(canal, prologo, raiz, trozo[0], trozo[1])));
+				for (Future<Map<ResultadoBusqueda, Map<String, HashMap<String, String>>>> parcial : parciales)
+					for (Map.Entry<ResultadoBusqueda, Map<String, HashMap<String, String>>> entrada : parcial.get()
+							.entrySet())
+						for (Map.Entry<String, HashMap<String, String>> dataset : entrada.getValue().entrySet())
+							entrada.getKey().añadirDataset(dataset.getKey(), dataset.getValue());
+			} catch (ExecutionException e) {
+				if (e.getCause() instanceof SAXException) throw (SAXException) e.getCause();
+				if (e.getCause() instanceof IOException) throw (IOException) e.getCause();
+				throw new IllegalStateException(e.getCause());
+			} finally {
+				ejecutor.shutdownNow();
+			}
+		}
+	}
+
+	@Override
+	public String getLabel() {
+		return getResultados().get(0).getLabel();
+	}
+
+	@Override
+	public List<String> getConcepts() {
+		return getResultados().get(0).getConcepts();
+	}
+
+	@Override
+	public Map<String, HashMap<String, String>> getDatasets() {
+		return getResultados().get(0).getDatasets();
+	}
+
+	@Override
+	public IndiceConceptos getIndice() {
+		return indice;
+	}
+
+	@Override
+	public List<ResultadoBusqueda> getResultados() {
+		return resultados.getResultados();
+	}
+
+	/**
+	 * Escanea un trozo de la sección de datasets como un documento independiente.
+	 *
+	 * @return Datasets encontrados para cada resultado, en orden de documento.
+	 */
+	private Map<ResultadoBusqueda, Map<String, HashMap<String, String>>> escanearTrozo(FileChannel canal,
+			byte[] prologo, String raiz, long inicio, long fin) throws Exception {
+		ManejadorDatasets manejador = new ManejadorDatasets(resultados);
+		List<InputStream> partes = new ArrayList<InputStream>();
+		partes.add(new ByteArrayInputStream(prologo));
+		partes.add(new ByteArrayInputStream(INICIO_DATASETS));
+		partes.add(proyectar(canal, inicio, fin));
+		partes.add(new ByteArrayInputStream(("</datasets></" + raiz + ">").getBytes(StandardCharsets.UTF_8)));
+		try (InputStream entrada = new SequenceInputStream(Collections.enumeration(partes))) {
+			nuevoParser().parse(entrada, manejador);
+		}
+		return manejador.encontrados;
+	}
+
+	/**
+	 * Divide el rango de bytes en trozos de tamaño parecido que empiezan en un <code>&lt;dataset</code>.
+	 *
+	 * @return Lista de rangos [inicio, fin) que cubren todo el rango.
+	 */
+	private List<long[]> dividir(FileChannel canal, long inicio, long fin) throws IOException {
+		final long longitud = fin - inicio;
+		final long numTrozos = Math.max(Math.min(hilos * TROZOS_POR_HILO, longitud / TAMAÑO_MINIMO_TROZO),
+				(longitud + TAMAÑO_MAXIMO_TROZO - 1) / TAMAÑO_MAXIMO_TROZO);
+		List<long[]> trozos = new ArrayList<long[]>();
+		long actual = inicio;
+		for (long i = 1; i < numTrozos && actual < fin; i++) {
+			long limite = buscarInicioDataset(canal, Math.max(actual + 1, inicio + longitud * i / numTrozos), fin);
+			if (limite < 0) break;
+			if (limite - actual > TAMAÑO_MAXIMO_TROZO) throw new IOException("Dataset de más de 1 GB en " + actual);
+			trozos.add(new long[] { actual, limite });
+			actual = limite;
+		}
+		trozos.add(new long[] { actual, fin });
+		return trozos;
+	}
+
+	/**
+	 * @return Posición del siguiente <code>&lt;dataset</code> seguido de un espacio o '&gt;' (no
+	 *         <code>&lt;datasets</code>), o -1 si no hay más.
+	 */
+	private static long buscarInicioDataset(FileChannel canal, long desde, long hasta) throws IOException {
+		long posicion = desde;
+		while (posicion >= 0 && posicion < hasta) {
+			posicion = buscar(canal, INICIO_DATASET, posicion, hasta);
+			if (posicion < 0 || posicion + INICIO_DATASET.length >= hasta) return -1;
+			final byte siguiente = canal.map(FileChannel.MapMode.READ_ONLY, posicion + INICIO_DATASET.length, 1).get();
+			if (siguiente == ' ' || siguiente == '\t' || siguiente == '\n' || siguiente == '\r' || siguiente == '>')
+				return posicion;
+			posicion++;
+		}
+		return -1;
+	}
+
+	/**
+	 * Busca la primera aparición de un patrón proyectando el fichero por ventanas.
+	 *
+	 * @return Posición del patrón, o -1 si no aparece en [desde, hasta).
+	 */
+	private static long buscar(FileChannel canal, byte[] patron, long desde, long hasta) throws IOException {
+		for (long ventana = desde; ventana < hasta; ventana += VENTANA_BUSQUEDA) {
+			// Las ventanas se solapan para encontrar el patrón aunque quede partido entre dos
+			final long longitud = Math.min(VENTANA_BUSQUEDA + patron.length - 1, hasta - ventana);
+			final MappedByteBuffer datos = canal.map(FileChannel.MapMode.READ_ONLY, ventana, longitud);
+			for (int i = 0; i + patron.length <= longitud; i++)
+				if (coincide(datos, i, patron)) return ventana + i;
+		}
+		return -1;
+	}
+
+	/**
+	 * Busca la última aparición de un patrón, recorriendo el fichero por ventanas desde el final.
+	 *
+	 * @return Posición del patrón, o -1 si no aparece.
+	 */
+	private static long buscarUltimo(FileChannel canal, byte[] patron, long hasta) throws IOException {
+		for (long fin = hasta; fin > 0; fin -= VENTANA_BUSQUEDA) {
+			final long ventana = Math.max(0, fin - VENTANA_BUSQUEDA - patron.length + 1);
+			final MappedByteBuffer datos = canal.map(FileChannel.MapMode.READ_ONLY, ventana, fin - ventana);
+			for (int i = (int) (fin - ventana) - patron.length; i >= 0; i--)
+				if (coincide(datos, i, patron)) return ventana + i;
+		}
+		return -1;
+	}
+
+	private static boolean coincide(ByteBuffer datos, int posicion, byte[] patron) {
+		for (int j = 0; j < patron.length; j++)
+			if (datos.get(posicion + j) != patron[j]) return false;
+		return true;
+	}
+
+	/**
+	 * @return Bytes del principio del fichero hasta el final de la etiqueta de inicio del elemento raíz (declaración
+	 *         XML, comentarios y espacios de nombres incluidos).
+	 */
+	private static byte[] leerPrologo(FileChannel canal) throws IOException {
+		final ByteBuffer datos = canal.map(FileChannel.MapMode.READ_ONLY, 0, Math.min(canal.size(), 1 << 16));
+		int i = 0;
+		while (i < datos.limit()) {
+			if (datos.get(i) != '<' || i + 1 >= datos.limit()) {
+				i++;
+			} else if (datos.get(i + 1) == '?' || datos.get(i + 1) == '!') {
+				i = saltarHasta(datos, i, '>'); // Declaración, comentario o DOCTYPE sin subconjunto interno
+			} else {
+				byte comillas = 0;
+				for (i++; i < datos.limit(); i++) {
+					final byte b = datos.get(i);
+					if (comillas != 0) {
+						if (b == comillas) comillas = 0;
+					} else if (b == '"' || b == '\'') {
+						comillas = b;
+					} else if (b == '>') {
+						final byte[] prologo = new byte[i + 1];
+						datos.get(0, prologo);
+						return prologo;
+					}
+				}
+			}
+		}
+		throw new IOException("No se encuentra el elemento raíz del catálogo");
+	}
+
+	private static int saltarHasta(ByteBuffer datos, int desde, char caracter) {
+		int i = desde;
+		while (i < datos.limit() && datos.get(i) != caracter)
+			i++;
+		return i + 1;
+	}
+
+	/**
+	 * @return Nombre cualificado del elemento raíz, tomado de la última etiqueta del prólogo.
+	 */
+	private static String getNombreRaiz(byte[] prologo) {
+		final String texto = new String(prologo, StandardCharsets.UTF_8);
+		int inicio = texto.lastIndexOf('<') + 1;
+		int fin = inicio;
+		while (fin < texto.length() && !Character.isWhitespace(texto.charAt(fin)) && texto.charAt(fin) != '>'
+				&& texto.charAt(fin) != '/')
+			fin++;
+		return texto.substring(inicio, fin);
+	}
+
+	private static javax.xml.parsers.SAXParser nuevoParser() throws ParserConfigurationException, SAXException {
+		// Las factorías no son seguras entre hilos: cada trozo crea la suya
+		SAXParserFactory factory = SAXParserFactory.newInstance();
+		factory.setNamespaceAware(true);
+		return factory.newSAXParser();
+	}
+
+	private static InputStream proyectar(FileChannel canal, long inicio, long fin) throws IOException {
+		return new FlujoProyectado(canal.map(FileChannel.MapMode.READ_ONLY, inicio, fin - inicio));
+	}
+
+	/**
+	 * Flujo de lectura sobre una región del fichero proyectada en memoria.
+	 */
+	private static class FlujoProyectado extends InputStream {
+
+		private final ByteBuffer datos;
+
+		FlujoProyectado(ByteBuffer datos) {
+			this.datos = datos;
+		}
+
+		@Override
+		public int read() {
+			return datos.hasRemaining() ? datos.get() & 0xFF : -1;
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) {
+			if (len == 0) return 0;
+			if (!datos.hasRemaining()) return -1;
+			final int n = Math.min(len, datos.remaining());
+			datos.get(b, off, n);
+			return n;
+		}
+
+		@Override
+		public int available() {
+			return datos.remaining();
+		}
+	}
+
+	/**
+	 * Manejador SAX de un trozo de la sección de datasets, equivalente a la parte de {@link ManejadorXML} que trata los
+	 * datasets. Solo lee el conjunto de resultados ya resuelto, por lo que varios pueden trabajar a la vez.
+	 */
+	private static class ManejadorDatasets extends DefaultHandler {
+
+		private final ConjuntoResultados resultados;
+		private final Map<ResultadoBusqueda, Map<String, HashMap<String, String>>> encontrados;
+		private final List<ResultadoBusqueda> coincidencias = new ArrayList<ResultadoBusqueda>();
+		private StringBuilder sb = new StringBuilder();
+		private String title, description, theme, idDataset;
+		private long elementos;
+
+		ManejadorDatasets(ConjuntoResultados resultados) {
+			this.resultados = resultados;
+			encontrados = new HashMap<ResultadoBusqueda, Map<String, HashMap<String, String>>>();
+		}
+
+		@Override
+		public void startElement(String uri, String localName, String qName, Attributes attributes) {
+			elementos++;
+			sb = new StringBuilder();
+			final String atributoID = attributes.getLength() > 0 ? attributes.getValue(0) : null;
+			switch (localName) {
+			case "concept":
+				resultados.buscarCoincidencias(atributoID, coincidencias);
+				break;
+			case "dataset":
+				idDataset = atributoID;
+				break;
+			}
+		}
+
+		@Override
+		public void endElement(String uri, String localName, String qName) {
+			final String chars = sb.toString();
+			switch (localName) {
+			case "concept":
+				if (coincidencias.isEmpty()) break;
+				HashMap<String, String> dataset = new HashMap<String, String>();
+				dataset.put("title", title);
+				dataset.put("description", description);
+				dataset.put("theme", theme);
+				for (ResultadoBusqueda resultado : coincidencias)
+					encontrados.computeIfAbsent(resultado, r -> new LinkedHashMap<String, HashMap<String, String>>())
+							.put(idDataset, dataset);
+				coincidencias.clear();
+				break;
+			case "title":
+				title = chars;
+				break;
+			case "description":
+				description = chars;
+				break;
+			case "theme":
+				theme = chars;
+				break;
+			}
+		}
+
+		@Override
+		public void characters(char[] ch, int start, int length) {
+			sb.append(ch, start, length);
+		}
+
+		@Override
+		public void endDocument() {
+			Metricas.getGlobal().incrementar(Metricas.ELEMENTOS_CATALOGO, elementos);
+		}
+	}
+}
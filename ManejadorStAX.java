@@ -0,0 +1,285 @@
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+/**
+ * Alternativa a {@link ManejadorXML} basada en un parser de tipo pull (StAX). Obtiene los mismos resultados, pero al ser
+ * el propio manejador quien pide los eventos puede:
+ * <ul>
+ * <li>Saltar sin leer su texto los <code>label</code> de los concepts que no son raíz de ninguna búsqueda.</li>
+ * <li>Saltar subárboles completos de concepts una vez encontrados todos los códigos, si no pertenecen a ninguno.</li>
+ * <li>Copiar el texto de los datasets a buffers reutilizables y convertirlo en cadena solo si el dataset es
+ * pertinente, saltando el resto de elementos (<code>keyword</code>, <code>publisher</code>...).</li>
+ * <li>Dejar de leer el documento al terminar la sección <code>datasets</code>, o antes si no se ha encontrado ningún
+ * código.</li>
+ * </ul>
+ *
+ * @author Adolfo Trocolí Naranjo, 09218364X, a.trocoli@alumnos.upm.es
+ */
+public class ManejadorStAX implements ParserCatalogoIndexado {
+
+	private final ConjuntoResultados resultados;
+	private final IndiceConceptos indice; // Concepts del catálogo necesarios para resolver la búsqueda
+	private final Set<String> pendientes; // Códigos buscados que aún no han aparecido
+	private final List<ResultadoBusqueda> coincidencias; // Resultados a los que pertenece el dataset actual
+	private final StringBuilder title, description, theme;
+	private boolean resuelto;
+	private long elementos; // Elementos examinados, sin contar los saltados
+
+	private XMLStreamReader reader;
+
+	/**
+	 * @param sCodigoConcepto código de la categoría a procesar
+	 */
+	public ManejadorStAX(String sCodigoConcepto) {
+		this(Collections.singletonList(sCodigoConcepto));
+	}
+
+	/**
+	 * @param codigos códigos de las categorías a procesar en un único escaneo
+	 */
+	public ManejadorStAX(List<String> codigos) {
+		resultados = new ConjuntoResultados(codigos);
+		indice = new IndiceConceptos();
+		pendientes = new HashSet<String>(codigos);
+		coincidencias = new ArrayList<ResultadoBusqueda>();
+		title = new StringBuilder();
+		description = new StringBuilder();
+		theme = new StringBuilder();
+	}
+
+	/**
+	 * Escanea el catálogo y resuelve todos los códigos buscados.
+	 *
+	 * @param entrada Flujo con el documento XML del catálogo.
+	 * @throws XMLStreamException Si el documento no está bien formado.
+	 */
+	public void parsear(InputStream entrada) throws XMLStreamException {
+		XMLInputFactory factory = XMLInputFactory.newInstance();
+		factory.setProperty(XMLInputFactory.IS_NAMESPACE_AWARE, true);
+		factory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+		reader = factory.createXMLStreamReader(entrada);
+		System.out.println("Comenzando escaneo del archivo");
+		try {
+			leerCatalogo();
+		} finally {
+			reader.close();
+		}
+		resolverBusqueda();
+		Metricas.getGlobal().incrementar(Metricas.ELEMENTOS_CATALOGO, elementos);
+		System.out.println("Escaneo del archivo finalizado");
+	}
+
+	@Override
+	public String getLabel() {
+		return getResultados().get(0).getLabel();
+	}
+
+	@Override
+	public List<String> getConcepts() {
+		return getResultados().get(0).getConcepts();
+	}
+
+	@Override
+	public Map<String, HashMap<String, String>> getDatasets() {
+		return getResultados().get(0).getDatasets();
+	}
+
+	/**
+	 * @return Índice con los concepts leídos. No incluye los subárboles saltados, que no pertenecen a ninguna búsqueda.
+	 */
+	@Override
+	public IndiceConceptos getIndice() {
+		return indice;
+	}
+
+	@Override
+	public List<ResultadoBusqueda> getResultados() {
+		return resultados.getResultados();
+	}
+
+	/**
+	 * Recorre el documento hasta las secciones de concepts y datasets. Termina en cuanto se ha procesado la sección de
+	 * datasets.
+	 */
+	private void leerCatalogo() throws XMLStreamException {
+		while (reader.hasNext()) {
+			if (reader.next() != XMLStreamConstants.START_ELEMENT) continue;
+			elementos++;
+			switch (reader.getLocalName()) {
+			case "concepts":
+				leerConcepts(0);
+				break;
+			case "datasets":
+				resolverBusqueda();
+				if (resultados.hayCoincidencias()) leerDatasets();
+				return;
+			}
+		}
+	}
+
+	/**
+	 * Lee los concept hijos de un elemento <code>concepts</code> del árbol.
+	 *
+	 * @param coincidentes Número de ancestros que son raíz de alguna búsqueda.
+	 */
+	private void leerConcepts(int coincidentes) throws XMLStreamException {
+		while (siguienteElemento() == XMLStreamConstants.START_ELEMENT) {
+			if (reader.getLocalName().equals("concept")) leerConcept(coincidentes);
+			else saltarElemento();
+		}
+	}
+
+	/**
+	 * Lee un concept del árbol y lo registra en el índice. Si ya se han encontrado todos los códigos y el concept no
+	 * pertenece a ninguna búsqueda, se salta entero.
+	 *
+	 * @param coincidentes Número de ancestros que son raíz de alguna búsqueda.
+	 */
+	private void leerConcept(int coincidentes) throws XMLStreamException {
+		if (coincidentes == 0 && pendientes.isEmpty()) {
+			saltarElemento();
+			return;
+		}
+		indice.abrirConcepto(reader.getAttributeValue(null, "id"));
+		boolean raiz = false;
+		while (siguienteElemento() == XMLStreamConstants.START_ELEMENT) {
+			switch (reader.getLocalName()) {
+			case "code":
+				final String codigo = reader.getElementText();
+				raiz = pendientes.remove(codigo);
+				indice.asignarCodigo(codigo);
+				break;
+			case "label":
+				if (raiz) indice.asignarLabel(reader.getElementText());
+				else saltarElemento();
+				break;
+			case "concepts":
+				leerConcepts(raiz ? coincidentes + 1 : coincidentes);
+				break;
+			default:
+				saltarElemento();
+			}
+		}
+		indice.cerrarConcepto();
+	}
+
+	private void leerDatasets() throws XMLStreamException {
+		while (siguienteElemento() == XMLStreamConstants.START_ELEMENT) {
+			if (reader.getLocalName().equals("dataset")) leerDataset();
+			else saltarElemento();
+		}
+	}
+
+	/**
+	 * Lee un dataset. El texto de title, description y theme se copia a buffers reutilizables y solo se convierte en
+	 * cadena si alguno de sus concepts pertenece a una búsqueda.
+	 */
+	private void leerDataset() throws XMLStreamException {
+		final String idDataset = reader.getAttributeValue(null, "id");
+		while (siguienteElemento() == XMLStreamConstants.START_ELEMENT) {
+			switch (reader.getLocalName()) {
+			case "title":
+				leerTexto(title);
+				break;
+			case "description":
+				leerTexto(description);
+				break;
+			case "theme":
+				leerTexto(theme);
+				break;
+			case "concepts":
+				leerConceptsDataset();
+				if (!coincidencias.isEmpty()) {
+					añadirEntradaMapa(idDataset);
+					coincidencias.clear();
+				}
+				break;
+			default:
+				saltarElemento();
+			}
+		}
+	}
+
+	private void leerConceptsDataset() throws XMLStreamException {
+		while (siguienteElemento() == XMLStreamConstants.START_ELEMENT) {
+			if (reader.getLocalName().equals("concept"))
+				resultados.buscarCoincidencias(reader.getAttributeValue(null, "id"), coincidencias);
+			saltarElemento();
+		}
+	}
+
+	/**
+	 * Añade el dataset actual al mapa de datasets de cada resultado coincidente.
+	 */
+	private void añadirEntradaMapa(String idDataset) {
+		HashMap<String, String> mapaAuxiliar = new HashMap<String, String>();
+		mapaAuxiliar.put("title", title.toString());
+		mapaAuxiliar.put("description", description.toString());
+		mapaAuxiliar.put("theme", theme.toString());
+		for (ResultadoBusqueda resultado : coincidencias)
+			resultado.añadirDataset(idDataset, mapaAuxiliar);
+	}
+
+	private void resolverBusqueda() {
+		if (resuelto) return;
+		resuelto = true;
+		resultados.resolver(indice);
+	}
+
+	/**
+	 * Copia en el buffer el texto del elemento actual, sin crear cadenas intermedias. Deja el lector en el final del
+	 * elemento.
+	 */
+	private void leerTexto(StringBuilder destino) throws XMLStreamException {
+		destino.setLength(0);
+		int evento;
+		while ((evento = reader.next()) != XMLStreamConstants.END_ELEMENT) {
+			if (evento == XMLStreamConstants.CHARACTERS || evento == XMLStreamConstants.CDATA
+					|| evento == XMLStreamConstants.SPACE)
+				destino.append(reader.getTextCharacters(), reader.getTextStart(), reader.getTextLength());
+			else if (evento == XMLStreamConstants.START_ELEMENT) saltarElemento();
+		}
+	}
+
+	/**
+	 * Avanza hasta el siguiente comienzo o final de elemento.
+	 *
+	 * @return Tipo del evento alcanzado.
+	 */
+	private int siguienteElemento() throws XMLStreamException {
+		int evento;
+		do {
+			evento = reader.next();
+		} while (evento != XMLStreamConstants.START_ELEMENT && evento != XMLStreamConstants.END_ELEMENT);
+		if (evento == XMLStreamConstants.START_ELEMENT) elementos++;
+		return evento;
+	}
+
+	/**
+	 * Salta el elemento actual y todo su contenido sin leer su texto. Deja el lector en el final del elemento.
+	 */
+	private void saltarElemento() throws XMLStreamException {
+		int profundidad = 1;
+		while (profundidad > 0) {
+			switch (reader.next()) {
+			case XMLStreamConstants.START_ELEMENT:
+				profundidad++;
+				break;
+			case XMLStreamConstants.END_ELEMENT:
+				profundidad--;
+				break;
+			}
+		}
+	}
+}
@@ -1,4 +1,5 @@
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -13,35 +14,44 @@ import org.xml.sax.helpers.DefaultHandler;
  * Clase encargada de parsear el documento xml y extraer la información
  * requerida: Label del \<concept\> cuyo \<code\> sea el buscado, sus
  * \<concepts\> anidados y los datasets relacionados.
+ * <br>
+ * Admite varios códigos a la vez: todos se resuelven sobre el mismo escaneo del
+ * documento y cada uno obtiene su propio {@link ResultadoBusqueda}.
  * 
  * @author Adolfo Trocolí Naranjo, 09218364X, a.trocoli@alumnos.upm.es
  */
-public class ManejadorXML extends DefaultHandler implements ParserCatalogo {
+public class ManejadorXML extends DefaultHandler implements ParserCatalogoIndexado {
 
 	// Atributos del parser
-	private String codigo;
 	private StringBuilder sb;
 
 	// Resultados extraídos
-	private String sNombreCategoria; // Nombre de la categoría
-	private List<String> lConcepts; // Lista con los uris de los elementos <concept> que pertenecen a la categoría
-	private Map<String, HashMap<String, String>> hDatasets; // Mapa con información de los dataset que pertenecen a la
-															// categoría
+	private ConjuntoResultados resultados; // Un resultado por cada código buscado
+	private IndiceConceptos indice; // Árbol completo de concepts del catálogo
 	// Variables auxiliares
-	private boolean dentroDeConcept, encontrado, datasets, introducirEntrada;
+	private boolean datasets, resuelto;
+	private List<ResultadoBusqueda> coincidencias; // Resultados a los que pertenece el dataset actual
 	private String title, description, theme, idDataset, atributoID, chars;
-	private int treeDepth;
+	private long elementos; // Se suman a las métricas al terminar, para no actualizarlas en cada elemento
 
 	/**
 	 * @param sCodigoConcepto código de la categoría a procesar
 	 * @throws ParserConfigurationException
 	 */
 	public ManejadorXML(String sCodigoConcepto) throws SAXException, ParserConfigurationException {
+		this(Collections.singletonList(sCodigoConcepto));
+	}
+
+	/**
+	 * @param codigos códigos de las categorías a procesar en un único escaneo
+	 * @throws ParserConfigurationException
+	 */
+	public ManejadorXML(List<String> codigos) throws SAXException, ParserConfigurationException {
 		super();
-		this.codigo = sCodigoConcepto;
 		sb = new StringBuilder();
-		lConcepts = new ArrayList<String>();
-		hDatasets = new HashMap<String, HashMap<String, String>>();
+		resultados = new ConjuntoResultados(codigos);
+		indice = new IndiceConceptos();
+		coincidencias = new ArrayList<ResultadoBusqueda>();
 	}
 
 	/**
@@ -55,7 +65,7 @@ public class ManejadorXML extends DefaultHandler implements ParserCatalogo {
 	 */
 	@Override
 	public String getLabel() {
-		return sNombreCategoria;
+		return getResultados().get(0).getLabel();
 	}
 
 	/**
@@ -74,7 +84,7 @@ public class ManejadorXML extends DefaultHandler implements ParserCatalogo {
 	 */
 	@Override
 	public List<String> getConcepts() {
-		return lConcepts;
+		return getResultados().get(0).getConcepts();
 	}
 
 	/**
@@ -99,7 +109,20 @@ public class ManejadorXML extends DefaultHandler implements ParserCatalogo {
 	 */
 	@Override
 	public Map<String, HashMap<String, String>> getDatasets() {
-		return hDatasets;
+		return getResultados().get(0).getDatasets();
+	}
+
+	/**
+	 * @return Índice con el árbol completo de concepts del catálogo escaneado.
+	 */
+	@Override
+	public IndiceConceptos getIndice() {
+		return indice;
+	}
+
+	@Override
+	public List<ResultadoBusqueda> getResultados() {
+		return resultados.getResultados();
 	}
 
 	@Override
@@ -111,6 +134,8 @@ public class ManejadorXML extends DefaultHandler implements ParserCatalogo {
 	@Override
 	public void endDocument() throws SAXException {
 		super.endDocument();
+		resolverBusqueda();
+		Metricas.getGlobal().incrementar(Metricas.ELEMENTOS_CATALOGO, elementos);
 		System.out.println("Escaneo del archivo finalizado");
 	}
 
@@ -123,25 +148,20 @@ public class ManejadorXML extends DefaultHandler implements ParserCatalogo {
 	@Override
 	public void startElement(String uri, String localName, String qName, Attributes attributes) throws SAXException {
 		super.startElement(uri, localName, qName, attributes);
+		elementos++;
 		sb = new StringBuilder();
 		if (attributes.getLength() > 0) atributoID = attributes.getValue(0);
 		switch (localName) {
 		case "concept":
 			if (!datasets) {
-				if (!dentroDeConcept) {
-					dentroDeConcept = true;
-				} else if (encontrado) {
-					lConcepts.add(atributoID);
-				}
-			} else if (lConcepts.contains(atributoID)) {
-				introducirEntrada = true;
+				indice.abrirConcepto(atributoID);
+			} else {
+				resultados.buscarCoincidencias(atributoID, coincidencias);
 			}
 			break;
-		case "concepts":
-			treeDepth++;
-			break;
 		case "datasets":
 			datasets = true;
+			resolverBusqueda();
 			break;
 		case "dataset":
 			idDataset = atributoID;
@@ -160,31 +180,19 @@ public class ManejadorXML extends DefaultHandler implements ParserCatalogo {
 		chars = sb.toString();
 		switch (localName) {
 		case "code":
-			if (dentroDeConcept && chars.equals(codigo)) {
-				encontrado = true;
-				treeDepth = 0;
-				lConcepts.add(atributoID);
-			}
+			if (!datasets) indice.asignarCodigo(chars);
 			break;
 		case "label":
-			if (encontrado && treeDepth == 0) {
-				sNombreCategoria = chars;
-			}
+			if (!datasets) indice.asignarLabel(chars);
 			break;
 		case "concept":
 			if (!datasets) {
-				if (treeDepth == 0) {
-					dentroDeConcept = false;
-					encontrado = false;
-				}
-			} else if (introducirEntrada) {
+				indice.cerrarConcepto();
+			} else if (!coincidencias.isEmpty()) {
 				añadirEntradaMapa();
-				introducirEntrada = false;
+				coincidencias.clear();
 			}
 			break;
-		case "concepts":
-			treeDepth--;
-			break;
 		case "datasets":
 			datasets = false;
 			break;
@@ -210,15 +218,26 @@ public class ManejadorXML extends DefaultHandler implements ParserCatalogo {
 	}
 
 	/**
-	 * Añade una entrada al mapa de datasets. Para ello, crea un mapa con las
-	 * características del dataset y lo introduce como valor de la clave
-	 * correspondiente al id del dataset.
+	 * Resuelve los códigos buscados sobre el índice. Se invoca al empezar la
+	 * sección de datasets, cuando el árbol de concepts ya está completo.
+	 */
+	private void resolverBusqueda() {
+		if (resuelto) return;
+		resuelto = true;
+		resultados.resolver(indice);
+	}
+
+	/**
+	 * Añade una entrada al mapa de datasets de cada resultado coincidente. Para
+	 * ello, crea un mapa con las características del dataset y lo introduce como
+	 * valor de la clave correspondiente al id del dataset.
 	 */
 	private void añadirEntradaMapa() {
 		HashMap<String, String> mapaAuxiliar = new HashMap<String, String>();
 		mapaAuxiliar.put("title", title);
 		mapaAuxiliar.put("description", description);
 		mapaAuxiliar.put("theme", theme);
-		hDatasets.put(idDataset, mapaAuxiliar);
+		for (ResultadoBusqueda resultado : coincidencias)
+			resultado.añadirDataset(idDataset, mapaAuxiliar);
 	}
 }
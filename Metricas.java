@@ -0,0 +1,251 @@
+import java.io.File;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+import com.google.gson.stream.JsonWriter;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Timespan;
+
+/**
+ * Métricas del proceso: contadores, tiempo acumulado por fase e histograma de la duración de las descargas de
+ * datasets. Se pueden guardar en un fichero en JSON o en el formato de texto de Prometheus, y además cada fase y cada
+ * descarga genera un evento de JFR (Java Flight Recorder), que se registra si se graba con
+ * <code>-XX:StartFlightRecording</code>.
+ * <br>
+ * Los contadores de las partes más repetidas (los elementos del catálogo) se acumulan primero en el propio escáner y
+ * se suman aquí al terminar, de forma que medir no añade trabajo por elemento.
+ *
+ * @author Adolfo Trocolí Naranjo, 09218364X, a.trocoli@alumnos.upm.es
+ *
+ */
+public class Metricas {
+
+	// Contadores
+	public static final String ELEMENTOS_CATALOGO = "catalogo_elementos";
+	public static final String BYTES_DESCARGADOS = "descarga_bytes";
+	public static final String DATASETS_DESCARGADOS = "datasets_descargados";
+	public static final String DESCARGAS_FALLIDAS = "descargas_fallidas";
+	public static final String RESOURCES_COINCIDENTES = "resources_coincidentes";
+
+	// Fases medidas en cada descarga, sumadas entre todos los hilos
+	public static final String FASE_CONEXION = "conexión dataset";
+	public static final String FASE_LECTURA_JSON = "lectura JSON dataset";
+
+	private static final String PREFIJO = "p5_";
+	// Límites superiores de los intervalos del histograma de descargas, en segundos
+	private static final double[] LIMITES_DESCARGA = { 0.005, 0.01, 0.025, 0.05, 0.1, 0.25, 0.5, 1, 2.5, 5, 10, 30,
+			60, 120 };
+
+	private static final Metricas GLOBAL = new Metricas();
+
+	private final Map<String, LongAdder> contadores = new ConcurrentHashMap<String, LongAdder>();
+	private final Map<String, long[]> fases = new LinkedHashMap<String, long[]>(); // Fase -> {nanosegundos, veces}
+	private final AtomicLongArray cuentasDescarga = new AtomicLongArray(LIMITES_DESCARGA.length + 1);
+	private final LongAdder nanosDescarga = new LongAdder();
+
+	/**
+	 * @return Métricas compartidas por todo el proceso.
+	 */
+	public static Metricas getGlobal() {
+		return GLOBAL;
+	}
+
+	public void incrementar(String contador, long cantidad) {
+		contadores.computeIfAbsent(contador, c -> new LongAdder()).add(cantidad);
+	}
+
+	public long getContador(String contador) {
+		final LongAdder valor = contadores.get(contador);
+		return valor == null ? 0 : valor.sum();
+	}
+
+	/**
+	 * Suma una duración a una fase y genera su evento de JFR.
+	 *
+	 * @param fase  Nombre de la fase.
+	 * @param nanos Duración en nanosegundos.
+	 */
+	public void registrarFase(String fase, long nanos) {
+		synchronized (fases) {
+			final long[] acumulado = fases.computeIfAbsent(fase, f -> new long[2]);
+			acumulado[0] += nanos;
+			acumulado[1]++;
+		}
+		final EventoFase evento = new EventoFase();
+		if (evento.shouldCommit()) {
+			evento.fase = fase;
+			evento.duracion = nanos;
+			evento.commit();
+		}
+	}
+
+	/**
+	 * Anota el resultado de la descarga de un dataset en los contadores y en el histograma de duraciones.
+	 */
+	public void registrarDescarga(ResultadoDescarga descarga) {
+		if (descarga.getEstado() == ResultadoDescarga.Estado.NO_INICIADA) return;
+		incrementar(descarga.getEstado() == ResultadoDescarga.Estado.COMPLETADA ? DATASETS_DESCARGADOS
+				: DESCARGAS_FALLIDAS, 1);
+		incrementar(BYTES_DESCARGADOS, descarga.getBytesLeidos());
+		incrementar(RESOURCES_COINCIDENTES, descarga.getNumResources());
+		final double segundos = descarga.getDuracionNanos() / 1e9;
+		int intervalo = 0;
+		while (intervalo < LIMITES_DESCARGA.length && segundos > LIMITES_DESCARGA[intervalo])
+			intervalo++;
+		cuentasDescarga.incrementAndGet(intervalo);
+		nanosDescarga.add(descarga.getDuracionNanos());
+	}
+
+	/**
+	 * Guarda las métricas en un fichero: en JSON si su nombre termina en <code>.json</code> y en el formato de texto de
+	 * Prometheus en otro caso.
+	 */
+	public void guardar(File fichero) throws IOException {
+		try (Writer salida = Files.newBufferedWriter(fichero.toPath(), StandardCharsets.UTF_8)) {
+			if (fichero.getName().endsWith(".json")) escribirJSON(salida);
+			else escribirPrometheus(salida);
+		}
+	}
+
+	public void escribirJSON(Writer salida) throws IOException {
+		final JsonWriter writer = new JsonWriter(salida);
+		writer.setIndent("\t");
+		writer.beginObject();
+		writer.name("contadores").beginObject();
+		for (Map.Entry<String, Long> contador : getContadores().entrySet())
+			writer.name(contador.getKey()).value(contador.getValue());
+		writer.endObject();
+		writer.name("fases").beginObject();
+		for (Map.Entry<String, long[]> fase : getFases().entrySet()) {
+			writer.name(fase.getKey()).beginObject();
+			writer.name("total_ms").value(fase.getValue()[0] / 1e6);
+			writer.name("veces").value(fase.getValue()[1]);
+			writer.endObject();
+		}
+		writer.endObject();
+		final long[] acumuladas = getCuentasAcumuladas();
+		writer.name("descargas").beginObject();
+		writer.name("veces").value(acumuladas[LIMITES_DESCARGA.length]);
+		writer.name("total_ms").value(nanosDescarga.sum() / 1e6);
+		writer.name("histograma").beginArray();
+		for (int i = 0; i < acumuladas.length; i++) {
+			writer.beginObject();
+			if (i < LIMITES_DESCARGA.length) writer.name("hasta_s").value(LIMITES_DESCARGA[i]);
+			else writer.name("hasta_s").nullValue();
+			writer.name("veces").value(acumuladas[i]);
+			writer.endObject();
+		}
+		writer.endArray();
+		writer.endObject();
+		writer.endObject();
+		writer.flush();
+	}
+
+	/**
+	 * Escribe las métricas en el formato de texto de Prometheus: los contadores con el sufijo <code>_total</code>, las
+	 * fases como un <code>summary</code> y las descargas como un <code>histogram</code>.
+	 */
+	public void escribirPrometheus(Writer salida) throws IOException {
+		for (Map.Entry<String, Long> contador : getContadores().entrySet()) {
+			final String nombre = PREFIJO + contador.getKey() + "_total";
+			salida.write("# TYPE " + nombre + " counter\n");
+			salida.write(nombre + " " + contador.getValue() + "\n");
+		}
+		final String fase = PREFIJO + "fase_segundos";
+		salida.write("# HELP " + fase + " Tiempo acumulado por fase de la extracción\n");
+		salida.write("# TYPE " + fase + " summary\n");
+		for (Map.Entry<String, long[]> entrada : getFases().entrySet()) {
+			final String etiqueta = "{fase=\"" + escapar(entrada.getKey()) + "\"}";
+			salida.write(fase + "_sum" + etiqueta + " " + entrada.getValue()[0] / 1e9 + "\n");
+			salida.write(fase + "_count" + etiqueta + " " + entrada.getValue()[1] + "\n");
+		}
+		final String descarga = PREFIJO + "descarga_dataset_segundos";
+		final long[] acumuladas = getCuentasAcumuladas();
+		salida.write("# HELP " + descarga + " Duración de la descarga y lectura de cada dataset\n");
+		salida.write("# TYPE " + descarga + " histogram\n");
+		for (int i = 0; i < acumuladas.length; i++)
+			salida.write(descarga + "_bucket{le=\""
+					+ (i < LIMITES_DESCARGA.length ? Double.toString(LIMITES_DESCARGA[i]) : "+Inf") + "\"} "
+					+ acumuladas[i] + "\n");
+		salida.write(descarga + "_sum " + nanosDescarga.sum() / 1e9 + "\n");
+		salida.write(descarga + "_count " + acumuladas[LIMITES_DESCARGA.length] + "\n");
+		salida.flush();
+	}
+
+	private Map<String, Long> getContadores() {
+		final Map<String, Long> valores = new TreeMap<String, Long>();
+		for (Map.Entry<String, LongAdder> contador : contadores.entrySet())
+			valores.put(contador.getKey(), contador.getValue().sum());
+		return valores;
+	}
+
+	private Map<String, long[]> getFases() {
+		synchronized (fases) {
+			final Map<String, long[]> copia = new LinkedHashMap<String, long[]>();
+			for (Map.Entry<String, long[]> fase : fases.entrySet())
+				copia.put(fase.getKey(), fase.getValue().clone());
+			return Collections.unmodifiableMap(copia);
+		}
+	}
+
+	/**
+	 * @return Descargas que han durado como mucho cada límite, y en la última posición todas.
+	 */
+	private long[] getCuentasAcumuladas() {
+		final long[] acumuladas = new long[cuentasDescarga.length()];
+		long suma = 0;
+		for (int i = 0; i < acumuladas.length; i++)
+			acumuladas[i] = suma += cuentasDescarga.get(i);
+		return acumuladas;
+	}
+
+	private static String escapar(String valor) {
+		return valor.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+	}
+
+	/**
+	 * Evento de JFR con la duración de una fase.
+	 */
+	@Name("p5.Fase")
+	@Label("Fase de la extracción")
+	@Category("P5_XPATH")
+	static final class EventoFase extends Event {
+		@Label("Fase")
+		String fase;
+		@Label("Duración")
+		@Timespan(Timespan.NANOSECONDS)
+		long duracion;
+	}
+
+	/**
+	 * Evento de JFR de la descarga y lectura de un dataset, desde que se pide hasta que se deja de leer.
+	 */
+	@Name("p5.Descarga")
+	@Label("Descarga de un dataset")
+	@Category("P5_XPATH")
+	static final class EventoDescarga extends Event {
+		@Label("Dataset")
+		String dataset;
+		@Label("Bytes leídos")
+		@DataAmount
+		long bytes;
+		@Label("Resources")
+		int resources;
+		@Label("Límite alcanzado")
+		boolean limiteAlcanzado;
+	}
+}
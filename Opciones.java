@@ -0,0 +1,76 @@
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Separa los argumentos de la aplicación en opciones (con la forma <code>--nombre</code> o
+ * <code>--nombre=valor</code>) y argumentos posicionales, y permite consultar las opciones por su nombre.
+ *
+ * @author Adolfo Trocolí Naranjo, 09218364X, a.trocoli@alumnos.upm.es
+ *
+ */
+public class Opciones {
+
+	private static final String PREFIJO = "--";
+
+	private final Map<String, String> opciones;
+	private final List<String> argumentos;
+
+	/**
+	 * @param args Argumentos recibidos por la aplicación.
+	 */
+	public Opciones(String[] args) {
+		opciones = new LinkedHashMap<String, String>();
+		argumentos = new ArrayList<String>();
+		for (String arg : args) {
+			if (!arg.startsWith(PREFIJO)) {
+				argumentos.add(arg);
+				continue;
+			}
+			final int igual = arg.indexOf('=');
+			if (igual < 0) opciones.put(arg.substring(PREFIJO.length()), "");
+			else opciones.put(arg.substring(PREFIJO.length(), igual), arg.substring(igual + 1));
+		}
+	}
+
+	/**
+	 * @return Argumentos posicionales, en el orden en que se recibieron.
+	 */
+	public String[] getArgumentos() {
+		return argumentos.toArray(new String[0]);
+	}
+
+	/**
+	 * @return Nombres de todas las opciones recibidas.
+	 */
+	public Set<String> getNombres() {
+		return opciones.keySet();
+	}
+
+	public boolean tiene(String nombre) {
+		return opciones.containsKey(nombre);
+	}
+
+	public String get(String nombre, String porDefecto) {
+		final String valor = opciones.get(nombre);
+		return valor == null || valor.isEmpty() ? porDefecto : valor;
+	}
+
+	/**
+	 * @throws NumberFormatException si el valor de la opción no es un entero.
+	 */
+	public int getInt(String nombre, int porDefecto) {
+		final String valor = opciones.get(nombre);
+		return valor == null || valor.isEmpty() ? porDefecto : Integer.parseInt(valor);
+	}
+
+	/**
+	 * @throws NumberFormatException si el valor de la opción no es un entero.
+	 */
+	public long getLong(String nombre, long porDefecto) {
+		final String valor = opciones.get(nombre);
+		return valor == null || valor.isEmpty() ? porDefecto : Long.parseLong(valor);
+	}
+}
@@ -1,16 +1,24 @@
 import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintStream;
+import java.time.Duration;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.SubmissionPublisher;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
 
 import javax.xml.parsers.ParserConfigurationException;
 import javax.xml.parsers.SAXParser;
 import javax.xml.parsers.SAXParserFactory;
+import javax.xml.stream.XMLStreamException;
 
 import org.xml.sax.SAXException;
 
@@ -21,6 +29,73 @@ import org.xml.sax.SAXException;
 
 public class P5_XPATH {
 
+	private static final String SEPARADOR_CODIGOS = ",";
+	// Los ficheros de entrada y salida pueden estar comprimidos con gzip
+	private static final String REGEX_XML = ".*\\.xml(\\" + Compresion.EXTENSION_GZIP + ")?\\z";
+	private static final String REGEX_JSON = ".*\\.json(\\" + Compresion.EXTENSION_GZIP + ")?\\z";
+
+	// Opciones admitidas, con la forma --nombre=valor
+	private static final String OPCION_MOTOR = "motor";
+	private static final String MOTOR_SAX = "sax";
+	private static final String MOTOR_STAX = "stax";
+	private static final String MOTOR_PARALELO = "paralelo";
+	private static final String OPCION_HILOS = "hilos";
+	private static final String OPCION_INSTANTANEA = "instantanea";
+	private static final String OPCION_PIPELINE = "pipeline";
+	private static final String PIPELINE_XPATH = "xpath";
+	private static final String PIPELINE_MEMORIA = "memoria";
+	private static final String OPCION_SIN_XML = "sin-xml";
+	private static final String OPCION_NDJSON = "ndjson";
+	private static final String OPCION_COLUMNAS = "columnas";
+	private static final String OPCION_INDICE_TEXTO = "indice-texto";
+	private static final String OPCION_RECTANGULO = FiltroEspacial.RECTANGULO;
+	private static final String OPCION_RADIO = FiltroEspacial.RADIO;
+	private static final String OPCION_CERCANOS = FiltroEspacial.CERCANOS;
+	private static final String OPCION_DURANTE = FiltroTemporal.DURANTE;
+	private static final String OPCION_DENTRO = FiltroTemporal.DENTRO;
+	private static final String OPCION_ABARCA = FiltroTemporal.ABARCA;
+	private static final String OPCION_TIEMPOS = "tiempos";
+	private static final String OPCION_METRICAS = "metricas";
+	private static final String OPCION_XML_INCREMENTAL = "xml-incremental";
+	private static final String OPCION_FLUJO = "flujo";
+	private static final String OPCION_TIMEOUT_CONEXION = "timeout-conexion";
+	private static final String OPCION_TIMEOUT_LECTURA = "timeout-lectura";
+	private static final String OPCION_DESCARGAS = "descargas";
+	private static final String OPCION_PLAZO_DATASET = "plazo-dataset";
+	private static final String OPCION_PLAZO_TOTAL = "plazo-total";
+	private static final String OPCION_CACHE = "cache";
+	private static final String OPCION_CACHE_MAX_MB = "cache-max-mb";
+	private static final String OPCION_MAX_RESOURCES = "max-resources";
+	private static final String OPCION_MAX_RESOURCES_TOTAL = "max-resources-total";
+	private static final String OPCION_ESTADO = "estado";
+	private static final String OPCION_SERVIDOR = "servidor";
+	private static final String OPCION_RECARGA = "recarga";
+	private static final String OPCION_CACHE_CONSULTAS_MB = "cache-consultas-mb";
+	private static final String OPCION_TTL_RESOURCES = "ttl-resources";
+	private static final String LIMITE_TODOS = "todos";
+	private static final int MAX_RESOURCES = 5;
+	private static final List<String> OPCIONES = Arrays.asList(OPCION_MOTOR, OPCION_HILOS, OPCION_INSTANTANEA,
+			OPCION_PIPELINE, OPCION_SIN_XML, OPCION_NDJSON, OPCION_COLUMNAS, OPCION_INDICE_TEXTO, OPCION_RECTANGULO,
+			OPCION_RADIO, OPCION_CERCANOS, OPCION_DURANTE, OPCION_DENTRO, OPCION_ABARCA, OPCION_TIEMPOS,
+			OPCION_METRICAS, OPCION_XML_INCREMENTAL, OPCION_FLUJO,
+			OPCION_TIMEOUT_CONEXION, OPCION_TIMEOUT_LECTURA, OPCION_DESCARGAS,
+			OPCION_PLAZO_DATASET, OPCION_PLAZO_TOTAL, OPCION_CACHE, OPCION_CACHE_MAX_MB, OPCION_MAX_RESOURCES,
+			OPCION_MAX_RESOURCES_TOTAL, OPCION_ESTADO, OPCION_SERVIDOR, OPCION_RECARGA,
+			OPCION_CACHE_CONSULTAS_MB, OPCION_TTL_RESOURCES);
+	// Opciones que solo se aplican en modo servidor
+	private static final List<String> OPCIONES_SERVIDOR = Arrays.asList(OPCION_RECARGA, OPCION_CACHE_CONSULTAS_MB,
+			OPCION_TTL_RESOURCES);
+	// Opciones que no se aplican en modo servidor, que siempre usa SAX y el pipeline en memoria
+	private static final List<String> OPCIONES_EJECUCION = Arrays.asList(OPCION_MOTOR, OPCION_HILOS, OPCION_INSTANTANEA,
+			OPCION_PIPELINE, OPCION_SIN_XML, OPCION_NDJSON, OPCION_COLUMNAS, OPCION_INDICE_TEXTO, OPCION_RECTANGULO,
+			OPCION_RADIO, OPCION_CERCANOS, OPCION_DURANTE, OPCION_DENTRO, OPCION_ABARCA, OPCION_XML_INCREMENTAL,
+			OPCION_FLUJO, OPCION_TIEMPOS, OPCION_METRICAS, OPCION_ESTADO);
+
+	private static ClienteHTTP clienteHTTP; // Compartido por todas las descargas para reutilizar las conexiones
+	// Compartido por todos los datasets de una ejecución; el modo servidor usa uno por consulta
+	private static final DiccionarioValores diccionario = new DiccionarioValores();
+	private static final List<ResultadoDescarga> descargas = new ArrayList<ResultadoDescarga>(); // De todos los códigos
+
 	/**
 	 * Clase principal de la aplicación de extracción de información del Portal de Datos Abiertos del Ayuntamiento de
 	 * Madrid
@@ -28,42 +103,416 @@ public class P5_XPATH {
 
 	public static void main(String[] args) {
 		
+		final Opciones opciones = new Opciones(args);
+		args = opciones.getArgumentos();
+		verificarOpciones(opciones);
+		if (opciones.tiene(OPCION_SERVIDOR)) {
+			verificarArgsServidor(args);
+			servir(args[0], opciones);
+			return;
+		}
+		// Verificar número, formato y permisos de los argumentos.
+		verificarArgs(args);
+		verificarMotor(args[0], opciones);
+
 		final String ficheroEntrada = args[0];
-		final String codigo = args[1];
+		// Un código repetido se resuelve una sola vez; si no, se descargaría y escribiría sus ficheros dos veces
+		final List<String> codigos = new ArrayList<String>(
+				new LinkedHashSet<String>(Arrays.asList(args[1].split(SEPARADOR_CODIGOS))));
 		final String ficheroSalidaXML = args[2];
 		final String ficheroSalidaJSON = args[3];
 
-		// Verificar número, formato y permisos de los argumentos.
-		verificarArgs(args);
-		
+		final Cronometro cronometro = new Cronometro();
+		// Con --flujo, descargas de cada código y publicadores de los datasets encontrados durante el escaneo
+		final Map<ResultadoBusqueda, SuscriptorDescargas> flujos = new HashMap<ResultadoBusqueda, SuscriptorDescargas>();
+		final List<SubmissionPublisher<String>> publicadores = new ArrayList<SubmissionPublisher<String>>();
 		try {
-			ManejadorXML manejadorXML = crearManejador(ficheroEntrada, codigo);
-			String sNombreCategoria = manejadorXML.getLabel(); 
-			List<String> lConcepts = manejadorXML.getConcepts(); 
-			Map<String, HashMap<String, String>> hDatasets = manejadorXML.getDatasets();
-			Map<String, List<Map<String, String>>> mDatasetConcepts = getDatasetConcepts(lConcepts, hDatasets);
-			ConstructorCatalogoXML.construir(ficheroSalidaXML, sNombreCategoria, lConcepts, hDatasets, codigo,
-					mDatasetConcepts);
-			XPathProcess parser = new XPathProcess(ficheroSalidaXML);
-			ConstructorDocumentoJSON.construir(parser.evaluar(), ficheroSalidaJSON);
+			crearClienteHTTP(opciones);
+			// Un único escaneo del catálogo resuelve todos los códigos solicitados
+			long inicio = System.nanoTime();
+			ParserCatalogoIndexado parserCatalogo;
+			if (opciones.tiene(OPCION_INSTANTANEA)) {
+				parserCatalogo = abrirInstantanea(ficheroEntrada, codigos,
+						opciones.get(OPCION_INSTANTANEA, ficheroEntrada + InstantaneaCatalogo.EXTENSION));
+				cronometro.registrar("apertura instantánea", inicio);
+			} else {
+				parserCatalogo = crearParser(ficheroEntrada, codigos, opciones.get(OPCION_MOTOR, MOTOR_SAX),
+						opciones.getInt(OPCION_HILOS, Runtime.getRuntime().availableProcessors()),
+						parser -> {
+							if (opciones.tiene(OPCION_FLUJO)) suscribirDescargas(parser, flujos, publicadores, opciones);
+						});
+				cerrarPublicadores(publicadores, null);
+				cronometro.registrar("escaneo catálogo", inicio);
+			}
+			final boolean lote = codigos.size() > 1;
+			for (ResultadoBusqueda resultado : parserCatalogo.getResultados()) {
+				final String sufijo = lote ? "_" + resultado.getCodigo() : "";
+				extraer(resultado, parserCatalogo.getIndice(), añadirSufijo(ficheroSalidaXML, sufijo),
+						añadirSufijo(ficheroSalidaJSON, sufijo),
+						opciones.tiene(OPCION_COLUMNAS) ? añadirSufijo(opciones.get(OPCION_COLUMNAS, ""), sufijo) : null,
+						opciones.tiene(OPCION_INDICE_TEXTO)
+								? añadirSufijo(opciones.get(OPCION_INDICE_TEXTO, ""), sufijo)
+								: null,
+						flujos.get(resultado), opciones, cronometro);
+			}
 		} catch (Exception e) {
+			cerrarPublicadores(publicadores, e);
 			e.printStackTrace();
 		}
+		if (opciones.tiene(OPCION_TIEMPOS)) {
+			cronometro.imprimir(System.out);
+			imprimirDescargas(System.out);
+			if (clienteHTTP.getCache() != null) clienteHTTP.getCache().imprimir(System.out);
+		}
+		if (opciones.tiene(OPCION_METRICAS)) {
+			try {
+				Metricas.getGlobal().guardar(new File(opciones.get(OPCION_METRICAS, "")));
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
+		}
 		System.exit(0);
 	}
 
-	private static Map<String, List<Map<String, String>>> getDatasetConcepts(List<String> lConcepts,
-			Map<String, HashMap<String, String>> hDatasets) throws InterruptedException {
-		final int coreCount = Runtime.getRuntime().availableProcessors();
-		final ExecutorService executor = Executors.newFixedThreadPool(coreCount);
-		Map<String, List<Map<String, String>>> mDatasetConcepts = new ConcurrentHashMap<String, List<Map<String, String>>>();
-		for (Map.Entry<String, HashMap<String, String>> entradaFicheroJSON : hDatasets.entrySet()) {
-			executor.execute(new JSONDatasetParser(entradaFicheroJSON.getKey(), lConcepts, mDatasetConcepts));
+	/**
+	 * Modo servidor: carga el catálogo una sola vez y atiende consultas por HTTP con un {@link ServidorConsultas}
+	 * hasta que se detiene el proceso. Cada consulta descarga los datasets con las mismas opciones que una ejecución
+	 * normal.
+	 *
+	 * @param ficheroEntrada Fichero del catálogo.
+	 * @param opciones       Opciones de la aplicación.
+	 */
+	private static void servir(String ficheroEntrada, Opciones opciones) {
+		try {
+			crearClienteHTTP(opciones);
+			final long inicio = System.nanoTime();
+			ServidorConsultas servidor = new ServidorConsultas(new File(ficheroEntrada),
+					opciones.getInt(OPCION_SERVIDOR, ServidorConsultas.PUERTO),
+					Duration.ofSeconds(opciones.getLong(OPCION_RECARGA, ServidorConsultas.PERIODO_RECARGA.getSeconds())),
+					(resultado, indice, fallidos) -> {
+						Map<String, List<Resource>> mResources = new ConcurrentHashMap<String, List<Resource>>();
+						// Un diccionario por consulta: el servidor no termina, y uno compartido crecería sin límite
+						for (ResultadoDescarga descarga : esperarDescargas(lanzarDescargas(indice,
+								resultado.getRaiz(), resultado.getDatasets(), (idDataset, resources) -> {
+									if (resources != null) mResources.put(idDataset, resources);
+								}, opciones, new DiccionarioValores())))
+							if (descarga.isFalloTransitorio()) fallidos.add(descarga.getIdDataset());
+						return mResources;
+					});
+			final long cacheConsultas = opciones.getLong(OPCION_CACHE_CONSULTAS_MB,
+					CacheResultados.TAMAÑO_MAXIMO / (1024 * 1024)) * 1024 * 1024;
+			if (cacheConsultas > 0) servidor.setCache(
+					new CacheResultados(cacheConsultas,
+							opciones.getLong(OPCION_TTL_RESOURCES, CacheResultados.TTL_RESOURCES)),
+					getLimite(opciones, OPCION_MAX_RESOURCES, MAX_RESOURCES) + "/"
+							+ getLimite(opciones, OPCION_MAX_RESOURCES_TOTAL, CupoResources.SIN_LIMITE));
+			servidor.arrancar();
+			System.out.printf("Catálogo %s cargado en %.1f ms. Atendiendo consultas en %s%n", ficheroEntrada,
+					(System.nanoTime() - inicio) / 1e6, servidor.getURL());
+		} catch (Exception e) {
+			e.printStackTrace();
+			System.exit(1);
+		}
+	}
+
+	/**
+	 * Crea el cliente HTTP compartido por todas las descargas, con la caché en disco si se ha pedido.
+	 */
+	private static void crearClienteHTTP(Opciones opciones) throws IOException {
+		clienteHTTP = new ClienteHTTP(
+				Duration.ofSeconds(opciones.getLong(OPCION_TIMEOUT_CONEXION, ClienteHTTP.TIMEOUT_CONEXION.getSeconds())),
+				Duration.ofSeconds(opciones.getLong(OPCION_TIMEOUT_LECTURA, ClienteHTTP.TIMEOUT_LECTURA.getSeconds())));
+		if (opciones.tiene(OPCION_CACHE)) clienteHTTP.setCache(new CacheHTTP(new File(opciones.get(OPCION_CACHE, "")),
+				opciones.getLong(OPCION_CACHE_MAX_MB, CacheHTTP.TAMAÑO_MAXIMO / (1024 * 1024)) * 1024 * 1024));
+	}
+
+	/**
+	 * Descarga los recursos de un resultado y genera sus ficheros de salida XML y JSON. Con el pipeline
+	 * {@value #PIPELINE_MEMORIA} el documento JSON se obtiene directamente de los resultados en memoria, sin volver a
+	 * leer el XML, y la escritura del XML pasa a ser opcional. Con {@value #OPCION_XML_INCREMENTAL} el XML se escribe a
+	 * medida que terminan las descargas. Con {@value #OPCION_ESTADO} solo se descargan los datasets que han cambiado
+	 * desde la ejecución anterior, y si no ha cambiado nada se copian los ficheros de salida guardados. Con
+	 * {@value #OPCION_FLUJO} las descargas ya se han lanzado durante el escaneo y solo se espera a que terminen. Con
+	 * {@value #OPCION_COLUMNAS} los resources se exportan además por columnas con {@link ColumnasResources}, y con
+	 * {@value #OPCION_INDICE_TEXTO} se escribe el {@link IndiceTexto} de los datasets y resources. Las
+	 * salidas solo incluyen los resources que pasan el {@link FiltroEspacial} y el {@link FiltroTemporal} de las
+	 * opciones, si los hay.
+	 *
+	 * @param resultado         Resultado de la búsqueda de un código.
+	 * @param indice            Índice de concepts del catálogo.
+	 * @param ficheroSalidaXML  Fichero XML de salida.
+	 * @param ficheroSalidaJSON Fichero JSON de salida.
+	 * @param ficheroColumnas   Fichero de los resources por columnas, o null si no se exportan.
+	 * @param ficheroIndice     Fichero del índice de texto, o null si no se escribe.
+	 * @param flujo             Descargas lanzadas durante el escaneo, o null si no se han lanzado.
+	 * @param opciones          Opciones de la aplicación.
+	 * @param cronometro        Cronómetro en el que se registra la duración de cada fase.
+	 */
+	private static void extraer(ResultadoBusqueda resultado, IndiceConceptos indice, String ficheroSalidaXML,
+			String ficheroSalidaJSON, String ficheroColumnas, String ficheroIndice, SuscriptorDescargas flujo,
+			Opciones opciones, Cronometro cronometro) throws Exception {
+		final boolean enMemoria = opciones.get(OPCION_PIPELINE, PIPELINE_XPATH).equals(PIPELINE_MEMORIA);
+		String sNombreCategoria = resultado.getLabel();
+		List<String> lConcepts = resultado.getConcepts();
+		Map<String, HashMap<String, String>> hDatasets = resultado.getDatasets();
+		EvaluadorMemoria evaluador = null;
+		EstadoIncremental estado = null;
+		Map<String, List<Resource>> mDatasetConcepts = null;
+		final List<FiltroResources> filtros = getFiltros(opciones);
+		long inicio = System.nanoTime();
+		if (opciones.tiene(OPCION_ESTADO)) {
+			estado = new EstadoIncremental(new File(opciones.get(OPCION_ESTADO, "")), resultado, indice,
+					getLimite(opciones, OPCION_MAX_RESOURCES, MAX_RESOURCES)
+							+ (opciones.tiene(OPCION_NDJSON) ? "/" + OPCION_NDJSON : "")
+							+ filtros.stream().map(filtro -> "/" + filtro).collect(Collectors.joining()),
+					diccionario);
+			if (estado.copiarSalidas(opciones.tiene(OPCION_SIN_XML) ? null : ficheroSalidaXML, ficheroSalidaJSON)) {
+				System.out.println("Código " + resultado.getCodigo() + " sin cambios: ficheros de salida reutilizados");
+				cronometro.registrar("reutilización salidas", inicio);
+				return;
+			}
+		}
+		if (opciones.tiene(OPCION_XML_INCREMENTAL)) {
+			EscritorCatalogoXML escritor = new EscritorCatalogoXML(ficheroSalidaXML,
+					opciones.getInt(OPCION_DESCARGAS, PlanificadorDescargas.DESCARGAS_SIMULTANEAS));
+			if (enMemoria) {
+				evaluador = new EvaluadorMemoria(resultado.getCodigo(), hDatasets);
+				escritor.setEvaluador(evaluador);
+			}
+			try {
+				escritor.escribirCabecera(lConcepts, hDatasets, resultado.getCodigo());
+				PlanificadorDescargas planificador = lanzarDescargas(indice, resultado.getRaiz(), hDatasets, escritor,
+						opciones, diccionario);
+				escritor.escribirResources(hDatasets.size());
+				terminarDescargas(planificador);
+			} finally {
+				escritor.cerrar();
+			}
+			cronometro.registrar("descarga + escritura XML", inicio);
+		} else {
+			if (estado != null) {
+				// Solo se descargan los datasets nuevos o modificados; hDatasets se mantiene completo para la salida
+				Map<String, HashMap<String, String>> cambiados = new HashMap<String, HashMap<String, String>>(hDatasets);
+				cambiados.keySet().removeAll(estado.getReutilizables().keySet());
+				mDatasetConcepts = getDatasetConcepts(indice, resultado.getRaiz(), cambiados, opciones);
+				mDatasetConcepts.putAll(estado.getReutilizables());
+				System.out.println("Código " + resultado.getCodigo() + ": " + estado.getReutilizables().size()
+						+ " datasets reutilizados, " + cambiados.size() + " descargados");
+			} else if (flujo != null) {
+				terminarDescargas(flujo.esperar());
+				mDatasetConcepts = flujo.getResources();
+			} else {
+				mDatasetConcepts = getDatasetConcepts(indice, resultado.getRaiz(), hDatasets, opciones);
+			}
+			cronometro.registrar("descarga datasets", inicio);
+			// El estado guarda todos los resources descargados; las salidas, solo los que pasan el filtro
+			Map<String, List<Resource>> mSalida = mDatasetConcepts;
+			if (!filtros.isEmpty()) {
+				inicio = System.nanoTime();
+				mSalida = FiltroResources.filtrar(filtros, mDatasetConcepts);
+				cronometro.registrar("filtros resources", inicio);
+			}
+			if (!opciones.tiene(OPCION_SIN_XML)) {
+				inicio = System.nanoTime();
+				ConstructorCatalogoXML.construir(ficheroSalidaXML, sNombreCategoria, lConcepts, hDatasets,
+						resultado.getCodigo(), mSalida);
+				cronometro.registrar("escritura XML", inicio);
+			}
+			if (ficheroColumnas != null) {
+				inicio = System.nanoTime();
+				ColumnasResources.escribir(new File(ficheroColumnas), mSalida);
+				cronometro.registrar("escritura columnas", inicio);
+			}
+			if (ficheroIndice != null) {
+				inicio = System.nanoTime();
+				IndiceTexto.escribir(new File(ficheroIndice), hDatasets, mSalida);
+				cronometro.registrar("escritura índice texto", inicio);
+			}
+			if (enMemoria) evaluador = new EvaluadorMemoria(resultado.getCodigo(), hDatasets, mSalida);
+		}
+		ContenidoJSON contenido = evaluador;
+		if (!enMemoria) {
+			inicio = System.nanoTime();
+			contenido = new XPathProcess(ficheroSalidaXML).evaluar();
+			cronometro.registrar("evaluación XPath", inicio);
+		}
+		inicio = System.nanoTime();
+		try {
+			ConstructorDocumentoJSON.construir(contenido, ficheroSalidaJSON, opciones.tiene(OPCION_NDJSON));
+		} finally {
+			if (evaluador != null) evaluador.cerrar();
 		}
-		executor.shutdown();
+		cronometro.registrar("escritura JSON", inicio);
+		if (estado != null) {
+			inicio = System.nanoTime();
+			estado.guardar(mDatasetConcepts, opciones.tiene(OPCION_SIN_XML) ? null : ficheroSalidaXML,
+					ficheroSalidaJSON);
+			cronometro.registrar("guardado estado", inicio);
+		}
+	}
+
+	/**
+	 * Inserta un sufijo en el nombre de un fichero, justo antes de su extensión.
+	 *
+	 * @param fichero Nombre del fichero.
+	 * @param sufijo  Sufijo a insertar.
+	 * @return Nombre del fichero con el sufijo.
+	 */
+	private static String añadirSufijo(String fichero, String sufijo) {
+		// La extensión de compresión va detrás de la del formato: salida.xml.gz -> salida_018.xml.gz
+		final String compresion = Compresion.getExtension(fichero);
+		fichero = Compresion.sinCompresion(fichero);
+		final int punto = fichero.lastIndexOf('.');
+		if (sufijo.isEmpty() || punto < 0) return fichero + sufijo + compresion;
+		return fichero.substring(0, punto) + sufijo + fichero.substring(punto) + compresion;
+	}
+
+	/**
+	 * Descarga todos los datasets y espera a que terminen.
+	 *
+	 * @return Resources de cada dataset que se ha podido leer.
+	 */
+	private static Map<String, List<Resource>> getDatasetConcepts(IndiceConceptos indice, int raiz,
+			Map<String, HashMap<String, String>> hDatasets, Opciones opciones) throws InterruptedException {
+		Map<String, List<Resource>> mDatasetConcepts = new ConcurrentHashMap<String, List<Resource>>();
+		PlanificadorDescargas planificador = lanzarDescargas(indice, raiz, hDatasets, (idDataset, resources) -> {
+			if (resources != null) mDatasetConcepts.put(idDataset, resources);
+		}, opciones, diccionario);
+		terminarDescargas(planificador);
 		return mDatasetConcepts;
 	}
 
+	/**
+	 * Lanza un {@link JSONDatasetParser} por cada dataset, que entregará sus resources al receptor indicado, con los
+	 * límites de concurrencia y plazos de las opciones.
+	 *
+	 * @param diccionario Diccionario con el que los parsers comparten los valores repetidos.
+	 * @return Planificador de las descargas, para esperar a que terminen.
+	 */
+	private static PlanificadorDescargas lanzarDescargas(IndiceConceptos indice, int raiz,
+			Map<String, HashMap<String, String>> hDatasets, ReceptorResources receptor, Opciones opciones,
+			DiccionarioValores diccionario) {
+		final PlanificadorDescargas planificador = crearPlanificador(opciones);
+		final int maxResources = getLimite(opciones, OPCION_MAX_RESOURCES, MAX_RESOURCES);
+		final CupoResources cupo = new CupoResources(
+				getLimite(opciones, OPCION_MAX_RESOURCES_TOTAL, CupoResources.SIN_LIMITE));
+		final List<JSONDatasetParser> parsers = new ArrayList<JSONDatasetParser>();
+		for (String idDataset : hDatasets.keySet())
+			parsers.add(new JSONDatasetParser(idDataset, indice, raiz, clienteHTTP, maxResources, cupo,
+					diccionario));
+		planificador.lanzar(parsers, receptor);
+		return planificador;
+	}
+
+	/**
+	 * Prepara la descarga de los datasets de cada código a medida que el escaneo los encuentra: cada resultado publica
+	 * los ids de sus datasets a un {@link SuscriptorDescargas}. El buffer de cada publicador admite tantos ids como
+	 * descargas simultáneas, así que el escaneo nunca adelanta a las descargas en más del doble de ese número.
+	 *
+	 * @param parser       Parser del catálogo, todavía sin escanear.
+	 * @param flujos       Mapa en el que se guarda el suscriptor de cada resultado.
+	 * @param publicadores Lista en la que se guardan los publicadores, para cerrarlos al terminar el escaneo.
+	 * @param opciones     Opciones de la aplicación.
+	 */
+	private static void suscribirDescargas(ParserCatalogoIndexado parser,
+			Map<ResultadoBusqueda, SuscriptorDescargas> flujos, List<SubmissionPublisher<String>> publicadores,
+			Opciones opciones) {
+		final int demanda = opciones.getInt(OPCION_DESCARGAS, PlanificadorDescargas.DESCARGAS_SIMULTANEAS);
+		final int maxResources = getLimite(opciones, OPCION_MAX_RESOURCES, MAX_RESOURCES);
+		for (ResultadoBusqueda resultado : parser.getResultados()) {
+			final CupoResources cupo = new CupoResources(
+					getLimite(opciones, OPCION_MAX_RESOURCES_TOTAL, CupoResources.SIN_LIMITE));
+			// Los datasets se publican después de leer el árbol de concepts, cuando el índice ya está completo
+			final SuscriptorDescargas suscriptor = new SuscriptorDescargas(crearPlanificador(opciones),
+					idDataset -> new JSONDatasetParser(idDataset, parser.getIndice(), resultado.getRaiz(), clienteHTTP,
+							maxResources, cupo, diccionario),
+					demanda);
+			final SubmissionPublisher<String> publicador = new SubmissionPublisher<String>(ForkJoinPool.commonPool(),
+					demanda);
+			publicador.subscribe(suscriptor);
+			resultado.setPublicador(publicador);
+			flujos.put(resultado, suscriptor);
+			publicadores.add(publicador);
+		}
+	}
+
+	/**
+	 * Cierra los publicadores de datasets al terminar el escaneo, normalmente o por un error.
+	 *
+	 * @param publicadores Publicadores a cerrar.
+	 * @param error        Error del escaneo, o null si ha terminado bien.
+	 */
+	private static void cerrarPublicadores(List<SubmissionPublisher<String>> publicadores, Throwable error) {
+		for (SubmissionPublisher<String> publicador : publicadores)
+			if (error == null) publicador.close();
+			else publicador.closeExceptionally(error);
+	}
+
+	/**
+	 * @return Planificador de descargas con los límites de concurrencia y plazos de las opciones.
+	 */
+	private static PlanificadorDescargas crearPlanificador(Opciones opciones) {
+		return new PlanificadorDescargas(opciones.getInt(OPCION_DESCARGAS, PlanificadorDescargas.DESCARGAS_SIMULTANEAS),
+				Duration.ofSeconds(opciones.getLong(OPCION_PLAZO_DATASET, PlanificadorDescargas.PLAZO_DATASET.getSeconds())),
+				Duration.ofSeconds(opciones.getLong(OPCION_PLAZO_TOTAL, 0)));
+	}
+
+	/**
+	 * Espera a que terminen las descargas, muestra por la salida de error los datasets que no se han podido leer y
+	 * guarda los resultados para el informe final.
+	 */
+	private static void terminarDescargas(PlanificadorDescargas planificador) throws InterruptedException {
+		descargas.addAll(esperarDescargas(planificador));
+	}
+
+	/**
+	 * Espera a que terminen las descargas, muestra por la salida de error los datasets que no se han podido leer y
+	 * anota todas en las {@link Metricas}.
+	 *
+	 * @return Resultado de cada descarga.
+	 */
+	private static List<ResultadoDescarga> esperarDescargas(PlanificadorDescargas planificador)
+			throws InterruptedException {
+		final List<ResultadoDescarga> resultados = planificador.esperar();
+		for (ResultadoDescarga resultado : resultados) {
+			Metricas.getGlobal().registrarDescarga(resultado);
+			if (resultado.getEstado() != ResultadoDescarga.Estado.COMPLETADA) System.err.println(resultado);
+		}
+		return resultados;
+	}
+
+	/**
+	 * Imprime, por dataset, los bytes recibidos frente al Content-Length, para ver cuánto evita descargar el corte al
+	 * alcanzar el máximo de resources.
+	 */
+	private static void imprimirDescargas(PrintStream salida) {
+		long leidos = 0;
+		salida.println("Descargas (bytes leídos / Content-Length):");
+		for (ResultadoDescarga descarga : descargas) {
+			salida.printf("\t%10d / %10s %-10s %s%n", descarga.getBytesLeidos(),
+					descarga.getLongitud() < 0 ? "?" : Long.toString(descarga.getLongitud()),
+					descarga.isLimiteAlcanzado() ? "(cortada)" : "", descarga.getIdDataset());
+			leidos += descarga.getBytesLeidos();
+		}
+		salida.printf("\t%10d %24s%n", leidos, "total");
+	}
+
+	/**
+	 * @return Filtros de resources de las opciones, que pueden no ser ninguno.
+	 */
+	private static List<FiltroResources> getFiltros(Opciones opciones) {
+		return FiltroResources.crear(tipo -> opciones.tiene(tipo) ? opciones.get(tipo, "") : null);
+	}
+
+	/**
+	 * @return Valor numérico de una opción de límite, {@link CupoResources#SIN_LIMITE} si vale
+	 *         {@value #LIMITE_TODOS}, o el valor por defecto si no se ha indicado.
+	 */
+	private static int getLimite(Opciones opciones, String nombre, int porDefecto) {
+		if (opciones.get(nombre, "").equals(LIMITE_TODOS)) return CupoResources.SIN_LIMITE;
+		return opciones.getInt(nombre, porDefecto);
+	}
+
 	/**
 	 * Llama a todos los submétodos pertinentes de verificación de los argumentos iniciales.
 	 * 
@@ -76,19 +525,94 @@ public class P5_XPATH {
 	}
 
 	/**
-	 * Crea el manejador conociendo el fichero de entrada y el codigo a buscar.
+	 * Verifica que en modo servidor solo se reciba el fichero del catálogo y que se pueda leer, y envía un mensaje de
+	 * error en caso contrario
+	 */
+	private static void verificarArgsServidor(String[] args) {
+		if (args.length != 1 || !args[0].matches(REGEX_XML) || !new File(args[0]).canRead()) {
+			mostrarUso("ERROR: Argumentos incorrectos. Con --" + OPCION_SERVIDOR
+					+ " solo se indica el fichero del catálogo, he recibido estos argumentos: "
+					+ Arrays.asList(args).toString() + "\n");
+			System.exit(1);
+		}
+	}
+
+	/**
+	 * Escanea el fichero de entrada con el motor indicado.
 	 * 
 	 * @param ficheroEntrada Fichero de entrada.
-	 * @param codigo         Codigo a buscar.
+	 * @param codigos        Codigos a buscar.
+	 * @param motor          Motor de escaneo: {@value #MOTOR_SAX}, {@value #MOTOR_STAX} o {@value #MOTOR_PARALELO}.
+	 * @param hilos          Hilos del motor {@value #MOTOR_PARALELO}.
+	 * @param preparar       Acción sobre el parser ya creado, antes de empezar el escaneo.
+	 * @return Parser con los resultados de escanear el archivo de entrada.
+	 */
+	private static ParserCatalogoIndexado crearParser(final String ficheroEntrada, final List<String> codigos,
+			final String motor, final int hilos, final Consumer<ParserCatalogoIndexado> preparar)
+			throws ParserConfigurationException, SAXException, IOException, XMLStreamException, InterruptedException {
+		if (motor.equals(MOTOR_STAX)) return crearManejadorStAX(ficheroEntrada, codigos, preparar);
+		if (motor.equals(MOTOR_PARALELO)) {
+			ManejadorParalelo manejadorParalelo = new ManejadorParalelo(codigos, hilos);
+			preparar.accept(manejadorParalelo);
+			manejadorParalelo.parsear(new File(ficheroEntrada));
+			return manejadorParalelo;
+		}
+		return crearManejador(ficheroEntrada, codigos, preparar);
+	}
+
+	/**
+	 * Resuelve los códigos con la instantánea binaria del catálogo, que se genera de nuevo si no existe o el catálogo
+	 * ha cambiado.
+	 * 
+	 * @param ficheroEntrada     Fichero de entrada.
+	 * @param codigos            Codigos a buscar.
+	 * @param ficheroInstantanea Fichero de la instantánea.
+	 * @return Instantánea con los resultados de la búsqueda.
+	 */
+	private static InstantaneaCatalogo abrirInstantanea(final String ficheroEntrada, final List<String> codigos,
+			final String ficheroInstantanea) throws ParserConfigurationException, SAXException, IOException {
+		InstantaneaCatalogo instantanea = new InstantaneaCatalogo(codigos);
+		instantanea.abrir(new File(ficheroEntrada), new File(ficheroInstantanea));
+		return instantanea;
+	}
+
+	/**
+	 * Crea el manejador StAX conociendo el fichero de entrada y los codigos a buscar.
+	 * 
+	 * @param ficheroEntrada Fichero de entrada.
+	 * @param codigos        Codigos a buscar.
+	 * @param preparar       Acción sobre el manejador ya creado, antes de empezar el escaneo.
+	 * @return Manejador con los resultados de escanear el archivo de entrada.
+	 */
+	private static ManejadorStAX crearManejadorStAX(final String ficheroEntrada, final List<String> codigos,
+			final Consumer<ParserCatalogoIndexado> preparar) throws IOException, XMLStreamException {
+		ManejadorStAX manejadorStAX = new ManejadorStAX(codigos);
+		preparar.accept(manejadorStAX);
+		try (InputStream entrada = Compresion.abrirEntrada(new File(ficheroEntrada))) {
+			manejadorStAX.parsear(entrada);
+		}
+		return manejadorStAX;
+	}
+
+	/**
+	 * Crea el manejador conociendo el fichero de entrada y los codigos a buscar.
+	 * 
+	 * @param ficheroEntrada Fichero de entrada.
+	 * @param codigos        Codigos a buscar.
+	 * @param preparar       Acción sobre el manejador ya creado, antes de empezar el escaneo.
 	 * @return Manejador con los resultados de escanear el archivo de entrada.
 	 */
-	private static ManejadorXML crearManejador(final String ficheroEntrada, final String codigo)
-			throws ParserConfigurationException, SAXException, IOException {
+	private static ManejadorXML crearManejador(final String ficheroEntrada, final List<String> codigos,
+			final Consumer<ParserCatalogoIndexado> preparar) throws ParserConfigurationException, SAXException,
+			IOException {
 		SAXParserFactory factory = SAXParserFactory.newInstance();
 		factory.setNamespaceAware(true);
 		SAXParser saxParser = factory.newSAXParser();
-		ManejadorXML manejadorXML = new ManejadorXML(codigo);
-		saxParser.parse(new File(ficheroEntrada), manejadorXML);
+		ManejadorXML manejadorXML = new ManejadorXML(codigos);
+		preparar.accept(manejadorXML);
+		try (InputStream entrada = Compresion.abrirEntrada(new File(ficheroEntrada))) {
+			saxParser.parse(entrada, manejadorXML);
+		}
 		return manejadorXML;
 	}
 
@@ -111,9 +635,10 @@ public class P5_XPATH {
 	 * Verifica que el formato de los argumentos sea correcto y envía un mensaje de error en caso contrario
 	 */
 	private static void verificarFormatoArgs(String[] args) {
-		String regexXML = ".*\\.xml\\z";
-		String regexJSON = ".*\\.json\\z";
-		String regexCriterio = "^\\d{3,4}(-[0-9A-Z]{3,8})?\\z";
+		String regexXML = REGEX_XML;
+		String regexJSON = REGEX_JSON;
+		String regexCodigo = "\\d{3,4}(-[0-9A-Z]{3,8})?";
+		String regexCriterio = "^" + regexCodigo + "(" + SEPARADOR_CODIGOS + regexCodigo + ")*\\z";
 		if (!args[0].matches(regexXML) || !args[1].matches(regexCriterio) || !args[2].matches(regexXML)
 				|| !args[3].matches(regexJSON)) {
 			String mensaje = "ERROR: Argumentos incorrectos.";
@@ -123,6 +648,124 @@ public class P5_XPATH {
 		}
 	}
 
+	/**
+	 * Verifica que el motor de escaneo pueda leer el fichero de entrada y envía un mensaje de error en caso contrario.
+	 * El motor {@value #MOTOR_PARALELO} proyecta el fichero en memoria para repartirlo entre los hilos, lo que no es
+	 * posible con un fichero comprimido.
+	 */
+	private static void verificarMotor(String ficheroEntrada, Opciones opciones) {
+		if (Compresion.isComprimido(ficheroEntrada) && opciones.get(OPCION_MOTOR, MOTOR_SAX).equals(MOTOR_PARALELO)) {
+			mostrarUso("ERROR: Opciones incorrectas. --" + OPCION_MOTOR + "=" + MOTOR_PARALELO
+					+ " requiere un catálogo sin comprimir\n");
+			System.exit(1);
+		}
+	}
+
+	/**
+	 * Verifica que las opciones recibidas existan y tengan un valor válido, y envía un mensaje de error en caso
+	 * contrario
+	 */
+	private static void verificarOpciones(Opciones opciones) {
+		String mensaje = null;
+		for (String nombre : opciones.getNombres())
+			if (!OPCIONES.contains(nombre)) mensaje = "Opción desconocida: --" + nombre;
+		final String motor = opciones.get(OPCION_MOTOR, MOTOR_SAX);
+		if (!Arrays.asList(MOTOR_SAX, MOTOR_STAX, MOTOR_PARALELO).contains(motor)) mensaje = "Motor desconocido: " + motor;
+		if (!opciones.get(OPCION_HILOS, "1").matches("[1-9]\\d{0,3}"))
+			mensaje = "--" + OPCION_HILOS + " debe ser un número mayor que 0";
+		else if (opciones.tiene(OPCION_HILOS) && !motor.equals(MOTOR_PARALELO))
+			mensaje = "--" + OPCION_HILOS + " requiere --" + OPCION_MOTOR + "=" + MOTOR_PARALELO;
+		final String pipeline = opciones.get(OPCION_PIPELINE, PIPELINE_XPATH);
+		if (!pipeline.equals(PIPELINE_XPATH) && !pipeline.equals(PIPELINE_MEMORIA))
+			mensaje = "Pipeline desconocido: " + pipeline;
+		else if (pipeline.equals(PIPELINE_XPATH) && opciones.tiene(OPCION_SIN_XML))
+			mensaje = "--" + OPCION_SIN_XML + " requiere --" + OPCION_PIPELINE + "=" + PIPELINE_MEMORIA;
+		else if (opciones.tiene(OPCION_SIN_XML) && opciones.tiene(OPCION_XML_INCREMENTAL))
+			mensaje = "--" + OPCION_SIN_XML + " y --" + OPCION_XML_INCREMENTAL + " son incompatibles";
+		// La cabecera del XML incremental necesita la lista completa de datasets, que solo se conoce al final del escaneo
+		if (opciones.tiene(OPCION_FLUJO) && (opciones.tiene(OPCION_XML_INCREMENTAL) || opciones.tiene(OPCION_ESTADO)
+				|| opciones.tiene(OPCION_INSTANTANEA)))
+			mensaje = "--" + OPCION_FLUJO + " no admite --" + OPCION_XML_INCREMENTAL + ", --" + OPCION_ESTADO + " ni --"
+					+ OPCION_INSTANTANEA;
+		if (opciones.tiene(OPCION_INSTANTANEA) && (opciones.tiene(OPCION_MOTOR) || opciones.tiene(OPCION_HILOS)))
+			mensaje = "--" + OPCION_INSTANTANEA + " no escanea el catálogo y no admite --" + OPCION_MOTOR + " ni --"
+					+ OPCION_HILOS;
+		if (opciones.tiene(OPCION_ESTADO)) {
+			if (opciones.get(OPCION_ESTADO, "").isEmpty()) mensaje = "--" + OPCION_ESTADO + " requiere un directorio";
+			else if (opciones.tiene(OPCION_XML_INCREMENTAL))
+				mensaje = "--" + OPCION_ESTADO + " y --" + OPCION_XML_INCREMENTAL + " son incompatibles";
+			// Con un cupo global los resources de cada dataset dependen de los demás y no se pueden reutilizar por separado
+			else if (!opciones.get(OPCION_MAX_RESOURCES_TOTAL, LIMITE_TODOS).equals(LIMITE_TODOS))
+				mensaje = "--" + OPCION_ESTADO + " requiere --" + OPCION_MAX_RESOURCES_TOTAL + "=" + LIMITE_TODOS;
+		}
+		for (String opcion : Arrays.asList(OPCION_TIMEOUT_CONEXION, OPCION_TIMEOUT_LECTURA))
+			if (!opciones.get(opcion, "1").matches("[1-9]\\d*"))
+				mensaje = "--" + opcion + " debe ser un número de segundos mayor que 0";
+		for (String opcion : Arrays.asList(OPCION_MAX_RESOURCES, OPCION_MAX_RESOURCES_TOTAL))
+			if (!opciones.get(opcion, LIMITE_TODOS).matches("[1-9]\\d{0,8}|" + LIMITE_TODOS))
+				mensaje = "--" + opcion + " debe ser un número mayor que 0 o " + LIMITE_TODOS;
+		if (opciones.tiene(OPCION_COLUMNAS)) {
+			final String columnas = opciones.get(OPCION_COLUMNAS, "");
+			if (columnas.isEmpty()) mensaje = "--" + OPCION_COLUMNAS + " requiere un fichero";
+			// El fichero binario se lee proyectándolo en memoria
+			else if (Compresion.isComprimido(columnas) && !ColumnasResources.isCSV(columnas))
+				mensaje = "--" + OPCION_COLUMNAS + " solo admite ficheros comprimidos en CSV";
+			// Sin los resources en memoria (se escriben según llegan) o con las salidas reutilizadas no hay qué exportar
+			else if (opciones.tiene(OPCION_XML_INCREMENTAL) || opciones.tiene(OPCION_ESTADO))
+				mensaje = "--" + OPCION_COLUMNAS + " no admite --" + OPCION_XML_INCREMENTAL + " ni --" + OPCION_ESTADO;
+		}
+		if (opciones.tiene(OPCION_INDICE_TEXTO)) {
+			final String indiceTexto = opciones.get(OPCION_INDICE_TEXTO, "");
+			if (indiceTexto.isEmpty()) mensaje = "--" + OPCION_INDICE_TEXTO + " requiere un fichero";
+			else if (Compresion.isComprimido(indiceTexto))
+				mensaje = "--" + OPCION_INDICE_TEXTO + " no admite ficheros comprimidos";
+			else if (opciones.tiene(OPCION_XML_INCREMENTAL) || opciones.tiene(OPCION_ESTADO))
+				mensaje = "--" + OPCION_INDICE_TEXTO + " no admite --" + OPCION_XML_INCREMENTAL + " ni --"
+						+ OPCION_ESTADO;
+			// Un índice con solo los primeros resources de cada dataset no encontraría los demás
+			else if (!opciones.get(OPCION_MAX_RESOURCES, "").equals(LIMITE_TODOS)
+					|| !opciones.get(OPCION_MAX_RESOURCES_TOTAL, LIMITE_TODOS).equals(LIMITE_TODOS))
+				mensaje = "--" + OPCION_INDICE_TEXTO + " requiere --" + OPCION_MAX_RESOURCES + "=" + LIMITE_TODOS
+						+ " y --" + OPCION_MAX_RESOURCES_TOTAL + "=" + LIMITE_TODOS;
+		}
+		try {
+			// Con el XML incremental los resources se escriben según llegan, antes de conocerlos todos
+			if (!getFiltros(opciones).isEmpty() && opciones.tiene(OPCION_XML_INCREMENTAL))
+				mensaje = "--" + OPCION_XML_INCREMENTAL + " no admite filtros de resources";
+		} catch (IllegalArgumentException e) {
+			mensaje = "--" + e.getMessage();
+		}
+		if (opciones.tiene(OPCION_METRICAS) && opciones.get(OPCION_METRICAS, "").isEmpty())
+			mensaje = "--" + OPCION_METRICAS + " requiere un fichero";
+		if (opciones.tiene(OPCION_CACHE) && opciones.get(OPCION_CACHE, "").isEmpty())
+			mensaje = "--" + OPCION_CACHE + " requiere un directorio";
+		if (!opciones.get(OPCION_CACHE_MAX_MB, "1").matches("[1-9]\\d*"))
+			mensaje = "--" + OPCION_CACHE_MAX_MB + " debe ser un número mayor que 0";
+		if (!opciones.get(OPCION_DESCARGAS, "1").matches("[1-9]\\d*"))
+			mensaje = "--" + OPCION_DESCARGAS + " debe ser un número mayor que 0";
+		for (String opcion : Arrays.asList(OPCION_PLAZO_DATASET, OPCION_PLAZO_TOTAL))
+			if (!opciones.get(opcion, "0").matches("\\d+"))
+				mensaje = "--" + opcion + " debe ser un número de segundos (0 para no limitarlo)";
+		if (!opciones.get(OPCION_SERVIDOR, "1").matches("\\d{1,5}"))
+			mensaje = "--" + OPCION_SERVIDOR + " debe ser un número de puerto";
+		if (!opciones.get(OPCION_RECARGA, "1").matches("[1-9]\\d*"))
+			mensaje = "--" + OPCION_RECARGA + " debe ser un número de segundos mayor que 0";
+		if (!opciones.get(OPCION_CACHE_CONSULTAS_MB, "0").matches("\\d+"))
+			mensaje = "--" + OPCION_CACHE_CONSULTAS_MB + " debe ser un número (0 para no usarla)";
+		if (!opciones.get(OPCION_TTL_RESOURCES, "1").matches("[1-9]\\d*"))
+			mensaje = "--" + OPCION_TTL_RESOURCES + " debe ser un número de segundos mayor que 0";
+		for (String opcion : OPCIONES_SERVIDOR)
+			if (opciones.tiene(opcion) && !opciones.tiene(OPCION_SERVIDOR))
+				mensaje = "--" + opcion + " requiere --" + OPCION_SERVIDOR;
+		if (opciones.tiene(OPCION_SERVIDOR))
+			for (String opcion : OPCIONES_EJECUCION)
+				if (opciones.tiene(opcion)) mensaje = "--" + opcion + " no se aplica con --" + OPCION_SERVIDOR;
+		if (mensaje != null) {
+			mostrarUso("ERROR: Opciones incorrectas. " + mensaje + "\n");
+			System.exit(1);
+		}
+	}
+
 	/**
 	 * Verifica que el número de argumentos sea correcto y envía un mensaje de error en caso contrario
 	 */
@@ -148,10 +791,63 @@ public class P5_XPATH {
 
 		if (mensaje != null) System.err.println(mensaje + "\n");
 		System.err.println("Uso: " + thisClass.getEnclosingClass().getCanonicalName()
-				+ " <ficheroCatalogo> <códigoCategoría> <ficheroSalida>\n" + "donde:\n"
+				+ " [opciones] <ficheroCatalogo> <códigoCategoría> <ficheroSalidaXML> <ficheroSalidaJSON>\n"
+				+ "   o: " + thisClass.getEnclosingClass().getCanonicalName()
+				+ " --servidor[=puerto] [opciones de descarga] <ficheroCatalogo>\n"
+				+ "donde:\n"
 				+ "\t ficheroCatalogo:\t path al fichero XML con el cat�logo de datos\n"
-				+ "\t códigoCategor�a:\t código de la categoría de la que se desea obtener datos\n"
+				+ "\t códigoCategor�a:\t código de la categoría de la que se desea obtener datos. Se pueden indicar\n"
+				+ "\t\t\t\t varios códigos separados por comas; cada uno genera sus propios ficheros de salida\n"
+				+ "\t\t\t\t con el código como sufijo (p.ej. salida_018.xml)\n"
 				+ "\t ficheroSalidaXML:\t\t nombre del fichero XML de salida\n"
-				+ "\t ficheroSalidaJSON:\t\t nombre del fichero JSON de salida\n");
+				+ "\t ficheroSalidaJSON:\t\t nombre del fichero JSON de salida\n"
+				+ "\t\t\t\t los ficheros terminados en .gz se leen o escriben comprimidos con gzip\n"
+				+ "opciones:\n"
+				+ "\t --motor=sax|stax|paralelo:\t parser usado para escanear el catálogo (por defecto sax); paralelo\n"
+				+ "\t\t\t\t\t reparte la sección de datasets entre varios hilos\n"
+				+ "\t --hilos=n:\t\t\t hilos del motor paralelo (uno por procesador)\n"
+				+ "\t --instantanea[=fichero]:\t resolver los códigos con una instantánea binaria del catálogo, que se\n"
+				+ "\t\t\t\t\t genera si no existe o el catálogo ha cambiado (ficheroCatalogo.instantanea)\n"
+				+ "\t --pipeline=xpath|memoria:\t obtener el JSON releyendo el XML con XPath (por defecto) o\n"
+				+ "\t\t\t\t\t directamente de los resultados en memoria\n"
+				+ "\t --sin-xml:\t\t\t no escribir el fichero XML (solo con --pipeline=memoria)\n"
+				+ "\t --ndjson:\t\t\t escribir el fichero JSON en formato NDJSON, con un objeto por línea\n"
+				+ "\t --rectangulo=latMin,lonMin,latMax,lonMax: incluir solo los resources dentro del rectángulo\n"
+				+ "\t --radio=lat,lon,metros:\t incluir solo los resources a como mucho esa distancia del punto\n"
+				+ "\t --cercanos=lat,lon,k:\t\t incluir solo los k resources más cercanos al punto\n"
+				+ "\t --durante=desde,hasta:\t incluir solo los resources que tienen lugar en algún momento entre"
+				+ " las dos fechas\n"
+				+ "\t --dentro=desde,hasta:\t\t incluir solo los resources que empiezan y terminan entre las dos"
+				+ " fechas\n"
+				+ "\t --abarca=desde,hasta:\t\t incluir solo los resources que empiezan antes de la primera fecha y"
+				+ " terminan después de la segunda\n"
+				+ "\t --columnas=fichero:\t\t exportar también los resources en un fichero binario por columnas, o\n"
+				+ "\t\t\t\t\t en CSV si el fichero termina en .csv\n"
+				+ "\t --indice-texto=fichero:\t escribir también un índice de texto de los datasets y resources, que se\n"
+				+ "\t\t\t\t\t consulta con: java IndiceTexto fichero \"consulta\" [máximo]\n"
+				+ "\t --xml-incremental:\t\t escribir los resources de cada dataset en cuanto termina su descarga\n"
+				+ "\t --flujo:\t\t\t empezar a descargar cada dataset en cuanto lo encuentra el escaneo del\n"
+				+ "\t\t\t\t\t catálogo, sin esperar a que termine\n"
+				+ "\t --timeout-conexion=s:\t tiempo máximo para conectar con el servidor de un dataset (10 s)\n"
+				+ "\t --timeout-lectura=s:\t\t tiempo máximo de espera de datos durante una descarga (30 s)\n"
+				+ "\t --descargas=n:\t\t número máximo de descargas simultáneas (16)\n"
+				+ "\t --plazo-dataset=s:\t\t tiempo máximo de la descarga de cada dataset (120 s, 0 sin límite)\n"
+				+ "\t --plazo-total=s:\t\t tiempo máximo de todas las descargas de un código (sin límite)\n"
+				+ "\t --cache=dir:\t\t\t guardar los JSON descargados en dir y revalidarlos con el servidor\n"
+				+ "\t --cache-max-mb=n:\t\t tamaño máximo de la caché (256 MB)\n"
+				+ "\t --max-resources=n|todos:\t resources a extraer de cada dataset (5)\n"
+				+ "\t --max-resources-total=n|todos: resources a extraer entre todos los datasets de un código (todos)\n"
+				+ "\t --estado=dir:\t\t\t guardar en dir el resultado de cada código y, en las siguientes ejecuciones,\n"
+				+ "\t\t\t\t\t descargar solo los datasets que han cambiado en el catálogo\n"
+				+ "\t --tiempos:\t\t\t mostrar la duración de cada fase al terminar\n"
+				+ "\t --metricas=fichero:\t\t guardar al terminar las métricas de la ejecución, en JSON si el fichero\n"
+				+ "\t\t\t\t\t termina en .json y en formato de Prometheus si no\n"
+				+ "\t --servidor[=puerto]:\t\t mantener el catálogo en memoria y atender consultas en\n"
+				+ "\t\t\t\t\t http://localhost:puerto/xml?codigo=... y /json?codigo=... (8080); las\n"
+				+ "\t\t\t\t\t duraciones de las consultas se consultan en /estadisticas y las\n"
+				+ "\t\t\t\t\t métricas de las descargas, en formato de Prometheus, en /metricas\n"
+				+ "\t --recarga=s:\t\t\t cada cuánto se comprueba si el catálogo ha cambiado para recargarlo (2 s)\n"
+				+ "\t --cache-consultas-mb=n:\t memoria para guardar los resultados de las consultas (64 MB, 0 sin caché)\n"
+				+ "\t --ttl-resources=s:\t\t tiempo durante el que se reutilizan los resources de una consulta (300 s)\n");
 	}
 }
@@ -0,0 +1,20 @@
+import java.util.List;
+
+/**
+ * Interfaz de los parsers del catálogo que resuelven uno o varios códigos en un único escaneo, apoyándose en un
+ * {@link IndiceConceptos}. Los métodos heredados de {@link ParserCatalogo} devuelven los resultados del primer código.
+ *
+ */
+public interface ParserCatalogoIndexado extends ParserCatalogo {
+
+	/**
+	 * @return Índice con los concepts del catálogo necesarios para resolver la búsqueda.
+	 */
+	public IndiceConceptos getIndice();
+
+	/**
+	 * @return Resultados de cada uno de los códigos buscados, en el orden en que se recibieron.
+	 */
+	public List<ResultadoBusqueda> getResultados();
+
+}
@@ -0,0 +1,200 @@
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Ejecuta los {@link JSONDatasetParser} de una extracción con un número máximo de descargas simultáneas, independiente
+ * del número de procesadores (las descargas esperan a la red, no a la CPU).
+ * <br>
+ * Cada descarga tiene un plazo propio y la extracción completa un plazo global; al agotarse se interrumpen las descargas
+ * en curso y se descartan las que no han empezado. El resultado de cada dataset se entrega al {@link ReceptorResources}
+ * exactamente una vez (null si no se ha completado) y queda registrado como {@link ResultadoDescarga}.
+ *
+ * @author Adolfo Trocolí Naranjo, 09218364X, a.trocoli@alumnos.upm.es
+ *
+ */
+public class PlanificadorDescargas {
+
+	public static final int DESCARGAS_SIMULTANEAS = 16;
+	public static final Duration PLAZO_DATASET = Duration.ofSeconds(120);
+
+	private final ExecutorService executor;
+	private final ScheduledExecutorService temporizador;
+	private final Duration plazoDataset, plazoTotal;
+	private final List<ResultadoDescarga> resultados;
+	private ReceptorResources receptor;
+	private volatile boolean plazoTotalAgotado;
+
+	/**
+	 * @param limite       Número máximo de descargas simultáneas.
+	 * @param plazoDataset Tiempo máximo de cada descarga (cero para no limitarlo).
+	 * @param plazoTotal   Tiempo máximo del conjunto de descargas (cero para no limitarlo).
+	 */
+	public PlanificadorDescargas(int limite, Duration plazoDataset, Duration plazoTotal) {
+		this.plazoDataset = plazoDataset;
+		this.plazoTotal = plazoTotal;
+		executor = Executors.newFixedThreadPool(limite);
+		temporizador = Executors.newSingleThreadScheduledExecutor(r -> {
+			Thread hilo = new Thread(r, "Plazos de descarga");
+			hilo.setDaemon(true);
+			return hilo;
+		});
+		resultados = Collections.synchronizedList(new ArrayList<ResultadoDescarga>());
+	}
+
+	/**
+	 * Lanza todas las descargas sin esperar a que terminen. No admite más descargas después.
+	 *
+	 * @param parsers  Parsers a ejecutar, uno por dataset.
+	 * @param receptor Destino de los resources de cada dataset.
+	 */
+	public void lanzar(List<JSONDatasetParser> parsers, ReceptorResources receptor) {
+		iniciar(receptor);
+		for (JSONDatasetParser parser : parsers)
+			lanzar(parser);
+		cerrar();
+	}
+
+	/**
+	 * Prepara el planificador para recibir las descargas de una en una con {@link #lanzar(JSONDatasetParser)}, a
+	 * medida que se conocen los datasets. El plazo total empieza a contar en este momento.
+	 *
+	 * @param receptor Destino de los resources de cada dataset.
+	 */
+	public void iniciar(ReceptorResources receptor) {
+		this.receptor = receptor;
+		if (!plazoTotal.isZero())
+			temporizador.schedule(this::agotarPlazoTotal, plazoTotal.toMillis(), TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Lanza una descarga sin esperar a que termine. Si ya se ha agotado el plazo total se descarta.
+	 *
+	 * @param parser Parser del dataset.
+	 */
+	public void lanzar(JSONDatasetParser parser) {
+		final Tarea tarea = new Tarea(parser);
+		try {
+			executor.execute(tarea);
+		} catch (RejectedExecutionException e) {
+			tarea.descartar();
+		}
+	}
+
+	/**
+	 * Indica que no se van a lanzar más descargas, para que {@link #esperar()} pueda terminar.
+	 */
+	public void cerrar() {
+		executor.shutdown();
+	}
+
+	/**
+	 * Espera a que terminen (o se descarten) todas las descargas lanzadas. Debe invocarse después de
+	 * {@link #cerrar()}.
+	 *
+	 * @return Resultado de cada descarga, en el orden en que han terminado.
+	 * @throws InterruptedException Si el hilo se interrumpe mientras espera.
+	 */
+	public List<ResultadoDescarga> esperar() throws InterruptedException {
+		executor.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+		temporizador.shutdownNow();
+		synchronized (resultados) {
+			return new ArrayList<ResultadoDescarga>(resultados);
+		}
+	}
+
+	/**
+	 * Interrumpe las descargas en curso y descarta las que aún no han empezado.
+	 */
+	private void agotarPlazoTotal() {
+		plazoTotalAgotado = true;
+		for (Runnable pendiente : executor.shutdownNow())
+			((Tarea) pendiente).descartar();
+	}
+
+	/**
+	 * Entrega el resultado al receptor aunque el hilo se interrumpa mientras espera, para que cada dataset se entregue
+	 * siempre una vez.
+	 */
+	private void entregar(String idDataset, List<Resource> resources) {
+		boolean interrumpido = false;
+		while (true) {
+			try {
+				receptor.recibir(idDataset, resources);
+				break;
+			} catch (InterruptedException e) {
+				interrumpido = true;
+			}
+		}
+		if (interrumpido) Thread.currentThread().interrupt();
+	}
+
+	/**
+	 * Ejecución de un parser con su plazo.
+	 */
+	private class Tarea implements Runnable {
+
+		private final JSONDatasetParser parser;
+		private boolean terminada, plazoAgotado;
+
+		private Tarea(JSONDatasetParser parser) {
+			this.parser = parser;
+		}
+
+		@Override
+		public void run() {
+			final long inicio = System.nanoTime();
+			final Thread hilo = Thread.currentThread();
+			ScheduledFuture<?> alarma = null;
+			if (!plazoDataset.isZero())
+				alarma = temporizador.schedule(() -> interrumpir(hilo), plazoDataset.toMillis(), TimeUnit.MILLISECONDS);
+			List<Resource> resources = null;
+			Throwable error = null;
+			try {
+				resources = parser.call();
+			} catch (Exception e) {
+				error = e;
+			} finally {
+				synchronized (this) {
+					terminada = true;
+				}
+				if (alarma != null) alarma.cancel(false);
+				// Se limpia la interrupción para que la entrega pueda esperar a que el receptor la admita
+				Thread.interrupted();
+				ResultadoDescarga.Estado estado = ResultadoDescarga.Estado.COMPLETADA;
+				if (error != null) {
+					// Un fallo tras agotarse algún plazo se debe a la interrupción (no siempre llega como
+					// InterruptedException: el cliente HTTP puede convertirla en IOException)
+					estado = plazoAgotado || plazoTotalAgotado ? ResultadoDescarga.Estado.PLAZO_AGOTADO
+							: ResultadoDescarga.Estado.FALLIDA;
+				}
+				entregar(parser.getFichero(), resources);
+				resultados.add(new ResultadoDescarga(parser.getFichero(), estado,
+						resources == null ? 0 : resources.size(), error, System.nanoTime() - inicio,
+						parser.getBytesLeidos(), parser.getLongitud(), parser.isLimiteAlcanzado()));
+			}
+		}
+
+		private synchronized void interrumpir(Thread hilo) {
+			if (terminada) return;
+			plazoAgotado = true;
+			hilo.interrupt();
+		}
+
+		/**
+		 * Registra la tarea como no iniciada por haberse agotado el plazo global.
+		 */
+		private void descartar() {
+			entregar(parser.getFichero(), null);
+			resultados.add(new ResultadoDescarga(parser.getFichero(), ResultadoDescarga.Estado.NO_INICIADA, 0, null, 0,
+					0, -1, false));
+		}
+	}
+}
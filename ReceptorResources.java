@@ -0,0 +1,18 @@
+import java.util.List;
+
+/**
+ * Destino de los resources extraídos por cada {@link JSONDatasetParser}. {@link PlanificadorDescargas} invoca
+ * {@link #recibir} una única vez por dataset al terminar su descarga, también cuando no se ha podido leer, se ha agotado
+ * su plazo o se ha descartado.
+ *
+ */
+public interface ReceptorResources {
+
+	/**
+	 * @param idDataset Id (URL) del dataset.
+	 * @param resources Resources extraídos, o null si el dataset no se ha podido leer.
+	 * @throws InterruptedException Si el hilo se interrumpe mientras espera a que el receptor admita el resultado.
+	 */
+	public void recibir(String idDataset, List<Resource> resources) throws InterruptedException;
+
+}
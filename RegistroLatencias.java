@@ -0,0 +1,55 @@
+import java.util.Arrays;
+
+/**
+ * Guarda la duración de las últimas peticiones atendidas para calcular sus percentiles. Las muestras se guardan en un
+ * array circular de tamaño fijo, de forma que la memoria no crece con el número de peticiones y los percentiles
+ * reflejan el comportamiento reciente.
+ *
+ * @author Adolfo Trocolí Naranjo, 09218364X, a.trocoli@alumnos.upm.es
+ *
+ */
+public class RegistroLatencias {
+
+	public static final int MUESTRAS = 8192;
+
+	private final long[] muestras; // Nanosegundos de las últimas peticiones
+	private long total; // Peticiones registradas desde el arranque
+
+	public RegistroLatencias() {
+		muestras = new long[MUESTRAS];
+	}
+
+	/**
+	 * Registra la duración de una petición desde el instante indicado.
+	 *
+	 * @param inicio Instante de comienzo, obtenido con {@link System#nanoTime()}.
+	 */
+	public synchronized void registrar(long inicio) {
+		muestras[(int) (total++ % muestras.length)] = System.nanoTime() - inicio;
+	}
+
+	public synchronized long getTotal() {
+		return total;
+	}
+
+	/**
+	 * Calcula varios percentiles a la vez sobre las últimas {@value #MUESTRAS} peticiones.
+	 *
+	 * @param percentiles Percentiles a calcular, entre 0 y 100.
+	 * @return Duración en nanosegundos de cada percentil, en el mismo orden (0 si no hay peticiones).
+	 */
+	public long[] getPercentiles(double... percentiles) {
+		final long[] ordenadas;
+		synchronized (this) {
+			ordenadas = Arrays.copyOf(muestras, (int) Math.min(total, muestras.length));
+		}
+		Arrays.sort(ordenadas);
+		final long[] valores = new long[percentiles.length];
+		if (ordenadas.length == 0) return valores;
+		for (int i = 0; i < percentiles.length; i++) {
+			final int posicion = (int) Math.ceil(percentiles[i] / 100 * ordenadas.length) - 1;
+			valores[i] = ordenadas[Math.max(0, Math.min(ordenadas.length - 1, posicion))];
+		}
+		return valores;
+	}
+}
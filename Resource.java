@@ -0,0 +1,126 @@
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeFormatterBuilder;
+import java.time.format.DateTimeParseException;
+import java.time.temporal.ChronoField;
+
+/**
+ * Resource extraído de un dataset por {@link JSONDatasetParser}. Los valores que se repiten mucho entre resources
+ * (concept, lugar, área, coordenadas, organización) se obtienen de un {@link DiccionarioValores}, de forma que todos
+ * los resources que comparten un valor comparten también el mismo objeto.
+ * <br>
+ * Los valores que no aparecen en el JSON son cadenas vacías, salvo relation, area, latitude, longitude, accesibility y
+ * organizationName, que son null si falta el objeto que los contiene.
+ *
+ * @author Adolfo Trocolí Naranjo, 09218364X, a.trocoli@alumnos.upm.es
+ *
+ */
+public final class Resource {
+
+	public static final long SIN_FECHA = Long.MIN_VALUE;
+
+	// Formato de las fechas de los datasets: 2022-06-12 12:00:00.0, aunque a veces sin ceros a la izquierda
+	private static final DateTimeFormatter FORMATO_FECHA = new DateTimeFormatterBuilder()
+			.appendPattern("uuuu-M-d H:m:s").optionalStart().appendFraction(ChronoField.NANO_OF_SECOND, 0, 9, true)
+			.optionalEnd().toFormatter();
+
+	private final String concept;
+	private final String link;
+	private final String relation;
+	private final String title;
+	private final String eventLocation;
+	private final String area;
+	private final String description;
+	private final String dtstart;
+	private final String dtend;
+	private final String latitude;
+	private final String longitude;
+	private final String accesibility;
+	private final String organizationName;
+
+	public Resource(String concept, String link, String relation, String title, String eventLocation, String area,
+			String description, String dtstart, String dtend, String latitude, String longitude, String accesibility,
+			String organizationName) {
+		this.concept = concept;
+		this.link = link;
+		this.relation = relation;
+		this.title = title;
+		this.eventLocation = eventLocation;
+		this.area = area;
+		this.description = description;
+		this.dtstart = dtstart;
+		this.dtend = dtend;
+		this.latitude = latitude;
+		this.longitude = longitude;
+		this.accesibility = accesibility;
+		this.organizationName = organizationName;
+	}
+
+	public String getConcept() {
+		return concept;
+	}
+
+	public String getLink() {
+		return link;
+	}
+
+	public String getRelation() {
+		return relation;
+	}
+
+	public String getTitle() {
+		return title;
+	}
+
+	public String getEventLocation() {
+		return eventLocation;
+	}
+
+	public String getArea() {
+		return area;
+	}
+
+	public String getDescription() {
+		return description;
+	}
+
+	public String getDtstart() {
+		return dtstart;
+	}
+
+	public String getDtend() {
+		return dtend;
+	}
+
+	public String getLatitude() {
+		return latitude;
+	}
+
+	public String getLongitude() {
+		return longitude;
+	}
+
+	public String getAccesibility() {
+		return accesibility;
+	}
+
+	public String getOrganizationName() {
+		return organizationName;
+	}
+
+	/**
+	 * @param valor Fecha con el formato de dtstart y dtend, con espacio o "T" entre la fecha y la hora.
+	 * @return Milisegundos desde 1970-01-01T00:00 de la fecha sin zona horaria, o {@link #SIN_FECHA} si no tiene o no
+	 *         es una fecha.
+	 */
+	public static long leerFecha(String valor) {
+		if (valor == null || valor.isBlank()) return SIN_FECHA;
+		try {
+			return LocalDateTime.parse(valor.trim().replace('T', ' '), FORMATO_FECHA).toInstant(ZoneOffset.UTC)
+					.toEpochMilli();
+		} catch (DateTimeParseException e) {
+			return SIN_FECHA;
+		}
+	}
+}
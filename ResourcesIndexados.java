@@ -0,0 +1,79 @@
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Resources extraídos de los datasets de un resultado, junto con los índices sobre los que se resuelven los
+ * {@link FiltroResources}. Cada índice se crea la primera vez que lo pide un filtro y se reutiliza después, de forma
+ * que el servidor, que filtra los mismos resources de la caché en cada consulta, solo los indexa una vez.
+ * <br>
+ * Los índices identifican cada resource por su posición en {@link #getLista()}, que sigue el orden de los datasets.
+ *
+ * @author Adolfo Trocolí Naranjo, 09218364X, a.trocoli@alumnos.upm.es
+ *
+ */
+public class ResourcesIndexados {
+
+	private final Map<String, List<Resource>> mResources;
+	private final List<Resource> lista;
+	private IndiceEspacial indiceEspacial;
+	private IndiceIntervalos indiceIntervalos;
+
+	/**
+	 * @param mResources Resources de cada dataset, que no deben modificarse después.
+	 */
+	public ResourcesIndexados(Map<String, List<Resource>> mResources) {
+		this.mResources = mResources;
+		final List<Resource> lista = new ArrayList<Resource>();
+		for (List<Resource> resources : mResources.values())
+			lista.addAll(resources);
+		this.lista = Collections.unmodifiableList(lista);
+	}
+
+	/**
+	 * @return Resources de cada dataset.
+	 */
+	public Map<String, List<Resource>> getResources() {
+		return mResources;
+	}
+
+	/**
+	 * @return Resources de todos los datasets, en orden.
+	 */
+	public List<Resource> getLista() {
+		return lista;
+	}
+
+	/**
+	 * @return Índice de las coordenadas de los resources, que se crea la primera vez.
+	 */
+	public synchronized IndiceEspacial getIndiceEspacial() {
+		if (indiceEspacial == null) {
+			final double[] latitudes = new double[lista.size()];
+			final double[] longitudes = new double[lista.size()];
+			for (int i = 0; i < latitudes.length; i++) {
+				latitudes[i] = FiltroEspacial.leerCoordenada(lista.get(i).getLatitude());
+				longitudes[i] = FiltroEspacial.leerCoordenada(lista.get(i).getLongitude());
+			}
+			indiceEspacial = new IndiceEspacial(latitudes, longitudes);
+		}
+		return indiceEspacial;
+	}
+
+	/**
+	 * @return Índice de los intervalos entre dtstart y dtend de los resources, que se crea la primera vez.
+	 */
+	public synchronized IndiceIntervalos getIndiceIntervalos() {
+		if (indiceIntervalos == null) {
+			final long[] inicios = new long[lista.size()];
+			final long[] fines = new long[lista.size()];
+			for (int i = 0; i < inicios.length; i++) {
+				inicios[i] = Resource.leerFecha(lista.get(i).getDtstart());
+				fines[i] = Resource.leerFecha(lista.get(i).getDtend());
+			}
+			indiceIntervalos = new IndiceIntervalos(inicios, fines);
+		}
+		return indiceIntervalos;
+	}
+}
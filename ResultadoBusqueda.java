@@ -0,0 +1,93 @@
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.SubmissionPublisher;
+
+/**
+ * Resultados de la búsqueda de un código concreto dentro del catálogo: label del concept encontrado, URIs de su
+ * subárbol y datasets relacionados. Un mismo escaneo del catálogo puede rellenar varios de estos objetos, uno por cada
+ * código solicitado.
+ *
+ * @author Adolfo Trocolí Naranjo, 09218364X, a.trocoli@alumnos.upm.es
+ *
+ */
+public class ResultadoBusqueda implements ParserCatalogo {
+
+	private final String codigo;
+	private int raiz;
+	private String sNombreCategoria;
+	private final List<String> lConcepts;
+	private final Map<String, HashMap<String, String>> hDatasets;
+	private SubmissionPublisher<String> publicador;
+
+	/**
+	 * @param codigo Código de la categoría buscada.
+	 */
+	public ResultadoBusqueda(String codigo) {
+		this.codigo = codigo;
+		this.raiz = -1;
+		lConcepts = new ArrayList<String>();
+		hDatasets = new HashMap<String, HashMap<String, String>>();
+	}
+
+	/**
+	 * Localiza el código en el índice y extrae el label y las URIs del subárbol correspondiente. Debe invocarse cuando
+	 * el árbol de concepts ya esté completo.
+	 *
+	 * @param indice Índice de concepts del catálogo.
+	 */
+	public void resolver(IndiceConceptos indice) {
+		raiz = indice.buscarCodigo(codigo);
+		if (raiz < 0) return;
+		sNombreCategoria = indice.getLabel(raiz);
+		lConcepts.addAll(indice.getSubarbol(raiz));
+	}
+
+	/**
+	 * Añade un dataset relacionado con la categoría. Si hay un publicador, la primera vez que aparece el dataset se le
+	 * envía su id; el envío espera si el buffer del publicador está lleno.
+	 *
+	 * @param idDataset Id del dataset.
+	 * @param dataset   Mapa con title, description y theme del dataset.
+	 */
+	public void añadirDataset(String idDataset, HashMap<String, String> dataset) {
+		if (hDatasets.put(idDataset, dataset) == null && publicador != null) publicador.submit(idDataset);
+	}
+
+	/**
+	 * Publica los ids de los datasets a medida que se añaden, para empezar a descargarlos antes de que termine el
+	 * escaneo del catálogo. Quien lo indica se encarga de cerrarlo al terminar el escaneo.
+	 *
+	 * @param publicador Publicador de ids de datasets.
+	 */
+	public void setPublicador(SubmissionPublisher<String> publicador) {
+		this.publicador = publicador;
+	}
+
+	public String getCodigo() {
+		return codigo;
+	}
+
+	/**
+	 * @return Nodo del índice correspondiente al concept buscado, o -1 si no se ha encontrado.
+	 */
+	public int getRaiz() {
+		return raiz;
+	}
+
+	@Override
+	public String getLabel() {
+		return sNombreCategoria;
+	}
+
+	@Override
+	public List<String> getConcepts() {
+		return lConcepts;
+	}
+
+	@Override
+	public Map<String, HashMap<String, String>> getDatasets() {
+		return hDatasets;
+	}
+}
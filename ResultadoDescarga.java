@@ -0,0 +1,99 @@
+import java.io.FileNotFoundException;
+
+/**
+ * Resultado de la descarga y lectura de un dataset por parte de {@link PlanificadorDescargas}. Los fallos no se
+ * imprimen en el hilo que los produce, sino que se devuelven aquí para que el llamante decida qué hacer con ellos.
+ *
+ * @author Adolfo Trocolí Naranjo, 09218364X, a.trocoli@alumnos.upm.es
+ *
+ */
+public class ResultadoDescarga {
+
+	public enum Estado {
+		COMPLETADA, FALLIDA, PLAZO_AGOTADO, NO_INICIADA
+	}
+
+	private final String idDataset;
+	private final Estado estado;
+	private final int numResources;
+	private final Throwable error;
+	private final long duracionNanos;
+	private final long bytesLeidos, longitud;
+	private final boolean limiteAlcanzado;
+
+	public ResultadoDescarga(String idDataset, Estado estado, int numResources, Throwable error, long duracionNanos,
+			long bytesLeidos, long longitud, boolean limiteAlcanzado) {
+		this.idDataset = idDataset;
+		this.estado = estado;
+		this.numResources = numResources;
+		this.error = error;
+		this.duracionNanos = duracionNanos;
+		this.bytesLeidos = bytesLeidos;
+		this.longitud = longitud;
+		this.limiteAlcanzado = limiteAlcanzado;
+	}
+
+	public String getIdDataset() {
+		return idDataset;
+	}
+
+	public Estado getEstado() {
+		return estado;
+	}
+
+	/**
+	 * @return Número de resources extraídos (0 si la descarga no se ha completado).
+	 */
+	public int getNumResources() {
+		return numResources;
+	}
+
+	/**
+	 * @return Causa del fallo, o null si no la hay.
+	 */
+	public Throwable getError() {
+		return error;
+	}
+
+	public long getDuracionNanos() {
+		return duracionNanos;
+	}
+
+	/**
+	 * @return Bytes recibidos de la red.
+	 */
+	public long getBytesLeidos() {
+		return bytesLeidos;
+	}
+
+	/**
+	 * @return Content-Length de la respuesta, o -1 si no se conoce.
+	 */
+	public long getLongitud() {
+		return longitud;
+	}
+
+	/**
+	 * @return Si la descarga se ha cortado por haber alcanzado el máximo de resources.
+	 */
+	public boolean isLimiteAlcanzado() {
+		return limiteAlcanzado;
+	}
+
+	/**
+	 * @return Si la descarga ha fallado por una causa que puede no repetirse al reintentarla: un error de red o de
+	 *         lectura, o un plazo agotado. Que el dataset no exista (404 o 410) no es transitorio, ni que no tenga
+	 *         "@graph", que se completa sin resources.
+	 */
+	public boolean isFalloTransitorio() {
+		if (estado == Estado.COMPLETADA) return false;
+		return estado != Estado.FALLIDA || !(error instanceof FileNotFoundException);
+	}
+
+	@Override
+	public String toString() {
+		String texto = "[" + idDataset + "] " + estado;
+		if (error != null) texto += ": " + error;
+		return texto;
+	}
+}
@@ -0,0 +1,311 @@
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.zip.GZIPOutputStream;
+
+import com.google.gson.stream.JsonWriter;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Servidor HTTP local que mantiene el catálogo cargado en memoria y responde a consultas de códigos con los mismos
+ * documentos XML y JSON que genera {@link P5_XPATH}, sin pagar en cada consulta el arranque de la JVM ni el escaneo del
+ * catálogo:
+ * <ul>
+ * <li><code>GET /xml?codigo=018</code>: documento XML de resultados,</li>
+ * <li><code>GET /json?codigo=018</code>: documento JSON de resultados,</li>
+ * <li><code>GET /estadisticas</code>: número de consultas y percentiles de su duración, y estado del catálogo.</li>
+ * </ul>
+ * Las consultas de documentos admiten además un {@link FiltroEspacial} de los resources, con un parámetro
+ * <code>rectangulo</code>, <code>radio</code> o <code>cercanos</code> (p.ej.
+ * <code>&amp;radio=40.4168,-3.7038,1000</code>), y un {@link FiltroTemporal}, con un parámetro <code>durante</code>,
+ * <code>dentro</code> o <code>abarca</code> (p.ej. <code>&amp;durante=2024-05-01,2024-05-02T00:00</code>).
+ * El fichero del catálogo se comprueba periódicamente y, si ha cambiado, se vuelve a cargar en segundo plano. La
+ * versión nueva sustituye a la anterior de una vez cuando está completa; las consultas en curso terminan con la versión
+ * con la que empezaron, y si la carga falla se sigue usando la anterior.
+ * <br>
+ * Con {@link #setCache(CacheResultados, String)} los resultados de las consultas se guardan en memoria, con la clave
+ * formada por el hash del catálogo, el código y las opciones de extracción.
+ *
+ * @author Adolfo Trocolí Naranjo, 09218364X, a.trocoli@alumnos.upm.es
+ *
+ */
+public class ServidorConsultas {
+
+	public static final int PUERTO = 8080;
+	public static final Duration PERIODO_RECARGA = Duration.ofSeconds(2);
+	private static final String REGEX_CODIGO = "\\d{3,4}(-[0-9A-Z]{3,8})?";
+	private static final double[] PERCENTILES = { 50, 90, 99, 100 };
+
+	/**
+	 * Obtiene los resources de los datasets de un resultado.
+	 */
+	public interface Extractor {
+		/**
+		 * @param fallidos Colección en la que se añaden los datasets que no se han podido leer por un fallo
+		 *                 transitorio, que se pueden volver a pedir en otra consulta.
+		 * @return Resources de cada dataset leído. Los datasets que no existen o no tienen "@graph" no aparecen.
+		 */
+		Map<String, List<Resource>> extraer(ResultadoBusqueda resultado, IndiceConceptos indice,
+				Collection<String> fallidos) throws InterruptedException;
+	}
+
+	private final HttpServer servidor;
+	private final ScheduledExecutorService vigilante;
+	private final Extractor extractor;
+	private final Duration periodoRecarga;
+	private final AtomicReference<CatalogoResidente> catalogo;
+	private final AtomicInteger recargas = new AtomicInteger();
+	private final Map<String, RegistroLatencias> latencias = new LinkedHashMap<String, RegistroLatencias>();
+	private volatile long modificadoFallido; // Fecha del último fichero que no se pudo cargar, para no reintentarlo
+	private CacheResultados cache;
+	private String firmaOpciones = "";
+
+	/**
+	 * Carga el catálogo y crea el servidor sin arrancarlo.
+	 *
+	 * @param fichero        Fichero del catálogo.
+	 * @param puerto         Puerto de escucha (0 para elegir uno libre).
+	 * @param periodoRecarga Cada cuánto se comprueba si el catálogo ha cambiado.
+	 * @param extractor      Descarga los resources de cada consulta.
+	 * @throws Exception Si no se puede cargar el catálogo o abrir el puerto.
+	 */
+	public ServidorConsultas(File fichero, int puerto, Duration periodoRecarga, Extractor extractor) throws Exception {
+		this.extractor = extractor;
+		this.periodoRecarga = periodoRecarga;
+		catalogo = new AtomicReference<CatalogoResidente>(CatalogoResidente.cargar(fichero));
+		latencias.put("xml", new RegistroLatencias());
+		latencias.put("json", new RegistroLatencias());
+		servidor = HttpServer.create(new InetSocketAddress("localhost", puerto), 0);
+		servidor.createContext("/xml", intercambio -> atender(intercambio, "xml"));
+		servidor.createContext("/json", intercambio -> atender(intercambio, "json"));
+		servidor.createContext("/estadisticas", this::atenderEstadisticas);
+		servidor.createContext("/metricas", this::atenderMetricas);
+		servidor.setExecutor(Executors.newCachedThreadPool());
+		vigilante = Executors.newSingleThreadScheduledExecutor(tarea -> {
+			Thread hilo = new Thread(tarea, "recarga-catalogo");
+			hilo.setDaemon(true);
+			return hilo;
+		});
+	}
+
+	/**
+	 * Guarda los resultados de las consultas en la caché indicada. Debe llamarse antes de arrancar el servidor.
+	 *
+	 * @param cache         Caché de resultados (null para no usarla).
+	 * @param firmaOpciones Opciones que cambian los resources extraídos, para incluirlas en la clave.
+	 */
+	public void setCache(CacheResultados cache, String firmaOpciones) {
+		this.cache = cache;
+		this.firmaOpciones = firmaOpciones;
+	}
+
+	public CacheResultados getCache() {
+		return cache;
+	}
+
+	public void arrancar() {
+		servidor.start();
+		vigilante.scheduleWithFixedDelay(this::comprobarCatalogo, periodoRecarga.toMillis(), periodoRecarga.toMillis(),
+				TimeUnit.MILLISECONDS);
+	}
+
+	public void parar() {
+		vigilante.shutdownNow();
+		servidor.stop(0);
+		((ExecutorService) servidor.getExecutor()).shutdownNow();
+	}
+
+	/**
+	 * @return URL base del servidor, sin barra final.
+	 */
+	public String getURL() {
+		return "http://localhost:" + servidor.getAddress().getPort();
+	}
+
+	/**
+	 * Vuelve a cargar el catálogo si el fichero ha cambiado desde la última carga.
+	 */
+	private void comprobarCatalogo() {
+		final CatalogoResidente actual = catalogo.get();
+		final long modificado = actual.getFichero().lastModified();
+		if (!actual.isObsoleto() || modificado == modificadoFallido) return;
+		try {
+			final long inicio = System.nanoTime();
+			CatalogoResidente nuevo = CatalogoResidente.cargar(actual.getFichero());
+			catalogo.set(nuevo);
+			recargas.incrementAndGet();
+			// Los resultados de la versión anterior ya no se pueden pedir, porque la clave incluye el hash
+			if (cache != null && !nuevo.getHash().equals(actual.getHash())) cache.vaciar();
+			System.out.printf("Catálogo recargado en %.1f ms: %d concepts, %d datasets%n",
+					(System.nanoTime() - inicio) / 1e6, nuevo.getIndice().getNumConceptos(), nuevo.getNumDatasets());
+		} catch (Exception e) {
+			modificadoFallido = modificado;
+			System.err.println("No se ha podido recargar el catálogo, se mantiene la versión anterior: " + e);
+		}
+	}
+
+	private void atender(HttpExchange intercambio, String formato) throws IOException {
+		final long inicio = System.nanoTime();
+		try (intercambio) {
+			if (!intercambio.getRequestMethod().equals("GET")) {
+				intercambio.sendResponseHeaders(405, -1);
+				return;
+			}
+			final String codigo = getParametro(intercambio, "codigo");
+			if (codigo == null || !codigo.matches(REGEX_CODIGO)) {
+				intercambio.sendResponseHeaders(400, -1);
+				return;
+			}
+			final List<FiltroResources> filtros;
+			try {
+				filtros = FiltroResources.crear(tipo -> getParametro(intercambio, tipo));
+			} catch (IllegalArgumentException e) {
+				intercambio.sendResponseHeaders(400, -1);
+				return;
+			}
+			final CatalogoResidente version = catalogo.get(); // Toda la consulta usa la misma versión del catálogo
+			final String clave = version.getHash() + " " + codigo + " " + firmaOpciones;
+			final CacheResultados.Entrada cacheada = cache == null ? null : cache.buscar(clave);
+			final ResultadoBusqueda resultado = cacheada != null ? cacheada.getResultado() : version.buscar(codigo);
+			if (resultado.getRaiz() < 0) {
+				intercambio.sendResponseHeaders(404, -1);
+				return;
+			}
+			final ResourcesIndexados resources;
+			if (cacheada != null && !cacheada.isCaducada()) {
+				resources = cacheada.getResources();
+			} else {
+				final List<String> fallidos = new ArrayList<String>();
+				resources = new ResourcesIndexados(extractor.extraer(resultado, version.getIndice(), fallidos));
+				// Si algún dataset ha fallado por un error transitorio no se guarda, para reintentarlo en la siguiente
+				// consulta; los que no existen o no tienen resources fallarían igual
+				if (cache != null && fallidos.isEmpty()) cache.guardar(clave, resultado, resources);
+			}
+			// La caché guarda todos los resources y sus índices, que se crean con el primer filtro que los usa; los
+			// filtros solo se aplican a la respuesta
+			final Map<String, List<Resource>> mResources = FiltroResources.filtrar(filtros, resources);
+			final StringWriter documento = new StringWriter();
+			final PrintWriter pw = new PrintWriter(documento);
+			if (formato.equals("xml")) {
+				ConstructorCatalogoXML.construir(pw, resultado.getLabel(), resultado.getConcepts(),
+						resultado.getDatasets(), codigo, mResources);
+				enviar(intercambio, "application/xml", documento.toString());
+			} else {
+				ConstructorDocumentoJSON.construir(new EvaluadorMemoria(codigo, resultado.getDatasets(), mResources), pw);
+				enviar(intercambio, "application/json", documento.toString());
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Servidor detenido", e);
+		} finally {
+			latencias.get(formato).registrar(inicio);
+		}
+	}
+
+	private void atenderEstadisticas(HttpExchange intercambio) throws IOException {
+		try (intercambio) {
+			final CatalogoResidente version = catalogo.get();
+			final StringWriter documento = new StringWriter();
+			try (JsonWriter writer = new JsonWriter(documento)) {
+				writer.setIndent("\t");
+				writer.beginObject();
+				writer.name("catalogo").beginObject();
+				writer.name("fichero").value(version.getFichero().getPath());
+				writer.name("modificado").value(version.getModificado());
+				writer.name("concepts").value(version.getIndice().getNumConceptos());
+				writer.name("datasets").value(version.getNumDatasets());
+				writer.name("recargas").value(recargas.get());
+				writer.endObject();
+				if (cache != null) {
+					writer.name("cache").beginObject();
+					writer.name("aciertos").value(cache.getAciertos());
+					writer.name("caducados").value(cache.getCaducados());
+					writer.name("fallos").value(cache.getFallos());
+					writer.name("tasa_aciertos").value(cache.getTasaAciertos());
+					writer.name("rechazados").value(cache.getRechazados());
+					writer.name("desalojados").value(cache.getDesalojados());
+					writer.name("entradas").value(cache.getNumEntradas());
+					writer.name("bytes").value(cache.getTamañoTotal());
+					writer.endObject();
+				}
+				for (Map.Entry<String, RegistroLatencias> entrada : latencias.entrySet()) {
+					final long[] valores = entrada.getValue().getPercentiles(PERCENTILES);
+					writer.name(entrada.getKey()).beginObject();
+					writer.name("consultas").value(entrada.getValue().getTotal());
+					writer.name("p50_ms").value(valores[0] / 1e6);
+					writer.name("p90_ms").value(valores[1] / 1e6);
+					writer.name("p99_ms").value(valores[2] / 1e6);
+					writer.name("max_ms").value(valores[3] / 1e6);
+					writer.endObject();
+				}
+				writer.endObject();
+			}
+			enviar(intercambio, "application/json", documento.toString());
+		}
+	}
+
+	/**
+	 * Publica las {@link Metricas} del proceso en el formato de texto de Prometheus.
+	 */
+	private void atenderMetricas(HttpExchange intercambio) throws IOException {
+		try (intercambio) {
+			final StringWriter documento = new StringWriter();
+			Metricas.getGlobal().escribirPrometheus(documento);
+			enviar(intercambio, "text/plain; version=0.0.4", documento.toString());
+		}
+	}
+
+	/**
+	 * Envía el documento codificado en UTF-8, comprimido con gzip si el cliente lo admite.
+	 */
+	private static void enviar(HttpExchange intercambio, String tipo, String documento) throws IOException {
+		final String aceptadas = intercambio.getRequestHeaders().getFirst("Accept-Encoding");
+		intercambio.getResponseHeaders().set("Content-Type", tipo + "; charset=UTF-8");
+		byte[] contenido = documento.getBytes(StandardCharsets.UTF_8);
+		if (aceptadas != null && aceptadas.contains("gzip")) {
+			ByteArrayOutputStream comprimido = new ByteArrayOutputStream(contenido.length / 4);
+			try (OutputStream salida = new GZIPOutputStream(comprimido)) {
+				salida.write(contenido);
+			}
+			contenido = comprimido.toByteArray();
+			intercambio.getResponseHeaders().set("Content-Encoding", "gzip");
+		}
+		intercambio.sendResponseHeaders(200, contenido.length);
+		try (OutputStream salida = intercambio.getResponseBody()) {
+			salida.write(contenido);
+		}
+	}
+
+	/**
+	 * @return Valor del parámetro de la query de la petición, o null si no está.
+	 */
+	private static String getParametro(HttpExchange intercambio, String nombre) {
+		final String query = intercambio.getRequestURI().getRawQuery();
+		if (query == null) return null;
+		for (String parametro : query.split("&")) {
+			final int igual = parametro.indexOf('=');
+			if (igual > 0 && parametro.substring(0, igual).equals(nombre))
+				return URLDecoder.decode(parametro.substring(igual + 1), StandardCharsets.UTF_8);
+		}
+		return null;
+	}
+}
@@ -0,0 +1,135 @@
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.file.Files;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.zip.GZIPOutputStream;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Servidor HTTP local que sirve los ficheros de un directorio, para poder medir las descargas de los datasets sin
+ * depender de la red. Comprime las respuestas con gzip cuando el cliente lo pide, y envía ETag y Last-Modified para
+ * que se puedan revalidar con peticiones condicionales (respuesta 304). Puede retrasar cada respuesta para simular la
+ * latencia de un servidor remoto.
+ * <br>
+ * Uso: <code>ServidorPruebas &lt;directorio&gt; [puerto] [latenciaMs]</code>. Un fichero <code>dir/a/b.json</code> se
+ * sirve en <code>http://localhost:puerto/a/b.json</code>.
+ *
+ * @author Adolfo Trocolí Naranjo, 09218364X, a.trocoli@alumnos.upm.es
+ *
+ */
+public class ServidorPruebas {
+
+	public static final int PUERTO = 18080;
+
+	private final HttpServer servidor;
+	private final File raiz;
+	private volatile Duration latencia = Duration.ZERO;
+
+	/**
+	 * Crea el servidor sin arrancarlo.
+	 *
+	 * @param raiz   Directorio con los ficheros a servir.
+	 * @param puerto Puerto de escucha (0 para elegir uno libre).
+	 * @throws IOException Si no se puede abrir el puerto.
+	 */
+	public ServidorPruebas(File raiz, int puerto) throws IOException {
+		this.raiz = raiz;
+		servidor = HttpServer.create(new InetSocketAddress("localhost", puerto), 0);
+		servidor.createContext("/", this::atender);
+		servidor.setExecutor(Executors.newCachedThreadPool());
+	}
+
+	/**
+	 * @param latencia Tiempo que se espera antes de responder a cada petición.
+	 */
+	public void setLatencia(Duration latencia) {
+		this.latencia = latencia;
+	}
+
+	public void arrancar() {
+		servidor.start();
+	}
+
+	public void parar() {
+		servidor.stop(0);
+		((ExecutorService) servidor.getExecutor()).shutdownNow();
+	}
+
+	/**
+	 * @return URL base del servidor, sin barra final.
+	 */
+	public String getURL() {
+		return "http://localhost:" + servidor.getAddress().getPort();
+	}
+
+	private void atender(HttpExchange intercambio) throws IOException {
+		try (intercambio) {
+			if (!latencia.isZero()) esperar();
+			final File fichero = new File(raiz, intercambio.getRequestURI().getPath());
+			if (!fichero.getCanonicalPath().startsWith(raiz.getCanonicalPath()) || !fichero.isFile()) {
+				intercambio.sendResponseHeaders(404, -1);
+				return;
+			}
+			final String etag = "\"" + Long.toHexString(fichero.length()) + "-" + Long.toHexString(fichero.lastModified())
+					+ "\"";
+			final String lastModified = DateTimeFormatter.RFC_1123_DATE_TIME
+					.format(Instant.ofEpochMilli(fichero.lastModified()).atZone(ZoneOffset.UTC));
+			intercambio.getResponseHeaders().set("ETag", etag);
+			intercambio.getResponseHeaders().set("Last-Modified", lastModified);
+			if (noModificado(intercambio, etag, lastModified)) {
+				intercambio.sendResponseHeaders(304, -1);
+				return;
+			}
+			final byte[] contenido = Files.readAllBytes(fichero.toPath());
+			final String aceptadas = intercambio.getRequestHeaders().getFirst("Accept-Encoding");
+			intercambio.getResponseHeaders().set("Content-Type", "application/json");
+			if (aceptadas != null && aceptadas.contains("gzip")) {
+				intercambio.getResponseHeaders().set("Content-Encoding", "gzip");
+				intercambio.sendResponseHeaders(200, 0);
+				try (OutputStream salida = new GZIPOutputStream(intercambio.getResponseBody())) {
+					salida.write(contenido);
+				}
+			} else {
+				intercambio.sendResponseHeaders(200, contenido.length);
+				try (OutputStream salida = intercambio.getResponseBody()) {
+					salida.write(contenido);
+				}
+			}
+		}
+	}
+
+	private void esperar() throws IOException {
+		try {
+			Thread.sleep(latencia.toMillis());
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Servidor detenido", e);
+		}
+	}
+
+	private static boolean noModificado(HttpExchange intercambio, String etag, String lastModified) {
+		final String siNoCoincide = intercambio.getRequestHeaders().getFirst("If-None-Match");
+		if (siNoCoincide != null) return siNoCoincide.equals(etag);
+		return lastModified.equals(intercambio.getRequestHeaders().getFirst("If-Modified-Since"));
+	}
+
+	public static void main(String[] args) throws IOException {
+		if (args.length < 1) {
+			System.err.println("Uso: ServidorPruebas <directorio> [puerto] [latenciaMs]");
+			System.exit(1);
+		}
+		ServidorPruebas servidor = new ServidorPruebas(new File(args[0]), args.length > 1 ? Integer.parseInt(args[1]) : 0);
+		if (args.length > 2) servidor.setLatencia(Duration.ofMillis(Long.parseLong(args[2])));
+		servidor.arrancar();
+		System.out.println("Sirviendo " + args[0] + " en " + servidor.getURL());
+	}
+}
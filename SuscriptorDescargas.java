@@ -0,0 +1,82 @@
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Flow;
+import java.util.function.Function;
+
+/**
+ * Suscriptor que descarga los datasets a medida que el escaneo del catálogo los publica, en lugar de esperar a que
+ * termine. La demanda está acotada: pide tantos ids como descargas simultáneas admite el {@link PlanificadorDescargas}
+ * y solo pide uno más cuando termina una descarga. Mientras tanto los ids se acumulan en el buffer del publicador, y si
+ * se llena el escaneo espera, de forma que ni las descargas pendientes ni la memoria crecen sin límite.
+ *
+ * @author Adolfo Trocolí Naranjo, 09218364X, a.trocoli@alumnos.upm.es
+ *
+ */
+public class SuscriptorDescargas implements Flow.Subscriber<String> {
+
+	private final PlanificadorDescargas planificador;
+	private final Function<String, JSONDatasetParser> fabrica;
+	private final int demanda;
+	private final Map<String, List<Resource>> mResources;
+	private final CountDownLatch terminado;
+
+	/**
+	 * @param planificador Planificador que ejecuta las descargas.
+	 * @param fabrica      Crea el parser de cada dataset a partir de su id.
+	 * @param demanda      Número máximo de datasets pedidos y no terminados.
+	 */
+	public SuscriptorDescargas(PlanificadorDescargas planificador, Function<String, JSONDatasetParser> fabrica,
+			int demanda) {
+		this.planificador = planificador;
+		this.fabrica = fabrica;
+		this.demanda = demanda;
+		mResources = new ConcurrentHashMap<String, List<Resource>>();
+		terminado = new CountDownLatch(1);
+	}
+
+	@Override
+	public void onSubscribe(Flow.Subscription suscripcion) {
+		planificador.iniciar((idDataset, resources) -> {
+			if (resources != null) mResources.put(idDataset, resources);
+			suscripcion.request(1);
+		});
+		suscripcion.request(demanda);
+	}
+
+	@Override
+	public void onNext(String idDataset) {
+		planificador.lanzar(fabrica.apply(idDataset));
+	}
+
+	@Override
+	public void onError(Throwable error) {
+		// El escaneo ha fallado; las descargas ya lanzadas terminan igualmente
+		planificador.cerrar();
+		terminado.countDown();
+	}
+
+	@Override
+	public void onComplete() {
+		planificador.cerrar();
+		terminado.countDown();
+	}
+
+	/**
+	 * Espera a que el publicador se cierre, es decir, a que no queden datasets por lanzar.
+	 *
+	 * @return Planificador, ya cerrado, para esperar a que terminen las descargas.
+	 */
+	public PlanificadorDescargas esperar() throws InterruptedException {
+		terminado.await();
+		return planificador;
+	}
+
+	/**
+	 * @return Resources de cada dataset que se ha podido leer. Completo cuando han terminado las descargas.
+	 */
+	public Map<String, List<Resource>> getResources() {
+		return mResources;
+	}
+}
@@ -0,0 +1,101 @@
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.util.regex.Pattern;
+
+/**
+ * Arnés mínimo de medición de rendimiento, con la misma metodología que JMH pero sin dependencias: cada prueba se
+ * ejecuta varias iteraciones de calentamiento y de medición de duración fija, repitiendo la operación hasta agotar el
+ * tiempo de la iteración. De cada prueba se informa:
+ * <ul>
+ * <li>rendimiento (operaciones por segundo, media y desviación entre iteraciones),</li>
+ * <li>tiempo medio por operación,</li>
+ * <li>memoria reservada por operación y por segundo, medida con
+ * {@link com.sun.management.ThreadMXBean#getCurrentThreadAllocatedBytes()} (equivalente a gc.alloc.rate.norm y
+ * gc.alloc.rate del perfilador gc de JMH).</li>
+ * </ul>
+ * Las operaciones se ejecutan en el hilo que llama a {@link #medir}.
+ *
+ * @author Adolfo Trocolí Naranjo, 09218364X, a.trocoli@alumnos.upm.es
+ *
+ */
+public class Banco {
+
+	/**
+	 * Operación a medir. Debe devolver su resultado para que el compilador no pueda eliminarla.
+	 */
+	public interface Operacion {
+		Object ejecutar() throws Exception;
+	}
+
+	private static final com.sun.management.ThreadMXBean hilos = (com.sun.management.ThreadMXBean) ManagementFactory
+			.getThreadMXBean();
+
+	private final int calentamiento, iteraciones;
+	private final long duracionNanos;
+	private final Pattern filtro;
+	private final PrintStream salida;
+	private volatile int sumidero; // Consume los resultados de las operaciones
+
+	/**
+	 * @param calentamiento      Iteraciones de calentamiento, que no se tienen en cuenta.
+	 * @param iteraciones        Iteraciones de medición.
+	 * @param duracionIteracion  Duración de cada iteración, en milisegundos.
+	 * @param filtro             Expresión regular que deben contener los nombres de las pruebas a ejecutar.
+	 * @param salida             Destino del informe.
+	 */
+	public Banco(int calentamiento, int iteraciones, long duracionIteracion, String filtro, PrintStream salida) {
+		this.calentamiento = calentamiento;
+		this.iteraciones = iteraciones;
+		this.duracionNanos = duracionIteracion * 1_000_000;
+		this.filtro = Pattern.compile(filtro);
+		this.salida = salida;
+		hilos.setThreadAllocatedMemoryEnabled(true);
+	}
+
+	public void imprimirCabecera() {
+		salida.printf("%-34s %14s %10s %14s %14s %12s%n", "Prueba", "ops/s", "+- ops/s", "us/op", "B/op",
+				"MB/s reserv.");
+	}
+
+	/**
+	 * Mide una operación e imprime una línea con sus resultados, salvo que su nombre no pase el filtro.
+	 */
+	public void medir(String nombre, Operacion operacion) throws Exception {
+		if (!filtro.matcher(nombre).find()) return;
+		for (int i = 0; i < calentamiento; i++)
+			iteracion(operacion);
+		double[] rendimientos = new double[iteraciones];
+		long operaciones = 0, nanos = 0, bytes = 0;
+		for (int i = 0; i < iteraciones; i++) {
+			long[] medida = iteracion(operacion);
+			operaciones += medida[0];
+			nanos += medida[1];
+			bytes += medida[2];
+			rendimientos[i] = medida[0] * 1e9 / medida[1];
+		}
+		double media = 0, varianza = 0;
+		for (double rendimiento : rendimientos)
+			media += rendimiento / iteraciones;
+		for (double rendimiento : rendimientos)
+			varianza += (rendimiento - media) * (rendimiento - media) / Math.max(1, iteraciones - 1);
+		salida.printf("%-34s %14.1f %10.1f %14.2f %14d %12.1f%n", nombre, media, Math.sqrt(varianza),
+				nanos / 1e3 / operaciones, bytes / operaciones, bytes / 1048576.0 / (nanos / 1e9));
+	}
+
+	/**
+	 * @return Operaciones realizadas, nanosegundos empleados y bytes reservados.
+	 */
+	private long[] iteracion(Operacion operacion) throws Exception {
+		long operaciones = 0;
+		final long bytesInicio = hilos.getCurrentThreadAllocatedBytes();
+		final long inicio = System.nanoTime();
+		long ahora;
+		do {
+			final Object resultado = operacion.ejecutar();
+			sumidero += resultado == null ? 0 : System.identityHashCode(resultado);
+			operaciones++;
+			ahora = System.nanoTime();
+		} while (ahora - inicio < duracionNanos);
+		return new long[] { operaciones, ahora - inicio, hilos.getCurrentThreadAllocatedBytes() - bytesInicio };
+	}
+}
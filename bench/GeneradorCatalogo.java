@@ -0,0 +1,182 @@
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import com.google.gson.stream.JsonWriter;
+
+/**
+ * Genera un catálogo sintético con la estructura de <code>catalogo.xml</code> y los ficheros JSON-LD de sus datasets,
+ * para poder medir la aplicación con catálogos y datasets mucho mayores que los del portal.
+ * <br>
+ * El árbol de concepts tiene el número de raíces, profundidad y ramas por concept indicados. Cada dataset se asocia a
+ * entre uno y tres concepts elegidos al azar, y su "@graph" tiene el número de resources indicado, la mayoría de
+ * concepts del catálogo. Con la misma semilla se genera siempre el mismo catálogo.
+ * <br>
+ * Uso: <code>GeneradorCatalogo [--raices=5] [--profundidad=3] [--ramas=5] [--datasets=100] [--resources=200]
+ * [--url=http://localhost:18080] [--semilla=1] &lt;directorio&gt;</code>. Escribe <code>directorio/catalogo.xml</code>
+ * y los datasets en <code>directorio/catalogo/</code>, de forma que {@link ServidorPruebas} los sirve en las URLs que
+ * aparecen en el catálogo.
+ *
+ * @author Adolfo Trocolí Naranjo, 09218364X, a.trocoli@alumnos.upm.es
+ *
+ */
+public class GeneradorCatalogo {
+
+	private static final String PREFIJO_CONCEPT = "https://datos.madrid.es/egob/kos/sintetico";
+	private static final String CONCEPT_AJENO = "https://datos.madrid.es/egob/kos/otros/Ajeno";
+
+	private final int raices, profundidad, ramas;
+	private final Random aleatorio;
+	private final List<String> concepts = new ArrayList<String>();
+	private final List<String> codigosRaiz = new ArrayList<String>();
+	private int numConcepts;
+
+	public GeneradorCatalogo(int raices, int profundidad, int ramas, long semilla) {
+		this.raices = raices;
+		this.profundidad = profundidad;
+		this.ramas = ramas;
+		aleatorio = new Random(semilla);
+	}
+
+	public static void main(String[] args) throws IOException {
+		final Opciones opciones = new Opciones(args);
+		args = opciones.getArgumentos();
+		if (args.length != 1) {
+			System.err.println("Uso: GeneradorCatalogo [--raices=5] [--profundidad=3] [--ramas=5] [--datasets=100]"
+					+ " [--resources=200] [--url=http://localhost:18080] [--semilla=1] <directorio>");
+			System.exit(1);
+		}
+		final GeneradorCatalogo generador = new GeneradorCatalogo(opciones.getInt("raices", 5),
+				opciones.getInt("profundidad", 3), opciones.getInt("ramas", 5), opciones.getLong("semilla", 1));
+		final long inicio = System.nanoTime();
+		generador.generar(new File(args[0]), opciones.getInt("datasets", 100), opciones.getInt("resources", 200),
+				opciones.get("url", "http://localhost:" + ServidorPruebas.PUERTO));
+		System.out.printf("%d concepts y %d datasets generados en %.1f s. Códigos raíz: %s%n", generador.numConcepts,
+				opciones.getInt("datasets", 100), (System.nanoTime() - inicio) / 1e9,
+				String.join(",", generador.codigosRaiz));
+	}
+
+	/**
+	 * Escribe el catálogo y los ficheros de sus datasets.
+	 *
+	 * @param directorio   Directorio de salida; se crea si no existe.
+	 * @param numDatasets  Número de datasets.
+	 * @param numResources Número de resources del "@graph" de cada dataset.
+	 * @param url          URL base con la que se sirve el directorio, sin barra final.
+	 */
+	public void generar(File directorio, int numDatasets, int numResources, String url) throws IOException {
+		final File carpetaDatasets = new File(directorio, "catalogo");
+		Files.createDirectories(carpetaDatasets.toPath());
+		try (PrintWriter pw = new PrintWriter(new BufferedWriter(new OutputStreamWriter(
+				new FileOutputStream(new File(directorio, "catalogo.xml")), StandardCharsets.UTF_8), 1 << 16))) {
+			pw.println("<?xml version=\"1.0\" encoding=\"UTF-8\"?>");
+			pw.println("<catalog xmlns=\"http://www.piat.upm.es/catalogo\"");
+			pw.println("\txmlns:xsi=\"http://www.w3.org/2001/XMLSchema-instance\"");
+			pw.println("\txsi:schemaLocation=\"http://www.piat.upm.es/catalogo catalogo.xsd \">");
+			pw.println("\t<concepts>");
+			for (int i = 0; i < raices; i++) {
+				final String codigo = String.format("%03d", 100 + i);
+				codigosRaiz.add(codigo);
+				escribirConcept(pw, PREFIJO_CONCEPT + "/c" + i, codigo, "Categoría " + i, 1, 2);
+			}
+			pw.println("\t</concepts>");
+			pw.println("\t<datasets>");
+			for (int i = 0; i < numDatasets; i++) {
+				final String nombre = String.format("%06d-0-sintetico.json", i);
+				escribirDataset(pw, url + "/catalogo/" + nombre, i);
+				try (JsonWriter writer = new JsonWriter(new BufferedWriter(new OutputStreamWriter(
+						new FileOutputStream(new File(carpetaDatasets, nombre)), StandardCharsets.UTF_8), 1 << 16))) {
+					escribirGraph(writer, concepts, numResources, aleatorio);
+				}
+			}
+			pw.println("\t</datasets>");
+			pw.println("</catalog>");
+		}
+	}
+
+	private void escribirConcept(PrintWriter pw, String id, String codigo, String label, int nivel, int sangria) {
+		final String tab = "\t".repeat(sangria);
+		concepts.add(id);
+		final int serie = numConcepts++;
+		pw.println(tab + "<concept id=\"" + id + "\">");
+		pw.println(tab + "\t<code>" + codigo + "</code>");
+		pw.println(tab + "\t<label><![CDATA[" + label + "]]></label>");
+		if (nivel < profundidad) {
+			pw.println(tab + "\t<concepts>");
+			for (int i = 0; i < ramas; i++)
+				escribirConcept(pw, id + "/c" + i, String.format("%04d-%06d", i + 1, serie), label + "." + i, nivel + 1,
+						sangria + 2);
+			pw.println(tab + "\t</concepts>");
+		}
+		pw.println(tab + "</concept>");
+	}
+
+	private void escribirDataset(PrintWriter pw, String id, int numero) {
+		pw.println("\t\t<dataset id=\"" + id + "\">");
+		pw.println("\t\t\t<title><![CDATA[Dataset sintético " + numero + "]]></title>");
+		pw.println("\t\t\t<description><![CDATA[Dataset generado para pruebas de carga número " + numero
+				+ ".]]></description>");
+		pw.println("\t\t\t<theme><![CDATA[http://datos.gob.es/kos/sector-publico/sector/cultura-ocio]]></theme>");
+		pw.println("\t\t\t<publisher><![CDATA[http://datos.gob.es/recurso/sector-publico/org/Organismo/L01280796]]>"
+				+ "</publisher>");
+		pw.println("\t\t\t<concepts>");
+		final int numConceptsDataset = 1 + aleatorio.nextInt(3);
+		for (int i = 0; i < numConceptsDataset; i++)
+			pw.println("\t\t\t\t<concept id=\"" + concepts.get(aleatorio.nextInt(concepts.size())) + "\" />");
+		pw.println("\t\t\t</concepts>");
+		pw.println("\t\t</dataset>");
+	}
+
+	/**
+	 * Escribe un dataset JSON-LD con la estructura de los de la agenda del portal. La mitad de los resources son de
+	 * los concepts indicados y el resto de uno ajeno.
+	 *
+	 * @param writer       Destino del JSON.
+	 * @param concepts     URIs de los concepts a los que pueden pertenecer los resources.
+	 * @param numResources Número de resources del "@graph".
+	 * @param aleatorio    Generador de los valores.
+	 */
+	static void escribirGraph(JsonWriter writer, List<String> concepts, int numResources, Random aleatorio)
+			throws IOException {
+		writer.beginObject();
+		writer.name("@context").beginObject().name("c").value("https://datos.madrid.es/egob/").endObject();
+		writer.name("@graph").beginArray();
+		for (int i = 0; i < numResources; i++) {
+			final int lugar = aleatorio.nextInt(150);
+			writer.beginObject();
+			writer.name("@id").value("https://datos.madrid.es/egob/catalogo/tipo/evento/" + (10000000 + i));
+			writer.name("@type").value(i % 2 == 0 ? concepts.get(aleatorio.nextInt(concepts.size())) : CONCEPT_AJENO);
+			writer.name("id").value(Integer.toString(10000000 + i));
+			writer.name("title").value("Actividad " + i + " en el centro cultural " + lugar);
+			writer.name("description").value("Descripción de la actividad " + i + ". Inscripción previa en el centro.");
+			writer.name("free").value(0);
+			writer.name("dtstart").value("2026-" + (1 + aleatorio.nextInt(12)) + "-10 18:00:00.0");
+			writer.name("dtend").value("2026-12-31 23:59:00.0");
+			writer.name("recurrence").beginObject().name("days").value("MO,WE").name("frequency").value("WEEKLY")
+					.endObject();
+			writer.name("link")
+					.value("http://www.madrid.es/sites/v/index.jsp?vgnextoid=" + Long.toHexString(aleatorio.nextLong()));
+			writer.name("event-location").value("Centro cultural " + lugar);
+			writer.name("relation").beginObject().name("@id")
+					.value("https://datos.madrid.es/egob/catalogo/tipo/entidadesyorganismos/" + lugar).endObject();
+			writer.name("address").beginObject().name("area").beginObject().name("@id")
+					.value("https://datos.madrid.es/egob/kos/Provincia/Madrid/Municipio/Madrid/Distrito/D" + (lugar % 21))
+					.name("locality").value("MADRID").endObject().endObject();
+			writer.name("location").beginObject().name("latitude").value(40.4 + lugar / 1000.0).name("longitude")
+					.value(-3.7 - lugar / 1000.0).endObject();
+			writer.name("organization").beginObject().name("organization-name").value("Centro cultural " + lugar)
+					.name("accesibility").value(Integer.toString(lugar % 6)).endObject();
+			writer.endObject();
+		}
+		writer.endArray();
+		writer.endObject();
+	}
+}
@@ -0,0 +1,110 @@
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Ejecuta {@link P5_XPATH} de principio a fin, en un proceso aparte, contra un catálogo generado con
+ * {@link GeneradorCatalogo} y servido por un {@link ServidorPruebas} con la latencia indicada. De cada ejecución
+ * informa del tiempo total, del pico de memoria residente del proceso (VmHWM de <code>/proc</code>, solo en Linux) y
+ * del rendimiento en datasets y resources escritos por segundo.
+ * <br>
+ * Uso: <code>PruebaCarga [--latencia=ms] [--repeticiones=3] [--puerto=18080] [--jvm="-Xmx1g ..."] &lt;directorio&gt;
+ * &lt;códigos&gt; [-- opciones de P5_XPATH]</code>.
+ *
+ * @author Adolfo Trocolí Naranjo, 09218364X, a.trocoli@alumnos.upm.es
+ *
+ */
+public class PruebaCarga {
+
+	private static final long PERIODO_MUESTREO = 20; // ms entre dos lecturas de la memoria del proceso
+
+	public static void main(String[] args) throws Exception {
+		final int separador = Arrays.asList(args).indexOf("--");
+		final String[] opcionesP5 = separador < 0 ? new String[0] : Arrays.copyOfRange(args, separador + 1, args.length);
+		final Opciones opciones = new Opciones(separador < 0 ? args : Arrays.copyOfRange(args, 0, separador));
+		args = opciones.getArgumentos();
+		if (args.length != 2) {
+			System.err.println("Uso: PruebaCarga [--latencia=ms] [--repeticiones=3] [--puerto=18080] [--jvm=\"...\"]"
+					+ " <directorio> <códigos> [-- opciones de P5_XPATH]");
+			System.exit(1);
+		}
+		final File directorio = new File(args[0]);
+		final ServidorPruebas servidor = new ServidorPruebas(directorio,
+				opciones.getInt("puerto", ServidorPruebas.PUERTO));
+		servidor.setLatencia(Duration.ofMillis(opciones.getLong("latencia", 0)));
+		servidor.arrancar();
+		try {
+			System.out.printf("%-4s %10s %12s %10s %10s %12s %14s%n", "Rep", "Tiempo (s)", "Pico RSS (MB)", "Datasets",
+					"Resources", "Datasets/s", "Resources/s");
+			for (int i = 1; i <= opciones.getInt("repeticiones", 3); i++)
+				ejecutar(i, new File(directorio, "catalogo.xml"), args[1], opcionesP5, opciones.get("jvm", ""));
+		} finally {
+			servidor.parar();
+		}
+	}
+
+	private static void ejecutar(int repeticion, File catalogo, String codigos, String[] opcionesP5, String jvm)
+			throws IOException, InterruptedException {
+		final Path salida = Files.createTempDirectory("carga");
+		final File xml = salida.resolve("salida.xml").toFile();
+		final File json = salida.resolve("salida.json").toFile();
+		final File log = salida.resolve("salida.log").toFile();
+		xml.createNewFile(); // P5_XPATH exige que los ficheros de salida se puedan escribir
+		json.createNewFile();
+
+		List<String> comando = new ArrayList<String>();
+		comando.add(new File(System.getProperty("java.home"), "bin/java").getPath());
+		if (!jvm.isBlank()) comando.addAll(Arrays.asList(jvm.trim().split("\\s+")));
+		comando.addAll(Arrays.asList("-cp", System.getProperty("java.class.path"), "P5_XPATH"));
+		comando.addAll(Arrays.asList(opcionesP5));
+		comando.addAll(Arrays.asList(catalogo.getPath(), codigos, xml.getPath(), json.getPath()));
+
+		final long inicio = System.nanoTime();
+		final Process proceso = new ProcessBuilder(comando).redirectErrorStream(true).redirectOutput(log).start();
+		long picoRSS = -1;
+		while (!proceso.waitFor(PERIODO_MUESTREO, TimeUnit.MILLISECONDS))
+			picoRSS = Math.max(picoRSS, leerPicoRSS(proceso.pid()));
+		final double segundos = (System.nanoTime() - inicio) / 1e9;
+
+		long datasets = 0, resources = 0;
+		File[] ficherosXML = salida.toFile().listFiles((dir, nombre) -> nombre.endsWith(".xml"));
+		for (File fichero : ficherosXML) {
+			for (String linea : Files.readAllLines(fichero.toPath(), StandardCharsets.UTF_8)) {
+				final String recortada = linea.trim();
+				if (recortada.startsWith("<numDatasets>"))
+					datasets += Long.parseLong(recortada.replaceAll("\\D", ""));
+				else if (recortada.startsWith("<resource ")) resources++;
+			}
+		}
+		System.out.printf("%-4d %10.2f %12s %10d %10d %12.1f %14.1f%n", repeticion, segundos,
+				picoRSS < 0 ? "n/d" : String.format("%.1f", picoRSS / 1024.0), datasets, resources, datasets / segundos,
+				resources / segundos);
+		if (proceso.exitValue() != 0) {
+			System.out.println("\tP5_XPATH terminó con código " + proceso.exitValue() + "; salida en " + log);
+			return;
+		}
+		for (File fichero : salida.toFile().listFiles())
+			fichero.delete();
+		salida.toFile().delete();
+	}
+
+	/**
+	 * @return Pico de memoria residente del proceso en KB, o -1 si no se puede leer.
+	 */
+	private static long leerPicoRSS(long pid) {
+		try {
+			for (String linea : Files.readAllLines(Path.of("/proc", Long.toString(pid), "status")))
+				if (linea.startsWith("VmHWM:")) return Long.parseLong(linea.replaceAll("\\D", ""));
+		} catch (IOException | RuntimeException e) {
+			// El proceso ha terminado o no es Linux
+		}
+		return -1;
+	}
+}
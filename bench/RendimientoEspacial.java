@@ -0,0 +1,137 @@
+import java.util.Arrays;
+import java.util.PriorityQueue;
+import java.util.Random;
+import java.util.stream.IntStream;
+
+/**
+ * Pruebas de rendimiento de {@link IndiceEspacial} frente a un recorrido lineal de los mismos puntos, con un millón de
+ * puntos aleatorios dentro del término municipal de Madrid:
+ * <ul>
+ * <li>construcción del índice,</li>
+ * <li>consulta por rectángulo de unos 2 x 2 km,</li>
+ * <li>consulta por radio de 1 km,</li>
+ * <li>consulta de los 10 puntos más cercanos.</li>
+ * </ul>
+ * Cada operación de consulta usa el siguiente de una serie fija de centros aleatorios. Antes de medir se comprueba que
+ * el índice y el recorrido lineal dan los mismos resultados con esos centros.
+ * <br>
+ * Uso: <code>RendimientoEspacial [--calentamiento=n] [--iteraciones=n] [--duracion=ms] [--filtro=regex]
+ * [--puntos=n]</code>.
+ *
+ * @author Adolfo Trocolí Naranjo, 09218364X, a.trocoli@alumnos.upm.es
+ *
+ */
+public class RendimientoEspacial {
+
+	// Rectángulo aproximado del término municipal de Madrid
+	private static final double LAT_MIN = 40.31, LAT_MAX = 40.64, LON_MIN = -3.89, LON_MAX = -3.52;
+	private static final double LADO_RECTANGULO = 0.018; // Unos 2 km de latitud
+	private static final double RADIO = 1000;
+	private static final int CERCANOS = 10;
+	private static final int CENTROS = 1024;
+
+	public static void main(String[] args) throws Exception {
+		final Opciones opciones = new Opciones(args);
+		final Banco banco = new Banco(opciones.getInt("calentamiento", 3), opciones.getInt("iteraciones", 5),
+				opciones.getLong("duracion", 1000), opciones.get("filtro", ""), System.out);
+		final int puntos = opciones.getInt("puntos", 1_000_000);
+		final Random aleatorio = new Random(42);
+		final double[] latitudes = new double[puntos], longitudes = new double[puntos];
+		for (int i = 0; i < puntos; i++) {
+			latitudes[i] = LAT_MIN + aleatorio.nextDouble() * (LAT_MAX - LAT_MIN);
+			longitudes[i] = LON_MIN + aleatorio.nextDouble() * (LON_MAX - LON_MIN);
+		}
+		final double[][] centros = new double[CENTROS][];
+		for (int i = 0; i < CENTROS; i++)
+			centros[i] = new double[] { LAT_MIN + aleatorio.nextDouble() * (LAT_MAX - LAT_MIN),
+					LON_MIN + aleatorio.nextDouble() * (LON_MAX - LON_MIN) };
+		final IndiceEspacial indice = new IndiceEspacial(latitudes, longitudes);
+		comprobar(indice, latitudes, longitudes, centros);
+
+		final int[] siguiente = { 0 };
+		banco.imprimirCabecera();
+		banco.medir("espacial.construccion " + puntos, () -> new IndiceEspacial(latitudes, longitudes));
+		banco.medir("espacial.rectangulo indice", () -> {
+			final double[] c = centros[siguiente[0]++ & (CENTROS - 1)];
+			return indice.buscarRectangulo(c[0], c[1], c[0] + LADO_RECTANGULO, c[1] + LADO_RECTANGULO);
+		});
+		banco.medir("espacial.rectangulo lineal", () -> {
+			final double[] c = centros[siguiente[0]++ & (CENTROS - 1)];
+			return rectanguloLineal(latitudes, longitudes, c[0], c[1], c[0] + LADO_RECTANGULO,
+					c[1] + LADO_RECTANGULO);
+		});
+		banco.medir("espacial.radio indice", () -> {
+			final double[] c = centros[siguiente[0]++ & (CENTROS - 1)];
+			return indice.buscarRadio(c[0], c[1], RADIO);
+		});
+		banco.medir("espacial.radio lineal", () -> {
+			final double[] c = centros[siguiente[0]++ & (CENTROS - 1)];
+			return radioLineal(latitudes, longitudes, c[0], c[1], RADIO);
+		});
+		banco.medir("espacial.cercanos indice", () -> {
+			final double[] c = centros[siguiente[0]++ & (CENTROS - 1)];
+			return indice.buscarCercanos(c[0], c[1], CERCANOS);
+		});
+		banco.medir("espacial.cercanos lineal", () -> {
+			final double[] c = centros[siguiente[0]++ & (CENTROS - 1)];
+			return cercanosLineal(latitudes, longitudes, c[0], c[1], CERCANOS);
+		});
+	}
+
+	/**
+	 * Comprueba que el índice devuelve los mismos puntos que el recorrido lineal en todas las consultas medidas.
+	 */
+	private static void comprobar(IndiceEspacial indice, double[] latitudes, double[] longitudes, double[][] centros) {
+		for (double[] c : centros) {
+			final double latMax = c[0] + LADO_RECTANGULO, lonMax = c[1] + LADO_RECTANGULO;
+			if (!mismos(indice.buscarRectangulo(c[0], c[1], latMax, lonMax),
+					rectanguloLineal(latitudes, longitudes, c[0], c[1], latMax, lonMax))
+					|| !mismos(indice.buscarRadio(c[0], c[1], RADIO),
+							radioLineal(latitudes, longitudes, c[0], c[1], RADIO))
+					|| !Arrays.equals(indice.buscarCercanos(c[0], c[1], CERCANOS),
+							cercanosLineal(latitudes, longitudes, c[0], c[1], CERCANOS)))
+				throw new IllegalStateException(
+						"El índice no coincide con el recorrido lineal en " + Arrays.toString(c));
+		}
+	}
+
+	private static boolean mismos(int[] a, int[] b) {
+		final int[] x = a.clone(), y = b.clone();
+		Arrays.sort(x);
+		Arrays.sort(y);
+		return Arrays.equals(x, y);
+	}
+
+	private static int[] rectanguloLineal(double[] latitudes, double[] longitudes, double latMin, double lonMin,
+			double latMax, double lonMax) {
+		final IntStream.Builder encontrados = IntStream.builder();
+		for (int i = 0; i < latitudes.length; i++)
+			if (latitudes[i] >= latMin && latitudes[i] <= latMax && longitudes[i] >= lonMin && longitudes[i] <= lonMax)
+				encontrados.add(i);
+		return encontrados.build().toArray();
+	}
+
+	private static int[] radioLineal(double[] latitudes, double[] longitudes, double lat, double lon, double metros) {
+		final IntStream.Builder encontrados = IntStream.builder();
+		for (int i = 0; i < latitudes.length; i++)
+			if (IndiceEspacial.distancia(lat, lon, latitudes[i], longitudes[i]) <= metros) encontrados.add(i);
+		return encontrados.build().toArray();
+	}
+
+	private static int[] cercanosLineal(double[] latitudes, double[] longitudes, double lat, double lon, int k) {
+		final PriorityQueue<double[]> mejores = new PriorityQueue<double[]>(k + 1,
+				(a, b) -> Double.compare(b[0], a[0]));
+		for (int i = 0; i < latitudes.length; i++) {
+			final double d = IndiceEspacial.distancia(lat, lon, latitudes[i], longitudes[i]);
+			if (mejores.size() < k) mejores.add(new double[] { d, i });
+			else if (d < mejores.peek()[0]) {
+				mejores.poll();
+				mejores.add(new double[] { d, i });
+			}
+		}
+		final int[] cercanos = new int[mejores.size()];
+		for (int i = cercanos.length - 1; i >= 0; i--)
+			cercanos[i] = (int) mejores.poll()[1];
+		return cercanos;
+	}
+}
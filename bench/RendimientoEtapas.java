@@ -0,0 +1,188 @@
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintStream;
+import java.io.PrintWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.stream.IntStream;
+
+import javax.xml.parsers.SAXParserFactory;
+
+import com.google.gson.stream.JsonWriter;
+
+/**
+ * Pruebas de rendimiento de cada etapa de la extracción, sin red ni disco salvo donde la etapa lo exige (XPath lee el
+ * XML de un fichero y {@link ConstructorDocumentoJSON} escribe en uno):
+ * <ul>
+ * <li>escaneo del catálogo con SAX, StAX y el motor paralelo (desde un fichero temporal, con uno y con todos los
+ * procesadores), con el catálogo original y con sus datasets repetidos 4 y 16 veces,</li>
+ * <li>apertura de la instantánea binaria de esos mismos catálogos, ya generada,</li>
+ * <li>lectura del "@graph" de datasets JSON-LD sintéticos desde memoria, completos y con el límite de 5
+ * resources,</li>
+ * <li>escritura del XML y del JSON de salida, este también en NDJSON,</li>
+ * <li>evaluación XPath del XML de salida.</li>
+ * </ul>
+ * Uso: <code>RendimientoEtapas [--calentamiento=n] [--iteraciones=n] [--duracion=ms] [--filtro=regex]
+ * &lt;ficheroCatalogo&gt; [códigoCategoría]</code>.
+ *
+ * @author Adolfo Trocolí Naranjo, 09218364X, a.trocoli@alumnos.upm.es
+ *
+ */
+public class RendimientoEtapas {
+
+	private static final int[] REPETICIONES_CATALOGO = { 1, 4, 16 };
+	private static final int[] RESOURCES_DATASET = { 1000, 10000 };
+	private static final int DATASETS_SALIDA = 6;
+	private static final int RESOURCES_SALIDA = 2000;
+
+	public static void main(String[] args) throws Exception {
+		final Opciones opciones = new Opciones(args);
+		args = opciones.getArgumentos();
+		if (args.length < 1) {
+			System.err.println("Uso: RendimientoEtapas [--calentamiento=n] [--iteraciones=n] [--duracion=ms]"
+					+ " [--filtro=regex] <ficheroCatalogo> [códigoCategoría]");
+			System.exit(1);
+		}
+		final String codigo = args.length > 1 ? args[1] : "018";
+		final PrintStream informe = System.out;
+		// Los parsers escriben trazas por la salida estándar; se descartan para no medir la consola
+		System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+		final Banco banco = new Banco(opciones.getInt("calentamiento", 3), opciones.getInt("iteraciones", 5),
+				opciones.getLong("duracion", 1000), opciones.get("filtro", ""), informe);
+		final byte[] catalogo = Files.readAllBytes(new File(args[0]).toPath());
+		final SAXParserFactory factory = SAXParserFactory.newInstance();
+		factory.setNamespaceAware(true);
+
+		// Resultado del catálogo original, del que salen el índice de concepts y los datasets para el resto de etapas
+		ManejadorXML manejador = new ManejadorXML(codigo);
+		factory.newSAXParser().parse(new ByteArrayInputStream(catalogo), manejador);
+		final ResultadoBusqueda resultado = manejador.getResultados().get(0);
+		final IndiceConceptos indice = manejador.getIndice();
+		if (resultado.getRaiz() < 0) throw new IllegalArgumentException("El código " + codigo + " no existe");
+		final List<String> concepts = indice.getSubarbol(resultado.getRaiz());
+
+		banco.imprimirCabecera();
+		for (int repeticiones : REPETICIONES_CATALOGO) {
+			final byte[] datos = repetirDatasets(catalogo, repeticiones);
+			banco.medir("catalogo.sax x" + repeticiones, () -> {
+				ManejadorXML m = new ManejadorXML(codigo);
+				factory.newSAXParser().parse(new ByteArrayInputStream(datos), m);
+				return m.getResultados();
+			});
+			banco.medir("catalogo.stax x" + repeticiones, () -> {
+				ManejadorStAX m = new ManejadorStAX(codigo);
+				m.parsear(new ByteArrayInputStream(datos));
+				return m.getResultados();
+			});
+			final File fichero = File.createTempFile("rendimiento", ".xml");
+			fichero.deleteOnExit();
+			Files.write(fichero.toPath(), datos);
+			for (int hilos : IntStream.of(1, Runtime.getRuntime().availableProcessors()).distinct().toArray()) {
+				banco.medir("catalogo.paralelo" + hilos + " x" + repeticiones, () -> {
+					ManejadorParalelo m = new ManejadorParalelo(Collections.singletonList(codigo), hilos);
+					m.parsear(fichero);
+					return m.getResultados();
+				});
+			}
+			final File instantanea = new File(fichero.getPath() + InstantaneaCatalogo.EXTENSION);
+			instantanea.deleteOnExit();
+			InstantaneaCatalogo.generar(fichero, instantanea);
+			banco.medir("catalogo.instantanea x" + repeticiones, () -> {
+				InstantaneaCatalogo i = new InstantaneaCatalogo(Collections.singletonList(codigo));
+				i.abrir(fichero, instantanea);
+				return i.getResultados();
+			});
+		}
+
+		for (int numResources : RESOURCES_DATASET) {
+			final byte[] dataset = generarDataset(concepts, numResources, new Random(numResources));
+			banco.medir("json.graph " + numResources + " todos", () -> crearParser(indice, resultado.getRaiz(),
+					CupoResources.SIN_LIMITE).leer(new ByteArrayInputStream(dataset)));
+			banco.medir("json.graph " + numResources + " max5",
+					() -> crearParser(indice, resultado.getRaiz(), 5).leer(new ByteArrayInputStream(dataset)));
+		}
+
+		// Salida de RESOURCES_SALIDA resources repartidos entre los primeros datasets del resultado
+		final Map<String, HashMap<String, String>> hDatasets = new LinkedHashMap<String, HashMap<String, String>>();
+		for (Map.Entry<String, HashMap<String, String>> entrada : resultado.getDatasets().entrySet())
+			if (hDatasets.size() < DATASETS_SALIDA) hDatasets.put(entrada.getKey(), entrada.getValue());
+		final Map<String, List<Resource>> mResources = new LinkedHashMap<String, List<Resource>>();
+		final Random aleatorio = new Random(RESOURCES_SALIDA);
+		for (String idDataset : hDatasets.keySet()) {
+			byte[] dataset = generarDataset(concepts, RESOURCES_SALIDA / hDatasets.size(), aleatorio);
+			mResources.put(idDataset, crearParser(indice, resultado.getRaiz(), CupoResources.SIN_LIMITE)
+					.leer(new ByteArrayInputStream(dataset)));
+		}
+		final List<String> lConcepts = resultado.getConcepts();
+		banco.medir("xml.escritura " + RESOURCES_SALIDA, () -> {
+			PrintWriter pw = new PrintWriter(Writer.nullWriter());
+			ConstructorCatalogoXML.printCabecera(pw, lConcepts, hDatasets, codigo);
+			pw.println("\t\t<resources>");
+			for (Map.Entry<String, List<Resource>> entrada : mResources.entrySet())
+				ConstructorCatalogoXML.printResource(pw, entrada.getKey(), entrada.getValue());
+			pw.println("\t\t</resources>");
+			ConstructorCatalogoXML.printFinal(pw);
+			pw.flush();
+			return pw;
+		});
+
+		final File xml = File.createTempFile("rendimiento", ".xml");
+		final File json = File.createTempFile("rendimiento", ".json");
+		xml.deleteOnExit();
+		json.deleteOnExit();
+		ConstructorCatalogoXML.construir(xml.getPath(), resultado.getLabel(), lConcepts, hDatasets, codigo,
+				mResources);
+		banco.medir("xpath.evaluacion " + RESOURCES_SALIDA, () -> new XPathProcess(xml.getPath()).evaluar());
+		final ContenidoJSON contenido = new EvaluadorMemoria(codigo, hDatasets, mResources);
+		banco.medir("json.escritura " + RESOURCES_SALIDA, () -> {
+			ConstructorDocumentoJSON.construir(contenido, json.getPath(), false);
+			return contenido;
+		});
+		banco.medir("ndjson.escritura " + RESOURCES_SALIDA, () -> {
+			ConstructorDocumentoJSON.construir(contenido, json.getPath(), true);
+			return contenido;
+		});
+		System.exit(0);
+	}
+
+	private static JSONDatasetParser crearParser(IndiceConceptos indice, int raiz, int maxResources) {
+		return new JSONDatasetParser("memoria", indice, raiz, null, maxResources,
+				new CupoResources(CupoResources.SIN_LIMITE), new DiccionarioValores());
+	}
+
+	/**
+	 * Devuelve el catálogo con la sección de datasets repetida, cambiando los ids de las copias para que no coincidan.
+	 */
+	private static byte[] repetirDatasets(byte[] catalogo, int repeticiones) {
+		final String texto = new String(catalogo, StandardCharsets.UTF_8);
+		final int inicio = texto.indexOf("<datasets>") + "<datasets>".length();
+		final int fin = texto.indexOf("</datasets>");
+		final String datasets = texto.substring(inicio, fin);
+		StringBuilder resultado = new StringBuilder(texto.length() * repeticiones);
+		resultado.append(texto, 0, fin);
+		for (int i = 1; i < repeticiones; i++)
+			resultado.append(datasets.replaceAll("<dataset id=\"([^\"]*)\"", "<dataset id=\"$1?copia=" + i + "\""));
+		resultado.append(texto, fin, texto.length());
+		return resultado.toString().getBytes(StandardCharsets.UTF_8);
+	}
+
+	private static byte[] generarDataset(List<String> concepts, int numResources, Random aleatorio)
+			throws IOException {
+		ByteArrayOutputStream salida = new ByteArrayOutputStream();
+		try (JsonWriter writer = new JsonWriter(new OutputStreamWriter(salida, StandardCharsets.UTF_8))) {
+			GeneradorCatalogo.escribirGraph(writer, concepts, numResources, aleatorio);
+		}
+		return salida.toByteArray();
+	}
+}